@@ -4,10 +4,12 @@ import java.util.Collection;
 
 import org.elasticsearch.common.collect.Lists;
 import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.plugins.security.service.SecurityServiceModule;
 
 public class SecurityPlugin extends AbstractPlugin {
 
@@ -28,6 +30,16 @@ public class SecurityPlugin extends AbstractPlugin {
 		return services;
 	}
 
+	@Override
+	public Collection<Class<? extends Module>> modules() {
+		final Collection<Class<? extends Module>> modules = Lists
+				.newArrayList();
+
+		modules.add(SecurityServiceModule.class);
+
+		return modules;
+	}
+
 	@Override
 	public String description() {
 		return "Security Plugin";
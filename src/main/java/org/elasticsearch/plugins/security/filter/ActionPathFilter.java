@@ -7,13 +7,16 @@ import java.util.List;
 
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
-import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestChannel;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
-import org.elasticsearch.plugins.security.http.tomcat.TomcatUserRoleCallback;
 import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.plugins.security.service.permission.DecisionTrace;
 import org.elasticsearch.plugins.security.util.EditableRestRequest;
+import org.elasticsearch.plugins.security.util.RequestKind;
+import org.elasticsearch.plugins.security.util.RequestPath;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestFilterChain;
+import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestStatus;
 
 public class ActionPathFilter extends SecureRestFilter {
@@ -24,39 +27,45 @@ public class ActionPathFilter extends SecureRestFilter {
 	}
 
 	@Override
-	public void processSecure(final TomcatHttpServerRestRequest request,
-			final TomcatHttpServerRestChannel channel,
-			final RestFilterChain filterChain) {
+	public void processSecure(final RestRequest request,
+			final RestChannel channel, final RestFilterChain filterChain) {
 
-		if (SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
-				request.path(), SecurityUtil.BUILT_IN_ADMIN_COMMANDS)) {
+		final RequestPath requestPath = SecurityUtil.getRequestPath(request);
+		final boolean strictModeEnabled = securityService.isStrictModeEnabled();
+
+		if (requestPath.hasAdminCommandAsName()) {
 			log.warn("Index- or Typename should not contains admin commands like "
 					+ Arrays.toString(SecurityUtil.BUILT_IN_ADMIN_COMMANDS));
 		}
 
-		if (SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
-				request.path(), securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX)) {
+		if (requestPath.hasReadCommandAsName(strictModeEnabled)) {
 			log.warn("Index- or Typename should not contains search commands like "
-					+ Arrays.toString(securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
+					+ Arrays.toString(strictModeEnabled?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
 		}
 
-		if (SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
-				request.path(), securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX)) {
+		if (requestPath.hasWriteCommandAsName(strictModeEnabled)) {
 			log.warn("Index- or Typename should not contains write commands like "
-					+ Arrays.toString(securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX));
+					+ Arrays.toString(strictModeEnabled?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX));
 		}
 
 		try {
 
-			final PermLevel permLevel = new PermLevelEvaluator(
-					securityService.getXContentSecurityConfiguration(
-							getType(), getId()))
-			.evaluatePerm(
-					SecurityUtil.getIndices(request),
-					SecurityUtil.getTypes(request),
+			final DecisionTrace trace = securityService
+					.getDecisionTrace(request);
+
+			final PermLevel permLevel = securityService.evaluatePermLevel(
+					getType(), getId(),
+					requestPath.getIndices(),
+					requestPath.getTypes(),
 					getClientHostAddress(request),
-					new TomcatUserRoleCallback(request
-							.getHttpServletRequest(),securityService.getSettings().get("security.ssl.userattribute")));
+					getUserRoleCallback(request), trace);
+
+			if (trace != null) {
+				// the trace goes to the log only, it names the rules
+				log.info("Authorization trace for {} {}, {}: {}",
+						request.method(), requestPath.getPath(),
+						requestPath.getKind(strictModeEnabled), trace);
+			}
 
 			if (permLevel == PermLevel.NONE) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
@@ -64,35 +73,35 @@ public class ActionPathFilter extends SecureRestFilter {
 				return;
 			}
 
+			final RequestKind kind = requestPath.getKind(strictModeEnabled);
+
 			if (permLevel.ordinal() < PermLevel.ALL.ordinal()
-					&& SecurityUtil.isAdminRequest(request)) {
+					&& kind == RequestKind.ADMIN) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
 						"No permission (for admin actions)");
 				return;
 			}
 
 			if (permLevel.ordinal() < PermLevel.READWRITE.ordinal()
-					&& SecurityUtil.isWriteRequest(request,securityService.isStrictModeEnabled())) {
+					&& kind == RequestKind.WRITE) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
 						"No permission (for write actions)");
 				return;
 			}
-
-			if (permLevel == PermLevel.READONLY
-					&& !SecurityUtil.isReadRequest(request,securityService.isStrictModeEnabled())) {
-				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
-						"No permission (for read actions)");
-				return;
-			}
 			
 			// Ram Kotamarja - START
 			// adding code to modify request modification before it hits elastic
 			// search to apply the search filters
-			modifiyKibanaRequest(request, channel);
+			final RestRequest modifiedRequest = modifiyKibanaRequest(request,
+					channel);
 			// Ram Kotamaraja - END
-			
 
-			filterChain.continueProcessing(request, channel);
+			if (modifiedRequest == null) {
+				// an error was sent
+				return;
+			}
+
+			filterChain.continueProcessing(modifiedRequest, channel);
 			return;
 		} catch (final MalformedConfigurationException e) {
 			log.error("Cannot parse security configuration ", e);
@@ -117,10 +126,11 @@ public class ActionPathFilter extends SecureRestFilter {
 	 * allow it to process generic queries coming from kibana by
 	 * validating against the security framework (contributed by Ram Kotamaraja)
 	 * @param request
+	 * @return the request to continue with, null if an error was sent
 	 */
-	private void modifiyKibanaRequest(
-			final TomcatHttpServerRestRequest request,
-			final TomcatHttpServerRestChannel channel) {
+	private RestRequest modifiyKibanaRequest(
+			final RestRequest request,
+			final RestChannel channel) {
 
 		List<String> reqTypesList = SecurityUtil.getTypes(request);
 		if (reqTypesList != null && !reqTypesList.isEmpty()
@@ -130,7 +140,7 @@ public class ActionPathFilter extends SecureRestFilter {
 			// type level security
 			log.debug("Not modifying the request (for kibana) as there is one or more types already associated with the request");
 			reqTypesList = null;
-			return;
+			return request;
 		}
 
 		String kibanaPermLevel = null;
@@ -139,7 +149,7 @@ public class ActionPathFilter extends SecureRestFilter {
 					getType(), getKibanaId());
 		} catch (Exception e) {
 			log.debug("No Kibana configuration found, so continuing the rest of the process: "+e.getMessage());
-			return;
+			return request;
 		}
 
 		List<String> kibanaTypesList = null;
@@ -166,6 +176,9 @@ public class ActionPathFilter extends SecureRestFilter {
 					// determine authorized types list
 					
 
+					final PermLevelEvaluator evaluator = securityService
+							.getPermLevelEvaluator(getType(), getId());
+
 					Iterator<String> kibanaTypesItr = kibanaTypesList
 							.iterator();
 
@@ -173,20 +186,13 @@ public class ActionPathFilter extends SecureRestFilter {
 
 						List<String> kibanaType = new ArrayList<String>();
 						kibanaType.add((String) kibanaTypesItr.next());
-						final PermLevel permLevel = new PermLevelEvaluator(
-								securityService
-										.getXContentSecurityConfiguration(
-												getType(), getId()))
+						final PermLevel permLevel = evaluator
 								.evaluatePerm(
 										SecurityUtil.getIndices(request),
 										// SecurityUtil.getTypes(request),
 										kibanaType,
 										getClientHostAddress(request),
-										new TomcatUserRoleCallback(
-												request.getHttpServletRequest(),
-												securityService
-														.getSettings()
-														.get("security.ssl.userattribute")));
+										getUserRoleCallback(request));
 
 						log.debug("Kibana perm level = "+permLevel);
 
@@ -227,8 +233,16 @@ public class ActionPathFilter extends SecureRestFilter {
 						modifiedContent += "]}}," + postReqContent;
 						log.debug("modified request content = " + modifiedContent);
 												
-						request.setContent(new BytesArray(modifiedContent));
-						request.setAttribute(TomcatHttpServerRestRequest.REQUEST_CONTENT_ATTRIBUTE, request.getContent());
+						if (request instanceof TomcatHttpServerRestRequest) {
+							final TomcatHttpServerRestRequest tomcatRequest = (TomcatHttpServerRestRequest) request;
+							tomcatRequest.setContent(new BytesArray(modifiedContent));
+							tomcatRequest.setAttribute(TomcatHttpServerRestRequest.REQUEST_CONTENT_ATTRIBUTE, tomcatRequest.getContent());
+						} else {
+							final EditableRestRequest editableRequest = new EditableRestRequest(request);
+							editableRequest.setContent(new BytesArray(modifiedContent));
+							editableRequest.setHasContent(true);
+							return editableRequest;
+						}
 
 					}
 				}
@@ -239,16 +253,17 @@ public class ActionPathFilter extends SecureRestFilter {
 					RestStatus.INTERNAL_SERVER_ERROR,
 					"Cannot parse security configuration");
 
-			return;
+			return null;
 		} catch (Exception e) {
 			log.error("Generic error: ", e);
 			SecurityUtil.send(request, channel,
 					RestStatus.INTERNAL_SERVER_ERROR,
 					"Generic error, see log for details");
 
-			return;
+			return null;
 		}
 
+		return request;
 	}
 
 	/**
@@ -1,6 +1,5 @@
 package org.elasticsearch.plugins.security.filter;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -13,14 +12,13 @@ import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
-import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestChannel;
-import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
-import org.elasticsearch.plugins.security.http.tomcat.TomcatUserRoleCallback;
 import org.elasticsearch.plugins.security.service.SecurityService;
 import org.elasticsearch.plugins.security.service.permission.DlsPermission;
 import org.elasticsearch.plugins.security.util.EditableRestRequest;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestFilterChain;
+import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestStatus;
 
 /**
@@ -37,9 +35,8 @@ public class DlsWriteFilter extends SecureRestFilter {
 	}
 
 	@Override
-	public void processSecure(final TomcatHttpServerRestRequest request,
-			final TomcatHttpServerRestChannel channel,
-			final RestFilterChain filterChain) {
+	public void processSecure(final RestRequest request,
+			final RestChannel channel, final RestFilterChain filterChain) {
 
 		try {
 
@@ -48,15 +45,13 @@ public class DlsWriteFilter extends SecureRestFilter {
 				return;
 			}
 
-			final List<String> dlsTokens = new PermDlsEvaluator(
-					securityService.getXContentSecurityConfiguration(
-							getType(), getId()))
+			final List<String> dlsTokens = securityService
+					.getPermDlsEvaluator(getType(), getId())
 			.evaluatePerm(
 					SecurityUtil.getIndices(request),
 					SecurityUtil.getTypes(request),
 					getClientHostAddress(request),
-					new TomcatUserRoleCallback(request
-							.getHttpServletRequest(),securityService.getSettings().get("security.ssl.userattribute")));
+					getUserRoleCallback(request));
 
 			final String json = XContentHelper.convertToJson(request.content(),
 					true);
@@ -86,17 +81,8 @@ public class DlsWriteFilter extends SecureRestFilter {
 
 				log.debug("perms " + perms);
 
-				final List<String> fields = new ArrayList<String>();
-
-				for (final DlsPermission p : perms) {
-
-					if (p.isAnyTokenAllowedToUpdate(dlsTokens))
-
-					{
-						fields.add(p.getField());
-					}
-
-				}
+				final List<String> fields = securityService
+						.getDlsUpdatableFields(perms, dlsTokens);
 				log.debug("ffields " + fields);
 
 				final Tuple<XContentType, Map<String, Object>> mapTuple = XContentHelper
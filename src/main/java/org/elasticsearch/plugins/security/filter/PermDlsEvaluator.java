@@ -1,8 +1,10 @@
 package org.elasticsearch.plugins.security.filter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.elasticsearch.plugins.security.service.permission.HostNameResolver;
 import org.elasticsearch.plugins.security.service.permission.PermEvaluator;
 
 
@@ -13,13 +15,18 @@ public class PermDlsEvaluator extends PermEvaluator<List<String>> {
 
 	}
 
+	public PermDlsEvaluator(final String xSecurityConfiguration,
+			final HostNameResolver hostNameResolver) {
+		super(xSecurityConfiguration, hostNameResolver);
+	}
+
 	@Override
 	protected List<String> createFromString(final String s) {
 
 		final List<String> fields = new ArrayList<String>();
 
 		if (s == null) {
-			return fields;
+			return Collections.unmodifiableList(fields);
 		}
 
 		final String[] split = s.split(",");
@@ -28,7 +35,8 @@ public class PermDlsEvaluator extends PermEvaluator<List<String>> {
 			fields.add(split[i]);
 		}
 
-		return fields;
+		// the evaluator and its results are shared between requests
+		return Collections.unmodifiableList(fields);
 
 	}
 
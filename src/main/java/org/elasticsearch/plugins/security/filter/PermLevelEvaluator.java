@@ -2,15 +2,21 @@ package org.elasticsearch.plugins.security.filter;
 
 import java.util.List;
 
+import org.elasticsearch.plugins.security.service.permission.HostNameResolver;
 import org.elasticsearch.plugins.security.service.permission.PermEvaluator;
 
 public class PermLevelEvaluator extends PermEvaluator<PermLevel> {
 
-	protected PermLevelEvaluator(final String xSecurityConfiguration) {
+	public PermLevelEvaluator(final String xSecurityConfiguration) {
 		super(xSecurityConfiguration);
 
 	}
 
+	public PermLevelEvaluator(final String xSecurityConfiguration,
+			final HostNameResolver hostNameResolver) {
+		super(xSecurityConfiguration, hostNameResolver);
+	}
+
 	@Override
 	protected PermLevel createFromString(final String s) {
 		return PermLevel.valueOf(s);
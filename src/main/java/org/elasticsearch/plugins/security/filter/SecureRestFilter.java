@@ -6,9 +6,9 @@ import java.util.List;
 
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
-import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestChannel;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
 import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestFilter;
@@ -58,19 +58,25 @@ public abstract class SecureRestFilter extends RestFilter {
 			}
 		} else {
 
-			((TomcatHttpServerRestRequest) request).getUserRoles();
+			if (request instanceof TomcatHttpServerRestRequest) {
+				((TomcatHttpServerRestRequest) request).getUserRoles();
+			}
 
-			processSecure((TomcatHttpServerRestRequest) request,
-					(TomcatHttpServerRestChannel) channel, filterChain);
+			processSecure(request, channel, filterChain);
 
 		}
 
 	}
 
-	protected abstract void processSecure(
-			final TomcatHttpServerRestRequest request,
-			final TomcatHttpServerRestChannel channel,
-			final RestFilterChain filterChain);
+	/**
+	 * @return the user and the roles of the user who sent the request
+	 */
+	protected UserRoleCallback getUserRoleCallback(final RestRequest request) {
+		return securityService.getUserRoleCallback(request);
+	}
+
+	protected abstract void processSecure(final RestRequest request,
+			final RestChannel channel, final RestFilterChain filterChain);
 
 	protected abstract String getType();
 
@@ -0,0 +1,361 @@
+package org.elasticsearch.plugins.security.http.netty;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.netty.channel.ChannelHandlerContext;
+import org.elasticsearch.common.netty.channel.ChannelPipeline;
+import org.elasticsearch.common.netty.channel.ChannelPipelineFactory;
+import org.elasticsearch.common.netty.channel.MessageEvent;
+import org.elasticsearch.common.netty.channel.SimpleChannelUpstreamHandler;
+import org.elasticsearch.common.netty.handler.ssl.SslHandler;
+import org.elasticsearch.common.network.NetworkService;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.http.HttpChannel;
+import org.elasticsearch.http.HttpRequest;
+import org.elasticsearch.http.HttpServerAdapter;
+import org.elasticsearch.http.netty.NettyHttpServerTransport;
+import org.elasticsearch.plugins.security.http.tomcat.SslSessionStats;
+import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerTransport;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.plugins.security.util.KeyStoreUtil;
+import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.elasticsearch.plugins.security.util.XContentFieldFilter;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Elasticsearch's netty http transport with the security features of the
+ * tomcat transport which don't depend on a servlet container: SSL, client
+ * certificate authentication, the security filters (which are registered at
+ * the rest controller and therefore run for every transport) and DLS
+ * filtering of responses.
+ * <p>
+ * Kerberos and the JNDI realm are not available, the user of a request is
+ * the subject of its client certificate and has no roles. Requests are
+ * handed from the netty I/O threads to an elasticsearch executor
+ * (security.http.netty.executor, generic by default) before the filters run,
+ * because they may block on lookups. Select it with
+ * <code>http.type: org.elasticsearch.plugins.security.http.netty.NettySecureHttpServerTransport</code>
+ */
+public class NettySecureHttpServerTransport extends NettyHttpServerTransport {
+
+	private final SecurityService securityService;
+
+	private final ThreadPool threadPool;
+
+	// the executor which runs the security filters and elasticsearch
+	private final String executor;
+
+	// null if SSL is disabled
+	private final SSLContext sslContext;
+
+	private final boolean useClientAuth;
+
+	private final boolean enableDls;
+
+	private final String[] sslCiphers;
+
+	private final String[] sslProtocols;
+
+	private final int sslSessionCacheSize;
+
+	private final TimeValue sslSessionTimeout;
+
+	// null if SSL is disabled
+	private final SslSessionStats sslSessionStats;
+
+	@Inject
+	public NettySecureHttpServerTransport(final Settings settings,
+			final NetworkService networkService, final BigArrays bigArrays,
+			final SecurityService securityService, final ThreadPool threadPool) {
+		super(settings, networkService, bigArrays);
+
+		this.securityService = securityService;
+		this.threadPool = threadPool;
+		executor = settings.get("security.http.netty.executor",
+				ThreadPool.Names.GENERIC);
+
+		final boolean useSSL = settings.getAsBoolean("security.ssl.enabled",
+				false);
+		useClientAuth = settings.getAsBoolean(
+				"security.ssl.clientauth.enabled", false);
+		enableDls = settings.getAsBoolean("security.module.dls.enabled", true);
+
+		if (useClientAuth && !useSSL) {
+			logger.error("Client Auth only available with SSL");
+			throw new ElasticsearchException("Client Auth only available with SSL");
+		}
+
+		if (!"none".equalsIgnoreCase(settings.get("security.kerberos.mode",
+				"none"))) {
+			logger.warn("Kerberos is not supported by the netty transport, user/roles are unavailable");
+		}
+
+		sslCiphers = settings.getAsArray("security.ssl.ciphers",
+				TomcatHttpServerTransport.DEFAULT_SSL_CIPHERS);
+		sslProtocols = settings.getAsArray("security.ssl.protocols",
+				TomcatHttpServerTransport.DEFAULT_SSL_PROTOCOLS);
+		sslSessionCacheSize = settings.getAsInt(
+				"security.ssl.session_cache_size",
+				TomcatHttpServerTransport.DEFAULT_SSL_SESSION_CACHE_SIZE);
+		sslSessionTimeout = settings.getAsTime("security.ssl.session_timeout",
+				TomcatHttpServerTransport.DEFAULT_SSL_SESSION_TIMEOUT);
+
+		if (sslSessionCacheSize < 0 || sslSessionTimeout.seconds() < 1) {
+			throw new ElasticsearchIllegalArgumentException(
+					"Invalid SSL session cache, session_cache_size: "
+							+ sslSessionCacheSize + ", session_timeout: "
+							+ sslSessionTimeout);
+		}
+
+		sslContext = useSSL ? createSslContext() : null;
+		sslSessionStats = useSSL ? new SslSessionStats(sslSessionCacheSize,
+				sslSessionTimeout) : null;
+		securityService.setSslSessionStats(sslSessionStats);
+
+		if (useSSL) {
+			logger.info("Using SSL" + (useClientAuth ? " with client auth (PKI)" : ""));
+		}
+	}
+
+	private SSLContext createSslContext() {
+
+		try {
+			final String keystorePass = settings.get(
+					"security.ssl.keystorepass", "changeit");
+			KeyStore keystore = KeyStoreUtil.load(
+					settings.get("security.ssl.keystorefile", "keystore"),
+					keystorePass,
+					settings.get("security.ssl.keystoretype", "JKS"));
+
+			final String keyalias = settings.get("security.ssl.keyalias", null);
+
+			if (keyalias != null) {
+				// only offer the configured key
+				final KeyStore aliasKeystore = KeyStore.getInstance(keystore
+						.getType());
+				aliasKeystore.load(null, null);
+				aliasKeystore.setKeyEntry(keyalias, keystore.getKey(keyalias,
+						keystorePass.toCharArray()),
+						keystorePass.toCharArray(), keystore
+						.getCertificateChain(keyalias));
+				keystore = aliasKeystore;
+			}
+
+			final KeyManagerFactory kmf = KeyManagerFactory
+					.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(keystore, keystorePass.toCharArray());
+
+			TrustManagerFactory tmf = null;
+
+			if (useClientAuth) {
+				tmf = TrustManagerFactory.getInstance(TrustManagerFactory
+						.getDefaultAlgorithm());
+				tmf.init(KeyStoreUtil.load(settings.get(
+						"security.ssl.clientauth.truststorefile", "truststore"),
+						settings.get("security.ssl.clientauth.truststorepass",
+								"changeit"), settings.get(
+										"security.ssl.clientauth.truststoretype", "JKS")));
+			}
+
+			final SSLContext context = SSLContext.getInstance("TLS");
+			context.init(kmf.getKeyManagers(),
+					tmf == null ? null : tmf.getTrustManagers(), null);
+
+			// resumed sessions skip the key exchange, so keep them long
+			// enough for clients which reconnect often
+			context.getServerSessionContext().setSessionCacheSize(
+					sslSessionCacheSize);
+			context.getServerSessionContext().setSessionTimeout(
+					(int) sslSessionTimeout.seconds());
+			return context;
+		} catch (final Exception e) {
+			throw new ElasticsearchException("Unable to initialize SSL", e);
+		}
+	}
+
+	@Override
+	public ChannelPipelineFactory configureServerChannelPipelineFactory() {
+		return new SecureHttpChannelPipelineFactory(this);
+	}
+
+	@Override
+	public void httpServerAdapter(final HttpServerAdapter httpServerAdapter) {
+
+		super.httpServerAdapter(new HttpServerAdapter() {
+
+			@Override
+			public void dispatchRequest(final HttpRequest request,
+					final HttpChannel channel) {
+
+				// the filters may block (configuration, dns and dls
+				// lookups), which must not stall the other connections of
+				// the I/O thread
+				try {
+					threadPool.executor(executor).execute(new Runnable() {
+
+						@Override
+						public void run() {
+							httpServerAdapter.dispatchRequest(request,
+									enableDls ? new DlsHttpChannel(request,
+											channel) : channel);
+						}
+					});
+				} catch (final EsRejectedExecutionException e) {
+					logger.warn("Request {} rejected: {}", request.path(),
+							e.toString());
+					channel.sendResponse(new BytesRestResponse(
+							RestStatus.SERVICE_UNAVAILABLE));
+				}
+			}
+		});
+	}
+
+	protected class SecureHttpChannelPipelineFactory extends
+	HttpChannelPipelineFactory {
+
+		public SecureHttpChannelPipelineFactory(
+				final NettyHttpServerTransport transport) {
+			super(transport);
+		}
+
+		@Override
+		public ChannelPipeline getPipeline() throws Exception {
+			final ChannelPipeline pipeline = super.getPipeline();
+
+			if (sslContext != null) {
+				final SSLEngine engine = sslContext.createSSLEngine();
+				engine.setUseClientMode(false);
+				engine.setNeedClientAuth(useClientAuth);
+				engine.setEnabledProtocols(supported(sslProtocols,
+						engine.getSupportedProtocols()));
+				engine.setEnabledCipherSuites(supported(sslCiphers,
+						engine.getSupportedCipherSuites()));
+				pipeline.addFirst("ssl", new SslHandler(engine));
+				pipeline.addAfter("ssl", "ssl_stats", new SslStatsHandler());
+			}
+
+			return pipeline;
+		}
+	}
+
+	/**
+	 * @return the configured values which are supported, in the configured
+	 *         order
+	 */
+	static String[] supported(final String[] configured,
+			final String[] supported) {
+
+		final List<String> supportedList = Arrays.asList(supported);
+		final List<String> result = new ArrayList<String>(configured.length);
+
+		for (final String value : configured) {
+			if (supportedList.contains(value)) {
+				result.add(value);
+			}
+		}
+
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Reports the session of a connection once its handshake completed,
+	 * which is before the first request is received
+	 */
+	private class SslStatsHandler extends SimpleChannelUpstreamHandler {
+
+		private boolean reported;
+
+		@Override
+		public void messageReceived(final ChannelHandlerContext ctx,
+				final MessageEvent e) throws Exception {
+
+			if (!reported) {
+				reported = true;
+
+				final SSLSession session = ctx.getPipeline()
+						.get(SslHandler.class).getEngine().getSession();
+				sslSessionStats.onHandshake(session.getId() == null
+						|| session.getId().length == 0 ? null : Base64
+								.encodeBytes(session.getId()));
+			}
+
+			super.messageReceived(ctx, e);
+		}
+	}
+
+	/**
+	 * Removes the fields the user is not allowed to read from responses, like
+	 * TomcatHttpServerRestChannel does
+	 */
+	private class DlsHttpChannel extends HttpChannel {
+
+		private final HttpChannel channel;
+
+		private DlsHttpChannel(final HttpRequest request,
+				final HttpChannel channel) {
+			super(request);
+			this.channel = channel;
+		}
+
+		@Override
+		public void sendResponse(final RestResponse response) {
+
+			if (!(response instanceof BytesRestResponse)
+					|| SecurityUtil.xContentTypefromRestContentType(response
+							.contentType()) == null) {
+				channel.sendResponse(response);
+				return;
+			}
+
+			final RestResponse filteredResponse;
+
+			try {
+				final String[] includes = securityService.getDlsIncludes(
+						request, response,
+						securityService.getUserRoleCallback(request));
+
+				if (includes == null) {
+					channel.sendResponse(response);
+					return;
+				}
+
+				final BytesReference content = XContentFieldFilter.filter(
+						response.content(), includes);
+				filteredResponse = new BytesRestResponse(response.status(),
+						response.contentType(), content, true);
+
+				if (response.getHeaders() != null) {
+					filteredResponse.addHeaders(response.getHeaders());
+				}
+			} catch (final Exception e) {
+				logger.error(e.toString(), e);
+				channel.sendResponse(new BytesRestResponse(
+						RestStatus.INTERNAL_SERVER_ERROR));
+				return;
+			}
+
+			channel.sendResponse(filteredResponse);
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.elasticsearch.plugins.security.http.netty;
+
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.security.auth.x500.X500Principal;
+
+import org.elasticsearch.common.netty.channel.Channel;
+import org.elasticsearch.common.netty.handler.ssl.SslHandler;
+import org.elasticsearch.plugins.security.http.tomcat.TomcatUserRoleCallback;
+import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
+
+/**
+ * The user is the subject of the client certificate (like with the
+ * CLIENT-CERT authentication of the tomcat transport). There is no realm, so
+ * the user has no roles.
+ */
+public class NettyUserRoleCallback implements UserRoleCallback {
+
+	private final String remoteUser;
+
+	public NettyUserRoleCallback(final Channel channel,
+			final String sslUserAttribute) {
+		remoteUser = TomcatUserRoleCallback.toUser(getSubject(channel),
+				sslUserAttribute);
+	}
+
+	private static String getSubject(final Channel channel) {
+
+		final SslHandler sslHandler = channel.getPipeline().get(
+				SslHandler.class);
+
+		if (sslHandler == null) {
+			return null;
+		}
+
+		try {
+			final Certificate[] certificates = sslHandler.getEngine()
+					.getSession().getPeerCertificates();
+
+			if (certificates.length > 0
+					&& certificates[0] instanceof X509Certificate) {
+				// the same "CN=.., OU=.." format the tomcat transport sees
+				return ((X509Certificate) certificates[0])
+						.getSubjectX500Principal().getName(
+								X500Principal.RFC1779);
+			}
+		} catch (final SSLPeerUnverifiedException e) {
+			// no client certificate
+		}
+
+		return null;
+	}
+
+	@Override
+	public String getRemoteuser() {
+		return remoteUser;
+	}
+
+	@Override
+	public boolean isRemoteUserInRole(final String role) {
+		return false;
+	}
+
+}
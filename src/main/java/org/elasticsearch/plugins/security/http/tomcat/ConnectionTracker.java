@@ -0,0 +1,98 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.coyote.AbstractProtocol;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Counts requests and the connections they arrive on, to tell how well
+ * keep-alive works.
+ * <p>
+ * A connection is identified by the remote address and port of the client
+ * socket, a request from an address and port not seen within the keep-alive
+ * timeout is counted as a new connection. Tomcat does not expose a per
+ * connection request count, so this is an approximation which is exact as
+ * long as clients don't reuse ephemeral ports within the timeout.
+ */
+public class ConnectionTracker {
+
+	private final Cache<String, Boolean> connections;
+
+	private final CounterMetric requests = new CounterMetric();
+
+	private final CounterMetric opened = new CounterMetric();
+
+	private volatile AbstractProtocol protocol;
+
+	public ConnectionTracker(final long maxConnections,
+			final TimeValue keepAliveTimeout) {
+		super();
+		connections = CacheBuilder.newBuilder().maximumSize(maxConnections)
+				.expireAfterAccess(keepAliveTimeout.millis(),
+						TimeUnit.MILLISECONDS).build();
+	}
+
+	/**
+	 * Called once for every request
+	 *
+	 * @return true if the request arrived on a new connection
+	 */
+	public boolean onRequest(final String remoteAddr, final int remotePort) {
+		requests.inc();
+
+		final String connection = remoteAddr + ":" + remotePort;
+
+		// also refreshes the access time of known connections
+		if (connections.asMap().putIfAbsent(connection, Boolean.TRUE) == null) {
+			opened.inc();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param protocol
+	 *            the protocol handler of the connector, the source of the open
+	 *            connection count
+	 */
+	public void setProtocol(final AbstractProtocol protocol) {
+		this.protocol = protocol;
+	}
+
+	public long getRequestCount() {
+		return requests.count();
+	}
+
+	public long getOpenedCount() {
+		return opened.count();
+	}
+
+	/**
+	 * @return the connections currently open at the connector, -1 if unknown
+	 */
+	public long getOpenCount() {
+		final AbstractProtocol protocol = this.protocol;
+		return protocol == null ? -1 : protocol.getConnectionCount();
+	}
+
+	/**
+	 * @return the share of requests which were sent on an already open
+	 *         connection, between 0 and 1
+	 */
+	public double getReuseRatio() {
+		final long requestCount = requests.count();
+
+		if (requestCount == 0) {
+			return 0;
+		}
+
+		return Math.max(0, requestCount - opened.count())
+				/ (double) requestCount;
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+
+/**
+ * Counts the responses sent by the http transport by status and by the
+ * decision of the security filters, and keeps a latency histogram.
+ */
+public class HttpRequestStats {
+
+	public enum Outcome {
+		/** passed the security filters */
+		ALLOWED,
+		/** refused by a security filter, or by the transport if too large */
+		FORBIDDEN,
+		/** a security filter or sending the response failed */
+		ERROR
+	}
+
+	/**
+	 * Upper bounds of the latency buckets in milliseconds, the last bucket
+	 * takes everything above
+	 */
+	static final long[] LATENCY_BUCKETS_MILLIS = new long[] { 1, 5, 10, 25,
+		50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	private final ConcurrentMap<Integer, CounterMetric> statuses = new ConcurrentHashMap<Integer, CounterMetric>();
+
+	private final CounterMetric[] outcomes = new CounterMetric[Outcome
+			.values().length];
+
+	private final AtomicLongArray latencyBuckets = new AtomicLongArray(
+			LATENCY_BUCKETS_MILLIS.length + 1);
+
+	private final MeanMetric latency = new MeanMetric();
+
+	public HttpRequestStats() {
+		super();
+
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new CounterMetric();
+		}
+	}
+
+	public void onResponse(final int status, final Outcome outcome,
+			final long tookNanos) {
+
+		CounterMetric counter = statuses.get(status);
+
+		if (counter == null) {
+			final CounterMetric newCounter = new CounterMetric();
+			counter = statuses.putIfAbsent(status, newCounter);
+
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+
+		counter.inc();
+		outcomes[outcome.ordinal()].inc();
+
+		final long tookMillis = TimeUnit.NANOSECONDS.toMillis(tookNanos);
+		latency.inc(tookMillis);
+		latencyBuckets.incrementAndGet(bucket(tookMillis));
+	}
+
+	static int bucket(final long millis) {
+		int i = 0;
+
+		while (i < LATENCY_BUCKETS_MILLIS.length
+				&& millis > LATENCY_BUCKETS_MILLIS[i]) {
+			i++;
+		}
+
+		return i;
+	}
+
+	/**
+	 * @return the number of responses by status code, ordered by status
+	 */
+	public SortedMap<Integer, Long> getStatusCounts() {
+		final SortedMap<Integer, Long> counts = new TreeMap<Integer, Long>();
+
+		for (final Map.Entry<Integer, CounterMetric> entry : statuses
+				.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().count());
+		}
+
+		return counts;
+	}
+
+	public long getCount(final Outcome outcome) {
+		return outcomes[outcome.ordinal()].count();
+	}
+
+	public long getCount() {
+		return latency.count();
+	}
+
+	public double getMeanLatencyMillis() {
+		return latency.mean();
+	}
+
+	/**
+	 * @return the number of responses by latency bucket, keyed by the upper
+	 *         bound of the bucket in milliseconds (<code>inf</code> for the
+	 *         last bucket) in ascending order
+	 */
+	public Map<String, Long> getLatencyHistogram() {
+		final Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+
+		for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+			histogram.put(String.valueOf(LATENCY_BUCKETS_MILLIS[i]),
+					latencyBuckets.get(i));
+		}
+
+		histogram.put("inf", latencyBuckets.get(LATENCY_BUCKETS_MILLIS.length));
+		return histogram;
+	}
+
+}
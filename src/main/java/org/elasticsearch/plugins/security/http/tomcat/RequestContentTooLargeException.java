@@ -0,0 +1,24 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * The request body is larger than http.max_content_length, either as declared
+ * by Content-Length or as it was streamed
+ */
+public class RequestContentTooLargeException extends ElasticsearchException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RequestContentTooLargeException(final String message) {
+		super(message);
+
+	}
+
+	@Override
+	public RestStatus status() {
+		return RestStatus.REQUEST_ENTITY_TOO_LARGE;
+	}
+
+}
@@ -0,0 +1,264 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.metrics.CounterMetric;
+
+/**
+ * Gzip compression of responses, negotiated per request by the
+ * Accept-Encoding header. Only responses with a compressible content type
+ * and at least the minimum size are compressed, small responses would not
+ * get smaller enough to pay for the deflater.
+ * <p>
+ * Deflaters allocate native memory, up to deflaterPoolSize of them are
+ * reset and reused instead of being created for every response.
+ */
+public class ResponseCompression {
+
+	private final int level;
+
+	private final long minSize;
+
+	private final Set<String> mimeTypes;
+
+	// null if pooling is disabled
+	private final BlockingQueue<Deflater> deflaterPool;
+
+	private final CounterMetric responses = new CounterMetric();
+
+	private final CounterMetric bytesIn = new CounterMetric();
+
+	private final CounterMetric bytesOut = new CounterMetric();
+
+	/**
+	 * @param level
+	 *            the deflate level, 1 (fastest) to 9 (smallest)
+	 * @param minSize
+	 *            responses smaller than this many bytes are sent
+	 *            uncompressed
+	 * @param mimeTypes
+	 *            the content types which are compressed, without parameters
+	 * @param deflaterPoolSize
+	 *            the number of idle deflaters kept for reuse, 0 disables
+	 *            pooling
+	 */
+	public ResponseCompression(final int level, final long minSize,
+			final String[] mimeTypes, final int deflaterPoolSize) {
+		super();
+
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new ElasticsearchIllegalArgumentException(
+					"Invalid compression level " + level);
+		}
+
+		this.level = level;
+		this.minSize = minSize;
+		this.mimeTypes = new HashSet<String>();
+
+		for (final String mimeType : mimeTypes) {
+			this.mimeTypes.add(mimeType.trim().toLowerCase(Locale.ROOT));
+		}
+
+		deflaterPool = deflaterPoolSize > 0 ? new ArrayBlockingQueue<Deflater>(
+				deflaterPoolSize) : null;
+	}
+
+	/**
+	 * @return true if the content type is compressible, so that the response
+	 *         depends on the Accept-Encoding of the request
+	 */
+	public boolean isCompressible(final String contentType) {
+
+		if (contentType == null) {
+			return false;
+		}
+
+		final int paramsIndex = contentType.indexOf(';');
+		return mimeTypes.contains((paramsIndex < 0 ? contentType
+				: contentType.substring(0, paramsIndex)).trim().toLowerCase(
+						Locale.ROOT));
+	}
+
+	/**
+	 * @param contentLength
+	 *            the length of the uncompressed response, or an upper bound
+	 *            if it is not known yet
+	 * @return true if the response should be sent gzip compressed
+	 */
+	public boolean shouldCompress(final String acceptEncoding,
+			final String contentType, final long contentLength) {
+		return contentLength >= minSize && isCompressible(contentType)
+				&& acceptsGzip(acceptEncoding);
+	}
+
+	/**
+	 * @return true if the Accept-Encoding header value allows gzip, either
+	 *         explicitly or by a wildcard, with a quality above 0
+	 */
+	static boolean acceptsGzip(final String acceptEncoding) {
+
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		float gzipQuality = -1;
+		float wildcardQuality = -1;
+
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] params = coding.split(";");
+			final String name = params[0].trim().toLowerCase(Locale.ROOT);
+			float quality = 1;
+
+			for (int i = 1; i < params.length; i++) {
+				final String param = params[i].trim();
+
+				if (param.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(param.substring(2));
+					} catch (final NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+
+			if ("gzip".equals(name) || "x-gzip".equals(name)) {
+				gzipQuality = Math.max(gzipQuality, quality);
+			} else if ("*".equals(name)) {
+				wildcardQuality = quality;
+			}
+		}
+
+		// an explicit gzip entry wins over the wildcard
+		return gzipQuality >= 0 ? gzipQuality > 0 : wildcardQuality > 0;
+	}
+
+	/**
+	 * @return a stream which writes the gzip compressed data to out, closing
+	 *         it closes out and releases the deflater
+	 */
+	public OutputStream compress(final OutputStream out) throws IOException {
+		return new GzipOutputStream(out, borrowDeflater());
+	}
+
+	private Deflater borrowDeflater() {
+		final Deflater deflater = deflaterPool == null ? null : deflaterPool
+				.poll();
+		return deflater != null ? deflater : new Deflater(level, true);
+	}
+
+	private void releaseDeflater(final Deflater deflater) {
+		deflater.reset();
+
+		if (deflaterPool == null || !deflaterPool.offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return the number of idle deflaters kept for reuse
+	 */
+	int getPooledDeflaterCount() {
+		return deflaterPool == null ? 0 : deflaterPool.size();
+	}
+
+	public long getCompressedCount() {
+		return responses.count();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.count();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.count();
+	}
+
+	/**
+	 * @return the bytes compression saved on the wire
+	 */
+	public long getBytesSaved() {
+		return bytesIn.count() - bytesOut.count();
+	}
+
+	/**
+	 * Writes the gzip header and trailer (RFC 1952) around the raw deflate
+	 * data of a pooled deflater, which {@link java.util.zip.GZIPOutputStream}
+	 * does not support.
+	 */
+	private final class GzipOutputStream extends DeflaterOutputStream {
+
+		private static final int HEADER_LENGTH = 10;
+
+		private static final int TRAILER_LENGTH = 8;
+
+		private final CRC32 crc = new CRC32();
+
+		private boolean closed;
+
+		private GzipOutputStream(final OutputStream out,
+				final Deflater deflater) throws IOException {
+			super(out, deflater, 8192);
+
+			// magic, deflate, no flags, no mtime, no extra flags, unknown os
+			out.write(new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0,
+					0, 0, 0, 0, 0, (byte) 0xff });
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			super.write(b, off, len);
+			crc.update(b, off, len);
+		}
+
+		@Override
+		public void finish() throws IOException {
+
+			if (def.finished()) {
+				return;
+			}
+
+			super.finish();
+
+			final int crcValue = (int) crc.getValue();
+			final int size = def.getTotalIn();
+			out.write(new byte[] { (byte) crcValue, (byte) (crcValue >> 8),
+					(byte) (crcValue >> 16), (byte) (crcValue >> 24),
+					(byte) size, (byte) (size >> 8), (byte) (size >> 16),
+					(byte) (size >> 24) });
+
+			responses.inc();
+			bytesIn.inc(def.getBytesRead());
+			bytesOut.inc(def.getBytesWritten() + HEADER_LENGTH
+					+ TRAILER_LENGTH);
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+
+			try {
+				finish();
+			} finally {
+				releaseDeflater(def);
+				out.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Counts full and abbreviated (resumed) TLS handshakes.
+ * <p>
+ * Neither tomcat nor netty report whether a handshake resumed a session, so
+ * the ids of the sessions negotiated on new connections are remembered with
+ * the same size and lifetime as the server session cache: a new connection
+ * presenting a known session id was resumed, any other one did a full
+ * handshake.
+ */
+public class SslSessionStats {
+
+	private final Cache<String, Boolean> sessions;
+
+	private final CounterMetric fullHandshakes = new CounterMetric();
+
+	private final CounterMetric resumedHandshakes = new CounterMetric();
+
+	/**
+	 * @param sessionCacheSize
+	 *            the size of the server session cache, 0 is unlimited
+	 * @param sessionTimeout
+	 *            the lifetime of the sessions in the server session cache
+	 */
+	public SslSessionStats(final int sessionCacheSize,
+			final TimeValue sessionTimeout) {
+		super();
+
+		final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+				.expireAfterWrite(sessionTimeout.millis(),
+						TimeUnit.MILLISECONDS);
+
+		if (sessionCacheSize > 0) {
+			builder.maximumSize(sessionCacheSize);
+		}
+
+		sessions = builder.build();
+	}
+
+	/**
+	 * Called once for every new connection after the handshake
+	 *
+	 * @param sessionId
+	 *            the id of the negotiated session, ignored if null
+	 */
+	public void onHandshake(final String sessionId) {
+
+		if (sessionId == null) {
+			return;
+		}
+
+		if (sessions.asMap().putIfAbsent(sessionId, Boolean.TRUE) == null) {
+			fullHandshakes.inc();
+		} else {
+			resumedHandshakes.inc();
+		}
+	}
+
+	public long getFullHandshakeCount() {
+		return fullHandshakes.count();
+	}
+
+	public long getResumedHandshakeCount() {
+		return resumedHandshakes.count();
+	}
+
+	public long getHandshakeCount() {
+		return fullHandshakes.count() + resumedHandshakes.count();
+	}
+
+	/**
+	 * @return the share of handshakes which resumed a session, between 0 and
+	 *         1
+	 */
+	public double getResumptionRatio() {
+		final long handshakes = getHandshakeCount();
+
+		if (handshakes == 0) {
+			return 0;
+		}
+
+		return resumedHandshakes.count() / (double) handshakes;
+	}
+
+}
@@ -1,30 +1,28 @@
 package org.elasticsearch.plugins.security.http.tomcat;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.OutputStream;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.servlet.ServletOutputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletResponse;
 
 import org.elasticsearch.common.bytes.BytesReference;
-import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
-import org.elasticsearch.common.xcontent.XContent;
-import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
-import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.http.HttpChannel;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
-import org.elasticsearch.plugins.security.filter.PermDlsEvaluator;
 import org.elasticsearch.plugins.security.service.SecurityService;
-import org.elasticsearch.plugins.security.service.permission.DlsPermission;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.elasticsearch.plugins.security.util.XContentFieldFilter;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestResponse;
@@ -41,6 +39,25 @@ public class TomcatHttpServerRestChannel extends HttpChannel {
 
 	private final CountDownLatch latch;
 
+	// null if the servlet thread waits for the response
+	private final AsyncContext asyncContext;
+
+	// how long a timeout waits for a response which is still written
+	private final long writeTimeoutMillis;
+
+	// set once a response was sent or the request timed out, the servlet
+	// response must not be touched afterwards
+	private final AtomicBoolean done = new AtomicBoolean();
+
+	// the async context is completed once, by the sending thread or on
+	// timeout
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	private final long startNanos = System.nanoTime();
+
+	// the response is sent by a security filter instead of elasticsearch
+	private volatile boolean rejected;
+
 	private final SecurityService securityService;
 
 	final Boolean enableDls;
@@ -49,15 +66,37 @@ public class TomcatHttpServerRestChannel extends HttpChannel {
 			final TomcatHttpServerRestRequest restRequest,
 			final HttpServletResponse resp,
 			final SecurityService securityService) {
+		this(restRequest, resp, securityService, null, 0);
+	}
+
+	/**
+	 * @param asyncContext
+	 *            the started async context which is completed after the
+	 *            response is sent, or null
+	 * @param writeTimeoutMillis
+	 *            how long the async timeout waits for a response which is
+	 *            being written
+	 */
+	public TomcatHttpServerRestChannel(
+			final TomcatHttpServerRestRequest restRequest,
+			final HttpServletResponse resp,
+			final SecurityService securityService,
+			final AsyncContext asyncContext, final long writeTimeoutMillis) {
 		super(restRequest);
 		this.securityService = securityService;
 		this.restRequest = restRequest;
 		this.resp = resp;
+		this.asyncContext = asyncContext;
+		this.writeTimeoutMillis = writeTimeoutMillis;
 		latch = new CountDownLatch(1);
 
 		enableDls = securityService.getSettings().getAsBoolean(
 				"security.module.dls.enabled", true);
 
+		if (asyncContext != null) {
+			asyncContext.addListener(new TimeoutListener());
+		}
+
 	}
 
 	public void await() throws InterruptedException {
@@ -68,9 +107,54 @@ public class TomcatHttpServerRestChannel extends HttpChannel {
 		return sendFailure;
 	}
 
+	/**
+	 * Answers an async request with 500 if no response was sent yet
+	 */
+	public void sendError(final Exception e) {
+
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
+
+		sendFailure = e;
+		recordResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		latch.countDown();
+		complete();
+	}
+
+	/**
+	 * Called by the security filters before they send a response on their
+	 * own, to tell refused requests from those elasticsearch answered
+	 */
+	public void markRejected() {
+		rejected = true;
+	}
+
+	private void recordResponse(final int status) {
+
+		final HttpRequestStats.Outcome outcome;
+
+		if (sendFailure != null || rejected && status >= 500) {
+			outcome = HttpRequestStats.Outcome.ERROR;
+		} else if (rejected) {
+			outcome = HttpRequestStats.Outcome.FORBIDDEN;
+		} else {
+			outcome = HttpRequestStats.Outcome.ALLOWED;
+		}
+
+		securityService.getRequestStats().onResponse(status, outcome,
+				System.nanoTime() - startNanos);
+	}
+
 	@Override
 	public void sendResponse(final RestResponse response) {
-		
+
+		if (!done.compareAndSet(false, true)) {
+			log.debug("Response for {} dropped, request already completed",
+					restRequest.path());
+			return;
+		}
+
 		resp.setContentType(response.contentType());
 		
 		//CORS
@@ -96,24 +180,44 @@ public class TomcatHttpServerRestChannel extends HttpChannel {
 		}*/
 		try {
 
-			log.debug("Rest response contentype: "+response.contentType()+"/xcontent response contentype: "+ XContentType.fromRestContentType(response.contentType()));
+			if (log.isDebugEnabled()) {
+				log.debug("Rest response contentype: "+response.contentType()+"/xcontent response contentype: "+ XContentType.fromRestContentType(response.contentType()));
+			}
 			
+			String[] dlsIncludes = null;
+
 			if(enableDls && SecurityUtil.xContentTypefromRestContentType(response.contentType()) != null) { //skip text/html etc) {
 				log.debug("DLS is enabled and request contains valid xcontent");				
-				BytesReference modifiedContent = applyDls((BytesRestResponse)response);				
-				int contentLength = modifiedContent.length();
-				resp.setContentLength(contentLength);
-				final ServletOutputStream out = resp.getOutputStream();
-				modifiedContent.writeTo(out);
-				out.close();
-			
+				dlsIncludes = getDlsIncludes((BytesRestResponse)response);
 			} else {
 				log.debug("DLS is not enabled or response does not contain valid xcontent");	
-				int contentLength = response.content().length();
-				resp.setContentLength(contentLength);
-	            ServletOutputStream out = resp.getOutputStream();
-	            response.content().writeTo(out);
-                out.close();
+			}
+
+			// the unfiltered length is an upper bound of the filtered one
+			final boolean compress = isCompressed(response);
+
+			final OutputStream out = compress ? securityService
+					.getResponseCompression().compress(resp.getOutputStream())
+					: resp.getOutputStream();
+
+			try {
+				if (dlsIncludes != null) {
+					writeFiltered(response.content(), dlsIncludes, out);
+				} else {
+					// pages of paged content are written one by one, large
+					// writes bypass the tomcat response buffer
+					if (!compress) {
+						resp.setContentLength(response.content().length());
+					}
+
+					response.content().writeTo(out);
+				}
+
+				out.close();
+			} finally {
+				// a failed write (a client which disconnected) must release
+				// the deflater too, closing twice is harmless
+				closeQuietly(out);
 			}
 			
 
@@ -123,126 +227,156 @@ public class TomcatHttpServerRestChannel extends HttpChannel {
 			log.error(e.toString(), e);
 			sendFailure = e;
 		} finally {
+			recordResponse(sendFailure != null ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+					: response.status() != null ? response.status().getStatus()
+							: HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 			latch.countDown();
+			complete();
 		}
 	}
 
-	protected BytesReference applyDls(final BytesRestResponse xres)
-			throws IOException, MalformedConfigurationException {
+	/**
+	 * Decides if the response is sent gzip compressed and sets the headers
+	 * accordingly
+	 */
+	private boolean isCompressed(final RestResponse response) {
 
+		final ResponseCompression compression = securityService
+				.getResponseCompression();
 
-		final List<String> indices = SecurityUtil.getIndices(restRequest);
-		
-		log.debug("applyDLS() for indices "+indices);
-		
-		if (indices.contains(securityService
-				.getSecurityConfigurationIndex())) {
-
-			if (securityService
-					.getHostAddressFromRequest(restRequest)
-					.isLoopbackAddress()) {
-				
-				log.debug("applyDLS() return unmodified content because of loopback address");
-				return xres.content();
-						
-			} else {
-				throw new IOException("Only allowed from localhost (loopback)");
-			}
-
-		}
-		
-		if(xres.content() == null || xres.content().length() == 0) {
-			log.debug("applyDLS() return unmodified content because of content is null or of zero length");
-			return xres.content();
+		if (compression == null
+				|| !compression.isCompressible(response.contentType())) {
+			return false;
 		}
 
-		if (xres.status().getStatus() < 200
-				|| xres.status().getStatus() >= 300) {
+		// caches must not serve a compressed response to other clients
+		resp.addHeader("Vary", "Accept-Encoding");
 
-			log.debug("applyDLS() return unmodified content because of status "+xres.status().getStatus());
-			return xres.content();
+		if (restRequest.method() == RestRequest.Method.HEAD
+				|| !compression.shouldCompress(
+						restRequest.header("Accept-Encoding"),
+						response.contentType(), response.content().length())) {
+			return false;
 		}
 
-		if ( !restRequest.path().contains("_search")
-				&& !restRequest.path().contains("_msearch")
-				&& !restRequest.path().contains("_mlt")
-				&& !restRequest.path().contains("_suggest")
-				&& !restRequest.getHttpServletRequest().getMethod().equalsIgnoreCase("get")  ) {
-					
-			log.debug("applyDLS() return unmodified content because of path (no search): "+restRequest.getHttpServletRequest().getMethod()+" "+restRequest.path());
-			return xres.content();
+		resp.setHeader("Content-Encoding", "gzip");
+		return true;
+	}
+
+	private void complete() {
+
+		if (asyncContext == null || !completed.compareAndSet(false, true)) {
+			return;
 		}
 
-		final List<String> dlsTokens = new PermDlsEvaluator(
-				securityService.getXContentSecurityConfiguration(
-						"dlspermissions", "dlspermissions")).evaluatePerm(
-								SecurityUtil.getIndices(restRequest),
-								SecurityUtil.getTypes(restRequest),
-								securityService
-								.getHostAddressFromRequest(restRequest),
-								new TomcatUserRoleCallback(restRequest
-										.getHttpServletRequest(),securityService.getSettings().get("security.ssl.userattribute")));
+		try {
+			if (sendFailure != null && !resp.isCommitted()) {
+				resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		} catch (final Exception e) {
+			log.debug("Unable to send error: {}", e.toString());
+		} finally {
+			asyncContext.complete();
+		}
+	}
 
-		log.debug("dls tokens: " + dlsTokens);
+	private final class TimeoutListener implements AsyncListener {
 
-		// this.log.debug("orig json: " + xres.builder().string());
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
 
-		final List<DlsPermission> perms = securityService
-				.parseDlsPermissions(xres.content());
+			if (done.compareAndSet(false, true)) {
+				log.warn("Request {} timed out", restRequest.path());
+				recordResponse(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				asyncContext.complete();
+			} else {
+				awaitWritten();
+			}
+		}
 
-		// TODO check against the tokens
+		/**
+		 * The timeout counts from the start of the request, so it can fire
+		 * while the response is still written. The container must not send
+		 * its error response and recycle the servlet response until the
+		 * write is finished, so the timeout thread waits for it (at most
+		 * the write timeout) and completes the request itself.
+		 */
+		private void awaitWritten() {
+
+			try {
+				if (!latch.await(writeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+					log.warn("Response for {} still not written after timeout",
+							restRequest.path());
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 
-		final Tuple<XContentType, Map<String, Object>> mapTuple = XContentHelper
-				.convertToMap(xres.content().toBytes(), true);
+			complete();
+		}
 
-		final List<String> fields = new ArrayList<String>();
-		fields.add("_shards*");
-		fields.add("took");
-		fields.add("timed_out");
-		fields.add("hits.total");
-		fields.add("hits.max_score");
-		fields.add("hits.hits._index");
-		fields.add("hits.hits._type");
-		fields.add("hits.hits._id");
-		fields.add("hits.hits._score");
-		
-		//GET
-		fields.add("_index");
-		fields.add("_type");
-		fields.add("_version");
-		fields.add("_id");
-		fields.add("found");
-		
-		
-		if(!securityService.isStrictModeEnabled()){
-			fields.add("facets"); 
-			fields.add("suggest");
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			// connection is gone, nothing can be written anymore
+			done.set(true);
 		}
-		
 
-		for (final DlsPermission p : perms) {
-			
-			log.debug(p.toString());
+		@Override
+		public void onStartAsync(final AsyncEvent event) throws IOException {
+		}
 
-			if (p.isAnyTokenAllowedToRead(dlsTokens)) {
+		@Override
+		public void onComplete(final AsyncEvent event) throws IOException {
+		}
+	}
 
-				fields.add("hits.hits._source." + p.getField());
-				fields.add("_source." + p.getField());
-			}
+	/**
+	 * Writes the allowed fields of the content straight to the (servlet or
+	 * compressing) output stream while filtering. The length is unknown up
+	 * front, so tomcat sets the Content-Length only if the whole output fits
+	 * into its response buffer and switches to chunked transfer encoding
+	 * otherwise. If
+	 * filtering fails after the response was committed the client gets a
+	 * truncated document, but never a field it is not allowed to read. The
+	 * caller closes the stream.
+	 */
+	protected void writeFiltered(final BytesReference content,
+			final String[] includes, final OutputStream out) throws IOException {
+
+		final XContentType xContentType = XContentFactory.xContentType(content);
+		final XContentGenerator generator = XContentFactory.xContent(
+				xContentType).createGenerator(out);
+		final XContentParser parser = XContentFactory.xContent(xContentType)
+				.createParser(content);
 
+		try {
+			XContentFieldFilter.filter(parser, generator, includes);
+		} finally {
+			parser.close();
 		}
 
-		log.debug(fields.toString());
+		generator.close();
+	}
 
-		final Map<String, Object> filteredSource = XContentMapValues.filter(
-				mapTuple.v2(), fields.toArray(new String[0]), null);
+	private void closeQuietly(final OutputStream out) {
 
-		log.debug("filteredSource " + filteredSource);
+		try {
+			out.close();
+		} catch (final IOException e) {
+			log.debug("Unable to close response stream: {}", e.toString());
+		}
+	}
 
-		final XContentBuilder sourceToBeReturned = XContentFactory
-				.contentBuilder(mapTuple.v1()).map(filteredSource);
-		return sourceToBeReturned.bytes();
+	/**
+	 * @return the paths of the response which are allowed to be read, or
+	 *         null if the response is returned unmodified
+	 */
+	protected String[] getDlsIncludes(final BytesRestResponse xres)
+			throws IOException, MalformedConfigurationException {
 
+		return securityService.getDlsIncludes(restRequest, xres,
+				securityService.getUserRoleCallback(restRequest));
 	}
 
 }
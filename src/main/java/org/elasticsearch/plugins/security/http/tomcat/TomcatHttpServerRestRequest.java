@@ -1,8 +1,11 @@
 package org.elasticsearch.plugins.security.http.tomcat;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,12 +14,15 @@ import java.util.Map.Entry;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.catalina.realm.GenericPrincipal;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.http.HttpRequest;
+import org.elasticsearch.plugins.security.util.RequestPath;
 
 import org.elasticsearch.rest.support.RestUtils;
 
@@ -30,26 +36,44 @@ HttpRequest {
 
 	public static final String REQUEST_CONTENT_ATTRIBUTE = "org.elasticsearch.plugins.security.http.tomcat.request-content";
 
+	// bodies with a known length up to this size are read into one array,
+	// larger ones and those of unknown length into pages
+	static final int MAX_CONTIGUOUS_CONTENT_LENGTH = 1024 * 1024;
+
 	private final HttpServletRequest request;
 
+	private final long maxContentLength;
+
 	private final Method method;
 
+	// kept, a late async response may log it after tomcat recycled the
+	// servlet request
+	private final String uri;
+
 	private final Map<String, String> params;
 
-	private BytesReference content;
+	// read on first access
+	private volatile BytesReference content;
 
 	private final String opaqueId;
 
-	public TomcatHttpServerRestRequest(final HttpServletRequest request)
-			throws IOException {
+	// parsed on first access
+	private volatile RequestPath requestPath;
+
+	public TomcatHttpServerRestRequest(final HttpServletRequest request,
+			final long maxContentLength) throws IOException {
 		this.request = request;
+		this.maxContentLength = maxContentLength;
 		opaqueId = request.getHeader("X-Opaque-Id");
 		method = Method.valueOf(request.getMethod());
+		uri = request.getRequestURI();
 		params = new HashMap<String, String>();
 
-		log.debug("HttpServletRequest impl class: " + request.getClass());
-		log.debug("HttpServletRequest ru: " + request.getRemoteUser());
-		log.debug("HttpServletRequest up: " + request.getUserPrincipal());
+		if (log.isDebugEnabled()) {
+			log.debug("HttpServletRequest impl class: " + request.getClass());
+			log.debug("HttpServletRequest ru: " + request.getRemoteUser());
+			log.debug("HttpServletRequest up: " + request.getUserPrincipal());
+		}
 		//log.debug("HttpServletRequest up: " + request.getUserPrincipal().getClass().toString());
 
 		if (request.getQueryString() != null) {
@@ -57,9 +81,66 @@ HttpRequest {
 					params);
 		}
 
-		content = new BytesArray(Streams.copyToByteArray(request
-				.getInputStream()));
-		request.setAttribute(REQUEST_CONTENT_ATTRIBUTE, content);
+	}
+
+	/**
+	 * Reads the body without intermediate copies. Without Content-Length and
+	 * Transfer-Encoding there is no body and the stream is not touched at all.
+	 * Bodies of unknown or large length are buffered as they arrive, so memory
+	 * is never reserved for a length the client merely declared.
+	 *
+	 * @throws RequestContentTooLargeException
+	 *             if the declared or the streamed length exceeds
+	 *             maxContentLength
+	 */
+	static BytesReference readContent(final HttpServletRequest request,
+			final long maxContentLength) throws IOException {
+
+		final int contentLength = request.getContentLength();
+
+		if (contentLength == 0 || contentLength < 0
+				&& request.getHeader("Transfer-Encoding") == null) {
+			return BytesArray.EMPTY;
+		}
+
+		if (contentLength > maxContentLength) {
+			throw new RequestContentTooLargeException("Content-Length "
+					+ contentLength + " exceeds " + maxContentLength);
+		}
+
+		final InputStream in = request.getInputStream();
+
+		if (contentLength > 0 && contentLength <= MAX_CONTIGUOUS_CONTENT_LENGTH) {
+			final byte[] bytes = new byte[contentLength];
+
+			if (Streams.readFully(in, bytes) < contentLength) {
+				throw new EOFException("Request body shorter than Content-Length "
+						+ contentLength);
+			}
+
+			return new BytesArray(bytes);
+		}
+
+		// starts with a single page and grows with the data actually read,
+		// pages are not recycled, so the content is safe to be retained by
+		// the handlers (like bulk) without copying it
+		final BytesStreamOutput out = new BytesStreamOutput();
+		final byte[] buffer = new byte[Streams.BUFFER_SIZE];
+		long total = 0;
+		int read;
+
+		while ((read = in.read(buffer)) != -1) {
+			total += read;
+
+			if (total > maxContentLength) {
+				throw new RequestContentTooLargeException("Request body exceeds "
+						+ maxContentLength + " bytes");
+			}
+
+			out.writeBytes(buffer, 0, read);
+		}
+
+		return out.bytes();
 	}
 
 	@Override
@@ -70,7 +151,7 @@ HttpRequest {
 	@Override
 	public String uri() {
 
-		return request.getRequestURI();
+		return uri;
 
 		/*
 		 * int prefixLength = 0; if (request.getContextPath() != null ) {
@@ -89,7 +170,7 @@ HttpRequest {
 
 	@Override
 	public boolean hasContent() {
-		return content.length() > 0;
+		return content().length() > 0;
 	}
 
 	@Override
@@ -99,6 +180,33 @@ HttpRequest {
 
 	@Override
 	public BytesReference content() {
+
+		BytesReference content = this.content;
+
+		if (content == null) {
+			synchronized (this) {
+				content = this.content;
+
+				if (content == null) {
+					try {
+						content = readContent(request, maxContentLength);
+					} catch (final RequestContentTooLargeException e) {
+						// the stream can't be read again, the error response
+						// must not fail on the same body
+						this.content = BytesArray.EMPTY;
+						throw e;
+					} catch (final IOException e) {
+						this.content = BytesArray.EMPTY;
+						throw new ElasticsearchException(
+								"Unable to read request body", e);
+					}
+
+					request.setAttribute(REQUEST_CONTENT_ATTRIBUTE, content);
+					this.content = content;
+				}
+			}
+		}
+
 		return content;
 	}
 
@@ -107,6 +215,13 @@ HttpRequest {
 		return request.getHeader(name);
 	}
 
+	/**
+	 * @return the values of all fields with the name in the order received
+	 */
+	public List<String> headerValues(final String name) {
+		return Collections.list(request.getHeaders(name));
+	}
+
 	@Override
 	public Map<String, String> params() {
 		return params;
@@ -163,6 +278,18 @@ HttpRequest {
 		return opaqueId;
 	}
 
+	/**
+	 * @return the indices, types, id and command classification of the path
+	 */
+	public RequestPath getRequestPath() {
+
+		if (requestPath == null) {
+			requestPath = RequestPath.parse(method, path());
+		}
+
+		return requestPath;
+	}
+
 	public HttpServletRequest getHttpServletRequest() {
 		return request;
 
@@ -186,7 +313,7 @@ HttpRequest {
 
 			if (wp.getRoles() != null) {
 				final List<String> roles = Arrays.asList(wp.getRoles());
-				log.debug("GenericPrincipal roles: " + roles);
+				log.debug("GenericPrincipal roles: {}", roles);
 				return roles;
 			}
 		}
@@ -196,8 +323,10 @@ HttpRequest {
 			final WindowsPrincipal wp = (WindowsPrincipal) request
 					.getUserPrincipal();
 
-			log.debug("WindowsPrincipal roles: " + wp.getRolesString());
-			log.debug("WindowsPrincipal groups: " + wp.getGroups());
+			if (log.isDebugEnabled()) {
+				log.debug("WindowsPrincipal roles: " + wp.getRolesString());
+				log.debug("WindowsPrincipal groups: " + wp.getGroups());
+			}
 
 			if (wp.getRolesString() != null) {
 				return Arrays.asList(wp.getRolesString().split(","));
@@ -246,7 +375,7 @@ HttpRequest {
 	 * @return BytesReference 
 	 */
 	 public BytesReference getContent() {
-	 		return content;
+	 		return content();
 	 }
 	 
 	 /**
@@ -11,23 +11,33 @@ import static org.elasticsearch.common.network.NetworkService.TcpSettings.TCP_RE
 import static org.elasticsearch.common.network.NetworkService.TcpSettings.TCP_SEND_BUFFER_SIZE;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.authenticator.SSLAuthenticator;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.catalina.core.StandardThreadExecutor;
 import org.apache.catalina.deploy.FilterDef;
 import org.apache.catalina.deploy.FilterMap;
 import org.apache.catalina.deploy.LoginConfig;
 import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.AbstractProtocol;
 
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.network.NetworkService;
@@ -37,12 +47,15 @@ import org.elasticsearch.common.transport.BoundTransportAddress;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.http.HttpInfo;
 import org.elasticsearch.http.HttpServerAdapter;
 import org.elasticsearch.http.HttpServerTransport;
 import org.elasticsearch.http.HttpStats;
 import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.plugins.security.util.KeyStoreUtil;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
 import org.elasticsearch.transport.BindTransportException;
 
@@ -75,6 +88,9 @@ HttpServerTransport {
 
 	private final int compressionLevel;
 
+	// null if compression is disabled
+	private final ResponseCompression responseCompression;
+
 	private final Boolean tcpNoDelay;
 
 	private final Boolean tcpKeepAlive;
@@ -94,6 +110,96 @@ HttpServerTransport {
 
 	private final  Boolean useClientAuth;
 
+	private final boolean asyncEnabled;
+
+	// zero or less means no timeout
+	private final TimeValue asyncTimeout;
+
+	// how long a timed out request waits for a response which is still
+	// written
+	private final TimeValue asyncWriteTimeout;
+
+	private final String protocol;
+
+	private static final String APR_PROTOCOL = "org.apache.coyote.http11.Http11AprProtocol";
+
+	// cipher list in OpenSSL syntax, used instead of sslCiphers with APR
+	private final String opensslCiphers;
+
+	private final int maxThreads;
+
+	private final int minSpareThreads;
+
+	private final int maxQueueSize;
+
+	private final TimeValue threadMaxIdleTime;
+
+	private final int acceptCount;
+
+	// -1 is unlimited, null leaves the protocol default
+	private final Integer maxConnections;
+
+	private volatile StandardThreadExecutor executor;
+
+	// the key and certificates exported for OpenSSL, deleted on stop
+	private final List<File> exportedFiles = new CopyOnWriteArrayList<File>();
+
+	// -1 is unlimited
+	private final int maxKeepAliveRequests;
+
+	private final TimeValue keepAliveTimeout;
+
+	private final TimeValue connectionTimeout;
+
+	private final ConnectionTracker connectionTracker;
+
+	private final String[] sslCiphers;
+
+	private final String[] sslProtocols;
+
+	private final int sslSessionCacheSize;
+
+	private final TimeValue sslSessionTimeout;
+
+	// null if SSL is disabled
+	private final SslSessionStats sslSessionStats;
+
+	/**
+	 * Cipher suites in order of preference, forward secret AES-GCM first.
+	 * Suites the JVM does not support are skipped.
+	 */
+	public static final String[] DEFAULT_SSL_CIPHERS = new String[] {
+		"TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+		"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+		"TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+		"TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+		"TLS_DHE_RSA_WITH_AES_128_GCM_SHA256",
+		"TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256",
+		"TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256",
+		"TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA",
+		"TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA",
+		"TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA",
+		"TLS_DHE_RSA_WITH_AES_128_CBC_SHA",
+		"TLS_RSA_WITH_AES_128_GCM_SHA256",
+		"TLS_RSA_WITH_AES_128_CBC_SHA256",
+		"TLS_RSA_WITH_AES_128_CBC_SHA" };
+
+	public static final String[] DEFAULT_SSL_PROTOCOLS = new String[] {
+		"TLSv1.2", "TLSv1.1", "TLSv1" };
+
+	/**
+	 * The same preference as {@link #DEFAULT_SSL_CIPHERS} in OpenSSL syntax
+	 */
+	public static final String DEFAULT_OPENSSL_CIPHERS = "ECDHE+AESGCM:DHE+AESGCM:ECDHE+AES:DHE+AES:RSA+AESGCM:RSA+AES:!aNULL:!eNULL:!MD5:!DSS";
+
+	public static final int DEFAULT_SSL_SESSION_CACHE_SIZE = 20000;
+
+	public static final String[] DEFAULT_COMPRESSION_MIME_TYPES = new String[] {
+		"application/json", "application/yaml", "text/plain", "text/html" };
+
+	public static final TimeValue DEFAULT_SSL_SESSION_TIMEOUT = TimeValue
+			.timeValueHours(24);
+
 	static {
 
 		System.setProperty("org.apache.catalina.connector.RECYCLE_FACADES",
@@ -225,9 +331,124 @@ HttpServerTransport {
 						TCP_RECEIVE_BUFFER_SIZE,
 						TCP_DEFAULT_RECEIVE_BUFFER_SIZE));
 
+		asyncEnabled = componentSettings.getAsBoolean("async.enabled",
+				settings.getAsBoolean("security.http.tomcat.async.enabled", true));
+		asyncTimeout = componentSettings.getAsTime("async.timeout",
+				settings.getAsTime("security.http.tomcat.async.timeout",
+						TimeValue.timeValueMillis(0)));
+		asyncWriteTimeout = componentSettings.getAsTime("async.write_timeout",
+				settings.getAsTime("security.http.tomcat.async.write_timeout",
+						TimeValue.timeValueSeconds(30)));
+
+		final String jsseProtocol = blockingServer ? "bio" : "nio";
+		String protocol = protocolClassName(componentSettings.get("protocol",
+				settings.get("security.http.tomcat.protocol", jsseProtocol)));
+
+		if (APR_PROTOCOL.equals(protocol) && !isAprAvailable()) {
+			logger.warn("APR/tcnative native library not available, falling back to {} (JSSE)",
+					jsseProtocol);
+			protocol = protocolClassName(jsseProtocol);
+		}
+
+		this.protocol = protocol;
+
+		opensslCiphers = settings.get("security.ssl.openssl.ciphers",
+				DEFAULT_OPENSSL_CIPHERS);
+
+		// with async dispatch a worker is only busy while reading the
+		// request and writing the response, so it scales with the cpus
+		final int processors = EsExecutors.boundedNumberOfProcessors(settings);
+		maxThreads = componentSettings.getAsInt("max_threads", settings
+				.getAsInt("security.http.tomcat.max_threads",
+						asyncEnabled ? Math.max(32, processors * 8) : 200));
+		minSpareThreads = componentSettings.getAsInt("min_spare_threads",
+				settings.getAsInt("security.http.tomcat.min_spare_threads",
+						Math.min(processors, maxThreads)));
+		maxQueueSize = componentSettings.getAsInt("max_queue_size", settings
+				.getAsInt("security.http.tomcat.max_queue_size",
+						Integer.MAX_VALUE));
+		threadMaxIdleTime = componentSettings.getAsTime("thread_max_idle_time",
+				settings.getAsTime("security.http.tomcat.thread_max_idle_time",
+						TimeValue.timeValueSeconds(60)));
+		acceptCount = componentSettings.getAsInt("accept_count", settings
+				.getAsInt("security.http.tomcat.accept_count", 100));
+		maxConnections = componentSettings.getAsInt("max_connections",
+				settings.getAsInt("security.http.tomcat.max_connections", null));
+
+		// idle connections are closed after keep_alive_timeout, so there is
+		// no need to force a reconnect after a number of requests
+		maxKeepAliveRequests = componentSettings.getAsInt(
+				"max_keep_alive_requests", settings.getAsInt(
+						"security.http.tomcat.max_keep_alive_requests",
+						tcpKeepAlive == null || tcpKeepAlive.booleanValue() ? -1 : 1));
+		keepAliveTimeout = componentSettings.getAsTime("keep_alive_timeout",
+				settings.getAsTime("security.http.tomcat.keep_alive_timeout",
+						TimeValue.timeValueSeconds(60)));
+		connectionTimeout = componentSettings.getAsTime("connection_timeout",
+				settings.getAsTime("security.http.tomcat.connection_timeout",
+						TimeValue.timeValueSeconds(20)));
+
+		connectionTracker = new ConnectionTracker(
+				maxConnections != null && maxConnections > 0 ? maxConnections
+						: 10000, keepAliveTimeout.millis() > 0 ? keepAliveTimeout
+								: connectionTimeout);
+		securityService.setConnectionTracker(connectionTracker);
+
+		sslCiphers = settings.getAsArray("security.ssl.ciphers",
+				DEFAULT_SSL_CIPHERS);
+		sslProtocols = settings.getAsArray("security.ssl.protocols",
+				DEFAULT_SSL_PROTOCOLS);
+		sslSessionCacheSize = settings.getAsInt(
+				"security.ssl.session_cache_size",
+				DEFAULT_SSL_SESSION_CACHE_SIZE);
+		sslSessionTimeout = settings.getAsTime("security.ssl.session_timeout",
+				DEFAULT_SSL_SESSION_TIMEOUT);
+
+		if (sslSessionCacheSize < 0 || sslSessionTimeout.seconds() < 1) {
+			throw new ElasticsearchIllegalArgumentException(
+					"Invalid SSL session cache, session_cache_size: "
+							+ sslSessionCacheSize + ", session_timeout: "
+							+ sslSessionTimeout);
+		}
+
+		sslSessionStats = useSSL ? new SslSessionStats(sslSessionCacheSize,
+				sslSessionTimeout) : null;
+		securityService.setSslSessionStats(sslSessionStats);
+
+		if (maxThreads < 1 || minSpareThreads < 0
+				|| minSpareThreads > maxThreads) {
+			throw new ElasticsearchIllegalArgumentException(
+					"Invalid tomcat thread pool size, max_threads: "
+							+ maxThreads + ", min_spare_threads: "
+							+ minSpareThreads);
+		}
+
 		compression = settings.getAsBoolean("http.compression", false);
 		compressionLevel = settings.getAsInt("http.compression_level", 6);
 
+		if (compression) {
+			final ByteSizeValue minSize = componentSettings.getAsBytesSize(
+					"compression.min_size", settings.getAsBytesSize(
+							"security.http.tomcat.compression.min_size",
+							new ByteSizeValue(1, ByteSizeUnit.KB)));
+			final String[] mimeTypes = componentSettings.getAsArray(
+					"compression.mime_types", settings.getAsArray(
+							"security.http.tomcat.compression.mime_types",
+							DEFAULT_COMPRESSION_MIME_TYPES));
+			// idle deflaters kept for reuse
+			final int deflaterPoolSize = componentSettings.getAsInt(
+					"compression.deflater_pool_size", settings.getAsInt(
+							"security.http.tomcat.compression.deflater_pool_size",
+							maxThreads));
+
+			responseCompression = new ResponseCompression(compressionLevel,
+					minSize.bytes(), mimeTypes, deflaterPoolSize);
+		} else {
+			responseCompression = null;
+		}
+
+		securityService.setResponseCompression(responseCompression);
+
 		// validate max content length
 		if (maxContentLength.bytes() > Integer.MAX_VALUE) {
 			logger.warn("maxContentLength[" + maxContentLength
@@ -246,6 +467,195 @@ HttpServerTransport {
 
 	}
 
+	/**
+	 * @return true if requests are processed with servlet async support, so
+	 *         that connector threads are not blocked while elasticsearch
+	 *         executes them
+	 */
+	public boolean isAsyncEnabled() {
+		return asyncEnabled;
+	}
+
+	public TimeValue getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	public TimeValue getAsyncWriteTimeout() {
+		return asyncWriteTimeout;
+	}
+
+	public ByteSizeValue getMaxContentLength() {
+		return maxContentLength;
+	}
+
+	/**
+	 * @return the thread pool of the connector, null if not started
+	 */
+	public StandardThreadExecutor getExecutor() {
+		return executor;
+	}
+
+	public ConnectionTracker getConnectionTracker() {
+		return connectionTracker;
+	}
+
+	/**
+	 * @return the handshake statistics, null if SSL is disabled
+	 */
+	public SslSessionStats getSslSessionStats() {
+		return sslSessionStats;
+	}
+
+	/**
+	 * @return true if the connector uses APR, and therefore OpenSSL for TLS
+	 */
+	public boolean isApr() {
+		return APR_PROTOCOL.equals(protocol);
+	}
+
+	private void configureJsse(final Connector httpConnector) {
+
+		httpConnector.setAttribute("sslProtocol", "TLS");
+		httpConnector.setAttribute("sslEnabledProtocols",
+				Strings.arrayToCommaDelimitedString(sslProtocols));
+		httpConnector.setAttribute("ciphers",
+				Strings.arrayToCommaDelimitedString(sslCiphers));
+
+		// resumed sessions skip the key exchange, so keep them
+		// long enough for clients which reconnect often
+		httpConnector.setAttribute("sessionCacheSize",
+				String.valueOf(sslSessionCacheSize));
+		httpConnector.setAttribute("sessionTimeout",
+				String.valueOf(sslSessionTimeout.seconds()));
+
+		httpConnector.setAttribute("keystoreFile", settings.get(
+				"security.ssl.keystorefile", "keystore"));
+		httpConnector.setAttribute("keystorePass", settings.get(
+				"security.ssl.keystorepass", "changeit"));
+		httpConnector.setAttribute("keystoreType", settings.get(
+				"security.ssl.keystoretype", "JKS"));
+
+		final String keyalias = settings.get("security.ssl.keyalias", null);
+
+		if(keyalias != null) {
+			httpConnector.setAttribute("keyAlias", keyalias);
+		}
+
+		if (useClientAuth) {
+			httpConnector.setAttribute("clientAuth", "true");
+
+			httpConnector.setAttribute("truststoreFile", settings.get(
+					"security.ssl.clientauth.truststorefile", "truststore"));
+			httpConnector.setAttribute("truststorePass", settings.get(
+					"security.ssl.clientauth.truststorepass", "changeit"));
+			httpConnector.setAttribute("truststoreType", settings.get(
+					"security.ssl.clientauth.truststoretype", "JKS"));
+		}
+	}
+
+	/**
+	 * OpenSSL reads PEM files only, so the key and certificates of the
+	 * security.ssl.* keystores are exported to the tomcat directory. The key
+	 * is encrypted with a random password which is only handed to the
+	 * connector.
+	 */
+	private void configureOpenSsl(final Connector httpConnector,
+			final String tomcatDir) throws IOException,
+			GeneralSecurityException {
+
+		final File sslDir = new File(tomcatDir, "ssl");
+
+		if (!sslDir.isDirectory() && !sslDir.mkdirs()) {
+			throw new IOException("Unable to create " + sslDir);
+		}
+
+		final String keystorePass = settings.get("security.ssl.keystorepass",
+				"changeit");
+		final KeyStore keystore = KeyStoreUtil.load(
+				settings.get("security.ssl.keystorefile", "keystore"),
+				keystorePass, settings.get("security.ssl.keystoretype", "JKS"));
+		final String keyalias = KeyStoreUtil.keyAlias(keystore,
+				settings.get("security.ssl.keyalias", null));
+
+		final File keyFile = new File(sslDir, "key.pem");
+		final File certificateFile = new File(sslDir, "certificate.pem");
+		final String pemPassword = KeyStoreUtil.newPemPassword();
+		exportedFiles.add(keyFile);
+		KeyStoreUtil.writePrivateKey(keystore, keyalias, keystorePass,
+				pemPassword, keyFile);
+		exportedFiles.add(certificateFile);
+		KeyStoreUtil.writeCertificateChain(keystore, keyalias,
+				certificateFile);
+
+		httpConnector.setAttribute("SSLCertificateKeyFile",
+				keyFile.getAbsolutePath());
+		httpConnector.setAttribute("SSLPassword", pemPassword);
+		httpConnector.setAttribute("SSLCertificateFile",
+				certificateFile.getAbsolutePath());
+
+		httpConnector.setAttribute("SSLProtocol", opensslProtocols(sslProtocols));
+		httpConnector.setAttribute("SSLCipherSuite", opensslCiphers);
+		httpConnector.setAttribute("SSLHonorCipherOrder", true);
+		httpConnector.setAttribute("SSLDisableCompression", true);
+
+		if (useClientAuth) {
+			final File caFile = new File(sslDir, "truststore.pem");
+			exportedFiles.add(caFile);
+			KeyStoreUtil.writeTrustedCertificates(KeyStoreUtil.load(settings
+					.get("security.ssl.clientauth.truststorefile",
+							"truststore"), settings.get(
+									"security.ssl.clientauth.truststorepass", "changeit"),
+									settings.get("security.ssl.clientauth.truststoretype",
+											"JKS")), caFile);
+
+			httpConnector.setAttribute("SSLVerifyClient", "require");
+			httpConnector.setAttribute("SSLCACertificateFile",
+					caFile.getAbsolutePath());
+		}
+
+		logger.info("Using OpenSSL (APR) for TLS");
+	}
+
+	/**
+	 * @return true if the tcnative library could be loaded
+	 */
+	static boolean isAprAvailable() {
+		// the library is only looked up once a listener was created
+		new AprLifecycleListener();
+		return AprLifecycleListener.isAprAvailable();
+	}
+
+	/**
+	 * @return the protocols in the format of the APR connector, for example
+	 *         <code>TLSv1+TLSv1.1+TLSv1.2</code>
+	 */
+	static String opensslProtocols(final String[] protocols) {
+		return Strings.arrayToDelimitedString(protocols, "+");
+	}
+
+	static String protocolClassName(final String protocol) {
+
+		if ("bio".equalsIgnoreCase(protocol)) {
+			return "org.apache.coyote.http11.Http11Protocol";
+		}
+
+		if ("nio".equalsIgnoreCase(protocol)) {
+			return "org.apache.coyote.http11.Http11NioProtocol";
+		}
+
+		if ("apr".equalsIgnoreCase(protocol)) {
+			return APR_PROTOCOL;
+		}
+
+		if (protocol.indexOf('.') > 0) {
+			return protocol;
+		}
+
+		throw new ElasticsearchIllegalArgumentException(
+				"Unknown tomcat protocol '" + protocol
+				+ "', expected bio, nio, apr or a protocol class name");
+	}
+
 	public SecurityService getSecurityService() {
 		return securityService;
 	}
@@ -261,12 +671,13 @@ HttpServerTransport {
 
 	@Override
 	public HttpInfo info() {
-		return new HttpInfo(boundAddress(), 0);
+		return new HttpInfo(boundAddress(), maxContentLength.bytes());
 	}
 
 	@Override
 	public HttpStats stats() {
-		return new HttpStats(0, 0);
+		return new HttpStats(Math.max(0, connectionTracker.getOpenCount()),
+				connectionTracker.getOpenedCount());
 	}
 
 	@Override
@@ -298,13 +709,47 @@ HttpServerTransport {
 			tomcat.getServer().setPort(-1); // shutdown disabled
 			tomcat.getServer().setAddress("localhost");
 
-			final String httpProtocolImpl = blockingServer ? "org.apache.coyote.http11.Http11Protocol"
-					: "org.apache.coyote.http11.Http11NioProtocol";
+			if (isApr()) {
+				// initializes the native library and OpenSSL with the server
+				tomcat.getServer().addLifecycleListener(
+						new AprLifecycleListener());
+			}
 
-			final Connector httpConnector = new Connector(httpProtocolImpl);
+			final Connector httpConnector = new Connector(protocol);
 			tomcat.setConnector(httpConnector);
 			tomcat.getService().addConnector(httpConnector);
 
+			// one named pool for the connector, started and stopped with
+			// the service
+			executor = new StandardThreadExecutor();
+			executor.setName("elasticsearch-http");
+			executor.setNamePrefix("elasticsearch[http-tomcat]-");
+			executor.setMaxThreads(maxThreads);
+			executor.setMinSpareThreads(minSpareThreads);
+			executor.setMaxQueueSize(maxQueueSize);
+			executor.setMaxIdleTime((int) threadMaxIdleTime.millis());
+			tomcat.getService().addExecutor(executor);
+
+			if (httpConnector.getProtocolHandler() instanceof AbstractProtocol) {
+				((AbstractProtocol) httpConnector.getProtocolHandler())
+				.setExecutor(executor);
+				connectionTracker.setProtocol((AbstractProtocol) httpConnector
+						.getProtocolHandler());
+			} else {
+				logger.warn("Protocol {} does not support an executor, using its own thread pool",
+						protocol);
+			}
+
+			httpConnector.setAttribute("acceptCount", acceptCount);
+
+			if (maxConnections != null) {
+				httpConnector.setAttribute("maxConnections", maxConnections);
+			}
+
+			logger.debug("protocol: {}, max_threads: {}, min_spare_threads: {}, accept_count: {}, max_connections: {}",
+					protocol, maxThreads, minSpareThreads, acceptCount,
+					maxConnections);
+
 			// TODO report tomcat bug with setProtocol
 
 			if (maxContentLength != null) {
@@ -330,10 +775,15 @@ HttpServerTransport {
 			if (tcpKeepAlive != null) {
 				httpConnector.setAttribute("socket.soKeepAlive",
 						tcpKeepAlive.booleanValue());
-				httpConnector.setAttribute("maxKeepAliveRequests",
-						tcpKeepAlive.booleanValue() ? "100" : "1");
 			}
 
+			httpConnector.setAttribute("maxKeepAliveRequests",
+					maxKeepAliveRequests);
+			httpConnector.setAttribute("keepAliveTimeout",
+					(int) keepAliveTimeout.millis());
+			httpConnector.setAttribute("connectionTimeout",
+					(int) connectionTimeout.millis());
+
 			if (tcpReceiveBufferSize != null) {
 				httpConnector.setAttribute("socket.rxBufSize",
 						tcpReceiveBufferSize.bytesAsInt());
@@ -344,9 +794,8 @@ HttpServerTransport {
 						tcpSendBufferSize.bytesAsInt());
 			}
 
-			httpConnector.setAttribute("compression",
-					compression ? String.valueOf(compressionLevel)
-							: "off");
+			// compression is negotiated per response by the channel
+			httpConnector.setAttribute("compression", "off");
 
 			if (maxChunkSize != null) {
 				httpConnector.setAttribute("maxExtensionSize",
@@ -367,7 +816,8 @@ HttpServerTransport {
 
 			logger.debug("currentDir " + currentDir);
 
-			Tomcat.addServlet(ctx, "ES Servlet", servlet);
+			Tomcat.addServlet(ctx, "ES Servlet", servlet).setAsyncSupported(
+					asyncEnabled);
 
 			ctx.addServletMapping("/*", "ES Servlet");
 
@@ -382,19 +832,10 @@ HttpServerTransport {
 				httpConnector.setSecure(true);
 				httpConnector.setScheme("https");
 
-				httpConnector.setAttribute("sslProtocol", "TLS");
-
-				httpConnector.setAttribute("keystoreFile", settings.get(
-						"security.ssl.keystorefile", "keystore"));
-				httpConnector.setAttribute("keystorePass", settings.get(
-						"security.ssl.keystorepass", "changeit"));
-				httpConnector.setAttribute("keystoreType", settings.get(
-						"security.ssl.keystoretype", "JKS"));
-
-				final String keyalias = settings.get("security.ssl.keyalias", null);
-
-				if(keyalias != null) {
-					httpConnector.setAttribute("keyAlias", keyalias);
+				if (isApr()) {
+					configureOpenSsl(httpConnector, tomcatDir);
+				} else {
+					configureJsse(httpConnector);
 				}
 
 				if(useClientAuth)
@@ -403,15 +844,6 @@ HttpServerTransport {
 
 					logger.info("Using SSL Client Auth (PKI), so user/roles will be retrieved from client certificate.");
 
-					httpConnector.setAttribute("clientAuth", "true");
-
-					httpConnector.setAttribute("truststoreFile", settings.get(
-							"security.ssl.clientauth.truststorefile", "truststore"));
-					httpConnector.setAttribute("truststorePass", settings.get(
-							"security.ssl.clientauth.truststorepass", "changeit"));
-					httpConnector.setAttribute("truststoreType", settings.get(
-							"security.ssl.clientauth.truststoretype", "JKS"));
-
 
 					/*final String loginconf = this.settings
 						.get("security.kerberos.login.conf.path");
@@ -478,6 +910,7 @@ HttpServerTransport {
 					final FilterDef fd = new FilterDef();
 					fd.setFilterClass("waffle.servlet.NegotiateSecurityFilter");
 					fd.setFilterName("Waffle");
+					fd.setAsyncSupported(String.valueOf(asyncEnabled));
 
 					if (testMode != null && testMode.booleanValue()) {
 
@@ -618,8 +1051,21 @@ HttpServerTransport {
 
 		} catch (final Exception e) {
 			throw new ElasticsearchException("Unable to stop Tomcat", e);
+		} finally {
+			deleteExportedFiles();
+		}
+
+	}
+
+	private void deleteExportedFiles() {
+
+		for (final File file : exportedFiles) {
+			if (file.exists() && !file.delete()) {
+				logger.warn("Unable to delete {}", file);
+			}
 		}
 
+		exportedFiles.clear();
 	}
 
 	public HttpServerAdapter httpServerAdapter() {
@@ -633,6 +1079,8 @@ HttpServerTransport {
 			tomcat = null;
 		} catch (final LifecycleException e) {
 			throw new ElasticsearchException("Unable to destroy Tomcat", e);
+		} finally {
+			deleteExportedFiles();
 		}
 
 	}
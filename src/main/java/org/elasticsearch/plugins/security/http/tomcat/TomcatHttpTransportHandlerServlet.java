@@ -2,11 +2,13 @@ package org.elasticsearch.plugins.security.http.tomcat;
 
 import java.io.IOException;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.catalina.Globals;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.http.HttpServerAdapter;
@@ -30,10 +32,55 @@ public class TomcatHttpTransportHandlerServlet extends HttpServlet {
 			final HttpServletResponse resp) throws ServletException,
 			IOException {
 
+		final long startNanos = System.nanoTime();
 		final HttpServerAdapter adapter = getTransport()
 				.httpServerAdapter();
+		final long maxContentLength = transport.getMaxContentLength().bytes();
 		final TomcatHttpServerRestRequest restRequest = new TomcatHttpServerRestRequest(
-				req);
+				req, maxContentLength);
+
+		if (transport.getConnectionTracker().onRequest(req.getRemoteAddr(),
+				req.getRemotePort())
+				&& transport.getSslSessionStats() != null) {
+			transport.getSslSessionStats().onHandshake(
+					(String) req.getAttribute(Globals.SSL_SESSION_ID_ATTR));
+		}
+
+		// refused before the body is read, longer chunked bodies are refused
+		// while they are read
+		if (req.getContentLength() > maxContentLength) {
+			log.debug("Content-Length {} exceeds {}", req.getContentLength(),
+					maxContentLength);
+			resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			// never dispatched, so the channel can't record it
+			transport.getSecurityService().getRequestStats().onResponse(
+					HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+					HttpRequestStats.Outcome.FORBIDDEN,
+					System.nanoTime() - startNanos);
+			return;
+		}
+
+		if (transport.isAsyncEnabled() && req.isAsyncSupported()) {
+			// the connector thread is released when service() returns, the
+			// channel completes the request when elasticsearch responds
+			final AsyncContext asyncContext = req.startAsync();
+			asyncContext.setTimeout(transport.getAsyncTimeout().millis());
+
+			final TomcatHttpServerRestChannel restChannel = new TomcatHttpServerRestChannel(
+					restRequest, resp, transport.getSecurityService(),
+					asyncContext, transport.getAsyncWriteTimeout().millis());
+
+			try {
+				adapter.dispatchRequest(restRequest, restChannel);
+			} catch (final Exception e) {
+				log.error("failed to dispatch request", e);
+				restChannel.sendError(e);
+			}
+
+			return;
+		}
+
+		// a filter without async support is in the chain, block until done
 		final TomcatHttpServerRestChannel restChannel = new TomcatHttpServerRestChannel(
 				restRequest, resp, transport.getSecurityService());
 
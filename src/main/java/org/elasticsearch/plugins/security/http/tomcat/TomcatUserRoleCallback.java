@@ -18,8 +18,14 @@ public class TomcatUserRoleCallback implements UserRoleCallback {
 	@Override
 	public String getRemoteuser() {
 
+		return toUser(request.getRemoteUser(), sslUserAttribute);
+	}
 
-		String remoteUser = request.getRemoteUser();
+	/**
+	 * @return the value of the ssl user attribute if the remote user is the
+	 *         distinguished name of a client certificate, else the remote user
+	 */
+	public static String toUser(String remoteUser, final String sslUserAttribute) {
 
 		//CN=nelsonh, OU=marketingc, O=Saly Test Inc 2, DC=saly, DC=de
 		if(remoteUser != null && !remoteUser.isEmpty())
@@ -0,0 +1,47 @@
+package org.elasticsearch.plugins.security.rest;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * <code>POST /_security/_refresh</code>, makes all nodes reload the security
+ * configuration. Writes to the configuration index are published
+ * automatically, this is needed only if a notification was lost (or push
+ * notifications are disabled) and the periodic refresh is too slow.
+ */
+public class RestSecurityRefreshAction implements RestHandler {
+
+	private final SecurityService securityService;
+
+	public RestSecurityRefreshAction(final SecurityService securityService) {
+		super();
+		this.securityService = securityService;
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request,
+			final RestChannel channel) throws Exception {
+
+		final boolean push = securityService.getConfigurationPublisher() != null;
+
+		if (push) {
+			securityService.publishConfigurationChange();
+		} else {
+			// local node only, reloaded on next access
+			securityService.invalidateConfiguration();
+		}
+
+		final XContentBuilder builder = channel.newBuilder();
+		builder.startObject();
+		builder.field("acknowledged", true);
+		builder.field("cluster_wide", push);
+		builder.endObject();
+		channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+	}
+
+}
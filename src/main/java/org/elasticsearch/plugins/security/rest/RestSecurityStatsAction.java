@@ -0,0 +1,174 @@
+package org.elasticsearch.plugins.security.rest;
+
+import java.util.Locale;
+import java.util.Map;
+
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugins.security.http.tomcat.ConnectionTracker;
+import org.elasticsearch.plugins.security.http.tomcat.HttpRequestStats;
+import org.elasticsearch.plugins.security.http.tomcat.ResponseCompression;
+import org.elasticsearch.plugins.security.http.tomcat.SslSessionStats;
+import org.elasticsearch.plugins.security.service.AuthorizationDecisionCache;
+import org.elasticsearch.plugins.security.service.DnsCache;
+import org.elasticsearch.plugins.security.service.SecurityConfigurationCache.CachedConfiguration;
+import org.elasticsearch.plugins.security.service.SecurityConfigurationPublisher;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * <code>GET /_security/_stats</code>, the security statistics of the node
+ * which handles the request
+ */
+public class RestSecurityStatsAction implements RestHandler {
+
+	private final SecurityService securityService;
+
+	public RestSecurityStatsAction(final SecurityService securityService) {
+		super();
+		this.securityService = securityService;
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request,
+			final RestChannel channel) throws Exception {
+
+		final XContentBuilder builder = channel.newBuilder();
+		builder.startObject();
+
+		builder.startObject("configuration");
+		builder.field("index", securityService.getSecurityConfigurationIndex());
+
+		builder.startArray("documents");
+		for (final CachedConfiguration cached : securityService
+				.getConfigurationCache().getCachedConfigurations()) {
+			builder.startObject();
+			builder.field("type", cached.getType());
+			builder.field("id", cached.getId());
+			builder.field("version", cached.getVersion());
+			builder.endObject();
+		}
+		builder.endArray();
+
+		final SecurityConfigurationPublisher publisher = securityService
+				.getConfigurationPublisher();
+
+		builder.startObject("push");
+		builder.field("enabled", publisher != null);
+		if (publisher != null) {
+			builder.field("published", publisher.getPublishedCount());
+			builder.field("received", publisher.getReceivedCount());
+			builder.field("failed", publisher.getFailedCount());
+			builder.startObject("propagation_latency_ms");
+			builder.field("last", publisher.getLastPropagationMillis());
+			builder.field("mean", publisher.getMeanPropagationMillis());
+			builder.field("max", publisher.getMaxPropagationMillis());
+			builder.endObject();
+		}
+		builder.endObject();
+
+		builder.endObject();
+
+		final AuthorizationDecisionCache decisionCache = securityService
+				.getDecisionCache();
+
+		builder.startObject("authorization_cache");
+		builder.field("enabled", decisionCache != null);
+		if (decisionCache != null) {
+			final CacheStats stats = decisionCache.stats();
+			builder.field("size", decisionCache.size());
+			builder.field("hits", stats.hitCount());
+			builder.field("misses", stats.missCount());
+			builder.field("evictions", stats.evictionCount());
+			builder.field("hit_rate", stats.hitRate());
+		}
+		builder.endObject();
+
+		final DnsCache dnsCache = securityService.getDnsCache();
+
+		builder.startObject("dns_cache");
+		builder.field("size", dnsCache.size());
+		builder.field("hits", dnsCache.getHitCount());
+		builder.field("misses", dnsCache.getMissCount());
+		builder.field("timeouts", dnsCache.getTimeoutCount());
+		builder.endObject();
+
+		final ConnectionTracker connectionTracker = securityService
+				.getConnectionTracker();
+
+		final HttpRequestStats requestStats = securityService
+				.getRequestStats();
+
+		final SslSessionStats sslSessionStats = securityService
+				.getSslSessionStats();
+
+		final ResponseCompression compression = securityService
+				.getResponseCompression();
+
+		builder.startObject("http");
+
+		if (connectionTracker != null) {
+			builder.startObject("connections");
+			builder.field("open", connectionTracker.getOpenCount());
+			builder.field("opened", connectionTracker.getOpenedCount());
+			builder.field("requests", connectionTracker.getRequestCount());
+			builder.field("reuse_ratio", connectionTracker.getReuseRatio());
+			builder.endObject();
+		}
+
+		if (sslSessionStats != null) {
+			builder.startObject("ssl");
+			builder.field("handshakes", sslSessionStats.getHandshakeCount());
+			builder.field("full_handshakes",
+					sslSessionStats.getFullHandshakeCount());
+			builder.field("resumed_handshakes",
+					sslSessionStats.getResumedHandshakeCount());
+			builder.field("resumption_ratio",
+					sslSessionStats.getResumptionRatio());
+			builder.endObject();
+		}
+
+		if (compression != null) {
+			builder.startObject("compression");
+			builder.field("responses", compression.getCompressedCount());
+			builder.field("bytes_in", compression.getBytesIn());
+			builder.field("bytes_out", compression.getBytesOut());
+			builder.field("bytes_saved", compression.getBytesSaved());
+			builder.endObject();
+		}
+
+		builder.startObject("responses");
+		builder.field("total", requestStats.getCount());
+
+		builder.startObject("outcome");
+		for (final HttpRequestStats.Outcome outcome : HttpRequestStats.Outcome
+				.values()) {
+			builder.field(outcome.name().toLowerCase(Locale.ROOT),
+					requestStats.getCount(outcome));
+		}
+		builder.endObject();
+
+		builder.startObject("status");
+		for (final Map.Entry<Integer, Long> entry : requestStats
+				.getStatusCounts().entrySet()) {
+			builder.field(String.valueOf(entry.getKey()), entry.getValue());
+		}
+		builder.endObject();
+
+		builder.startObject("latency_ms");
+		builder.field("mean", requestStats.getMeanLatencyMillis());
+		builder.field("histogram", requestStats.getLatencyHistogram());
+		builder.endObject();
+
+		builder.endObject();
+		builder.endObject();
+
+		builder.endObject();
+		channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+	}
+
+}
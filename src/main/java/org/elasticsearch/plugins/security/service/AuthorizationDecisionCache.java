@@ -0,0 +1,177 @@
+package org.elasticsearch.plugins.security.service;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.plugins.security.filter.PermLevel;
+import org.elasticsearch.plugins.security.service.permission.PermRuleSet;
+import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
+
+/**
+ * Bounded cache of {@link PermLevel} decisions.
+ * <p>
+ * A decision depends only on the rule set and on the user, the roles of the
+ * user, the client address, the indices and the types of a request. The key
+ * holds exactly this in normalized form: the configuration document and its
+ * version instead of the rule set, the membership in the roles the rule set
+ * refers to instead of all roles, and sorted, duplicate free index and type
+ * lists. A decision made for an outdated configuration version is never
+ * returned for a newer one.
+ * <p>
+ * Entries are evicted least recently used first and expire after a fixed
+ * time, which also bounds the effect of reverse DNS changes (host rules may
+ * match the hostname of the client).
+ */
+public class AuthorizationDecisionCache {
+
+	private final Cache<Key, PermLevel> cache;
+
+	public AuthorizationDecisionCache(final long maxSize, final TimeValue ttl) {
+		super();
+		cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.expireAfterWrite(ttl.millis(), TimeUnit.MILLISECONDS)
+				.recordStats().build();
+	}
+
+	/**
+	 * Returns the cached decision or evaluates the rule set and caches the
+	 * result
+	 */
+	public PermLevel evaluate(final String configuration, final long version,
+			final PermRuleSet<PermLevel> ruleSet, final List<String> indices,
+			final List<String> types, final InetAddress hostAddress,
+			final UserRoleCallback callback) {
+
+		final Key key = new Key(configuration, version, callback == null ? null
+				: callback.getRemoteuser(), roleMembership(ruleSet, callback),
+				hostAddress.getHostAddress(), normalize(indices),
+				normalize(types));
+
+		PermLevel permLevel = cache.getIfPresent(key);
+
+		if (permLevel == null) {
+			permLevel = ruleSet.evaluate(indices, types, hostAddress, callback);
+			cache.put(key, permLevel);
+		}
+
+		return permLevel;
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return hits, misses and evictions (expired entries count as evicted)
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	private static BitSet roleMembership(final PermRuleSet<PermLevel> ruleSet,
+			final UserRoleCallback callback) {
+		final List<String> roles = ruleSet.getRoles();
+		final BitSet membership = new BitSet(roles.size());
+
+		if (callback != null) {
+			for (int i = 0; i < roles.size(); i++) {
+				if (callback.isRemoteUserInRole(roles.get(i))) {
+					membership.set(i);
+				}
+			}
+		}
+
+		return membership;
+	}
+
+	// rules match if any value matches, so order and duplicates don't matter
+	// and no value at all is the same as an empty list
+	private static List<String> normalize(final List<String> values) {
+		if (values == null || values.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		final List<String> sorted = new ArrayList<String>(values);
+		Collections.sort(sorted);
+
+		for (int i = sorted.size() - 1; i > 0; i--) {
+			if (sorted.get(i).equals(sorted.get(i - 1))) {
+				sorted.remove(i);
+			}
+		}
+
+		return sorted;
+	}
+
+	private static final class Key {
+
+		private final String configuration;
+		private final long version;
+		private final String user;
+		private final BitSet roles;
+		private final String address;
+		private final List<String> indices;
+		private final List<String> types;
+		private final int hashCode;
+
+		private Key(final String configuration, final long version,
+				final String user, final BitSet roles, final String address,
+				final List<String> indices, final List<String> types) {
+			this.configuration = configuration;
+			this.version = version;
+			this.user = user;
+			this.roles = roles;
+			this.address = address;
+			this.indices = indices;
+			this.types = types;
+
+			int h = configuration.hashCode();
+			h = 31 * h + (int) (version ^ version >>> 32);
+			h = 31 * h + (user == null ? 0 : user.hashCode());
+			h = 31 * h + roles.hashCode();
+			h = 31 * h + address.hashCode();
+			h = 31 * h + indices.hashCode();
+			h = 31 * h + types.hashCode();
+			hashCode = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			final Key other = (Key) obj;
+
+			return hashCode == other.hashCode && version == other.version
+					&& configuration.equals(other.configuration)
+					&& (user == null ? other.user == null : user
+					.equals(other.user)) && roles.equals(other.roles)
+					&& address.equals(other.address)
+					&& indices.equals(other.indices)
+					&& types.equals(other.types);
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package org.elasticsearch.plugins.security.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.net.InetAddresses;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.plugins.security.service.permission.HostNameResolver;
+
+/**
+ * Bounded cache of reverse and forward DNS lookups.
+ * <p>
+ * Lookups run on a small dedicated pool, concurrent requests for the same
+ * name share one lookup. A request thread waits at most the timeout for a
+ * lookup which is not cached yet; if it takes longer the request continues
+ * without the name (as if the lookup failed) while the lookup completes in
+ * the background and is cached for the next request. So a slow DNS server
+ * delays a request by the timeout at worst instead of stalling every request
+ * thread.
+ * <p>
+ * Successful lookups are cached for the ttl, failed ones for the negative
+ * ttl.
+ */
+public class DnsCache implements HostNameResolver {
+
+	private final Cache<String, Entry> cache;
+
+	private final ConcurrentMap<String, FutureTask<Entry>> pending = new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+	private final ExecutorService executor;
+
+	private final long ttlNanos;
+
+	private final long negativeTtlNanos;
+
+	private final long timeoutNanos;
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	private final CounterMetric timeouts = new CounterMetric();
+
+	public DnsCache(final long maxSize, final TimeValue ttl,
+			final TimeValue negativeTtl, final TimeValue timeout,
+			final int threads, final ThreadFactory threadFactory) {
+		super();
+		ttlNanos = ttl.nanos();
+		negativeTtlNanos = negativeTtl.nanos();
+		timeoutNanos = timeout.nanos();
+		cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.expireAfterWrite(Math.max(ttlNanos, negativeTtlNanos),
+						TimeUnit.NANOSECONDS).build();
+		// bounded, lookups beyond that are not started at all
+		executor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+						(int) Math.min(maxSize, 1000)), threadFactory);
+	}
+
+	/**
+	 * @return the hostname of the address, or its ip if it has none or the
+	 *         lookup did not complete in time
+	 */
+	@Override
+	public String getHostName(final InetAddress address) {
+		final String ip = address.getHostAddress();
+		final Entry entry = lookup("ptr:" + ip, new Callable<Entry>() {
+
+			@Override
+			public Entry call() throws Exception {
+				// a fresh instance, the one of the request may have a name
+				final String hostName = InetAddress.getByAddress(
+						address.getAddress()).getHostName();
+				return new Entry(ip.equals(hostName) ? null : hostName, null);
+			}
+		});
+
+		return entry == null || entry.hostName == null ? ip : entry.hostName;
+	}
+
+	/**
+	 * Like {@link InetAddress#getByName(String)}, but ip literals are never
+	 * looked up and names are cached
+	 *
+	 * @throws UnknownHostException
+	 *             if the name cannot be resolved or the lookup did not
+	 *             complete in time
+	 */
+	public InetAddress getByName(final String host)
+			throws UnknownHostException {
+
+		if (InetAddresses.isInetAddress(host)) {
+			return InetAddresses.forString(host);
+		}
+
+		final Entry entry = lookup("a:" + host, new Callable<Entry>() {
+
+			@Override
+			public Entry call() throws Exception {
+				try {
+					return new Entry(null, InetAddress.getByName(host));
+				} catch (final UnknownHostException e) {
+					return new Entry(null, null);
+				}
+			}
+		});
+
+		if (entry == null || entry.address == null) {
+			throw new UnknownHostException(host);
+		}
+
+		return entry.address;
+	}
+
+	/**
+	 * @return the cached or looked up entry, null if the lookup did not
+	 *         complete in time
+	 */
+	private Entry lookup(final String key, final Callable<Entry> resolver) {
+		final Entry cached = cache.getIfPresent(key);
+
+		if (cached != null && !cached.isExpired(System.nanoTime())) {
+			hits.inc();
+			return cached;
+		}
+
+		misses.inc();
+
+		FutureTask<Entry> task = pending.get(key);
+
+		if (task == null) {
+			final FutureTask<Entry> newTask = new FutureTask<Entry>(
+					new Callable<Entry>() {
+
+						@Override
+						public Entry call() throws Exception {
+							try {
+								final Entry entry = resolver.call();
+								entry.expiresAt = System.nanoTime()
+										+ (entry.isNegative() ? negativeTtlNanos
+												: ttlNanos);
+								cache.put(key, entry);
+								return entry;
+							} finally {
+								pending.remove(key);
+							}
+						}
+					});
+
+			task = pending.putIfAbsent(key, newTask);
+
+			if (task == null) {
+				task = newTask;
+
+				try {
+					executor.execute(task);
+				} catch (final RejectedExecutionException e) {
+					pending.remove(key);
+					timeouts.inc();
+					return null;
+				}
+			}
+		}
+
+		try {
+			return task.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (final TimeoutException e) {
+			timeouts.inc();
+			return null;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final ExecutionException e) {
+			return null;
+		}
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return hits.count();
+	}
+
+	public long getMissCount() {
+		return misses.count();
+	}
+
+	/**
+	 * @return the lookups a request gave up waiting for
+	 */
+	public long getTimeoutCount() {
+		return timeouts.count();
+	}
+
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private static final class Entry {
+
+		// null if the lookup failed
+		private final String hostName;
+
+		private final InetAddress address;
+
+		private volatile long expiresAt;
+
+		private Entry(final String hostName, final InetAddress address) {
+			this.hostName = hostName;
+			this.address = address;
+		}
+
+		private boolean isNegative() {
+			return hostName == null && address == null;
+		}
+
+		private boolean isExpired(final long now) {
+			return now - expiresAt > 0;
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package org.elasticsearch.plugins.security.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.plugins.security.MalformedConfigurationException;
+
+/**
+ * Node local cache of the documents stored in the security configuration
+ * index, keyed by type and id.
+ * <p>
+ * A document is loaded from the index on first access only. Afterwards
+ * {@link #refresh()} (called periodically by {@link SecurityService}) checks
+ * the <code>_version</code> of every cached document and reloads the ones
+ * which have changed. Missing documents are cached as well, so optional
+ * configuration like the kibana rules does not cause a lookup per request.
+ */
+public class SecurityConfigurationCache {
+
+	private static final ESLogger log = Loggers
+			.getLogger(SecurityConfigurationCache.class);
+
+	// changes are published from the primary before the replicas have them
+	private static final String PREFERENCE = "_primary_first";
+
+	private final Client client;
+
+	private final String index;
+
+	private final ConcurrentMap<String, CachedConfiguration> entries = new ConcurrentHashMap<String, CachedConfiguration>();
+
+	public SecurityConfigurationCache(final Client client, final String index) {
+		super();
+		this.client = client;
+		this.index = index;
+	}
+
+	/**
+	 * @return the cached configuration, loaded from the index if it is not
+	 *         cached yet
+	 */
+	public CachedConfiguration get(final String type, final String id) {
+		final CachedConfiguration cached = entries.get(key(type, id));
+
+		if (cached != null) {
+			return cached;
+		}
+
+		final CachedConfiguration loaded = load(type, id);
+		final CachedConfiguration previous = entries.putIfAbsent(key(type, id),
+				loaded);
+		return previous == null ? loaded : previous;
+	}
+
+	/**
+	 * @return a snapshot of the currently cached documents
+	 */
+	public Collection<CachedConfiguration> getCachedConfigurations() {
+		return new ArrayList<CachedConfiguration>(entries.values());
+	}
+
+	/**
+	 * Drops one document, it will be reloaded on next access
+	 */
+	public void invalidate(final String type, final String id) {
+		entries.remove(key(type, id));
+		log.debug("Invalidated {}/{}", type, id);
+	}
+
+	/**
+	 * Drops all documents, they will be reloaded on next access
+	 */
+	public void invalidateAll() {
+		entries.clear();
+		log.debug("Invalidated all cached security configuration");
+	}
+
+	/**
+	 * Revalidates all cached documents against the index. Only the version is
+	 * fetched, the source is reloaded only for documents which have changed.
+	 *
+	 * @return true if at least one document was replaced
+	 */
+	public boolean refresh() {
+
+		boolean changed = false;
+
+		for (final CachedConfiguration cached : entries.values()) {
+
+			try {
+				final GetResponse resp = client
+						.prepareGet(index, cached.getType(), cached.getId())
+						.setFetchSource(false).setOperationThreaded(false)
+						.setPreference(PREFERENCE).get();
+
+				final long version = resp.isExists() ? resp.getVersion() : -1;
+
+				if (version != cached.getVersion()) {
+					final CachedConfiguration reloaded = load(cached.getType(),
+							cached.getId());
+
+					// don't resurrect an entry which was invalidated meanwhile
+					if (entries.replace(key(cached.getType(), cached.getId()),
+							cached, reloaded)) {
+						log.info("Security configuration {}/{} changed (version {} -> {})",
+								cached.getType(), cached.getId(),
+								cached.getVersion(), reloaded.getVersion());
+						changed = true;
+					}
+				}
+
+			} catch (final Exception e) {
+				// keep serving the last known configuration
+				log.warn("Unable to revalidate {}/{} due to {}",
+						cached.getType(), cached.getId(), e.toString());
+			}
+		}
+
+		return changed;
+	}
+
+	private CachedConfiguration load(final String type, final String id) {
+		final GetResponse resp = client.prepareGet(index, type, id)
+				.setOperationThreaded(false).setPreference(PREFERENCE).get();
+
+		if (!resp.isExists()) {
+			return new CachedConfiguration(type, id, -1, null, null);
+		}
+
+		final BytesReference source = resp.getSourceAsBytesRef();
+		String json = null;
+
+		try {
+			json = XContentHelper.convertToJson(source, true);
+		} catch (final IOException e) {
+			log.error("Unable to load type {} and id {} due to {}", type, id,
+					e);
+		}
+
+		return new CachedConfiguration(type, id, resp.getVersion(), source,
+				json);
+	}
+
+	private static String key(final String type, final String id) {
+		return type + "/" + id;
+	}
+
+	/**
+	 * Immutable snapshot of one configuration document
+	 */
+	public static final class CachedConfiguration {
+
+		private final String type;
+		private final String id;
+		private final long version;
+		private final BytesReference source;
+		private final String json;
+
+		private CachedConfiguration(final String type, final String id,
+				final long version, final BytesReference source,
+				final String json) {
+			super();
+			this.type = type;
+			this.id = id;
+			this.version = version;
+			this.source = source;
+			this.json = json;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return the document version, -1 if the document does not exist
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		public boolean exists() {
+			return source != null;
+		}
+
+		public BytesReference getSource()
+				throws MalformedConfigurationException {
+			if (!exists()) {
+				throw new MalformedConfigurationException("document type "
+						+ type + " with id " + id + " does not exists");
+			}
+			return source;
+		}
+
+		/**
+		 * @return the source as pretty printed json or null if it could not
+		 *         be converted
+		 */
+		public String getJson() throws MalformedConfigurationException {
+			getSource();
+			return json;
+		}
+
+	}
+
+}
@@ -0,0 +1,267 @@
+package org.elasticsearch.plugins.security.service;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.BaseTransportRequestHandler;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportService;
+
+/**
+ * Pushes security configuration changes to all nodes of the cluster.
+ * <p>
+ * After a write to the security configuration index (detected on its primary
+ * shard by a {@link SecurityConfigurationWriteListener}) {@link #publish()}
+ * sends a notification over the transport layer to every node (including
+ * the local one). Each node then revalidates its {@link SecurityConfigurationCache} and
+ * recompiles the affected rule sets before they are swapped in, so requests
+ * never see a half built configuration.
+ * <p>
+ * Notifications are best effort and bounded by a timeout. A node which misses
+ * one picks up the change with the next periodic refresh, so the staleness of
+ * a node is never longer than <code>security.configuration.cache.refresh_interval</code>.
+ * The time from publishing until a node serves the new configuration is
+ * recorded as propagation latency.
+ */
+public class SecurityConfigurationPublisher {
+
+	public static final String ACTION = "internal:security/configuration/changed";
+
+	private static final ESLogger log = Loggers
+			.getLogger(SecurityConfigurationPublisher.class);
+
+	private final SecurityService securityService;
+
+	private final ClusterService clusterService;
+
+	private final TransportService transportService;
+
+	private final ThreadPool threadPool;
+
+	private final TransportRequestOptions options;
+
+	// true while a publish is scheduled but not yet sent
+	private final AtomicBoolean pending = new AtomicBoolean();
+
+	private final CounterMetric published = new CounterMetric();
+	private final CounterMetric received = new CounterMetric();
+	private final CounterMetric failed = new CounterMetric();
+	private final MeanMetric propagation = new MeanMetric();
+	private final AtomicLong maxPropagation = new AtomicLong();
+	private volatile long lastPropagation;
+
+	public SecurityConfigurationPublisher(
+			final SecurityService securityService,
+			final ClusterService clusterService,
+			final TransportService transportService,
+			final ThreadPool threadPool, final TimeValue timeout) {
+		super();
+		this.securityService = securityService;
+		this.clusterService = clusterService;
+		this.transportService = transportService;
+		this.threadPool = threadPool;
+		options = TransportRequestOptions.options().withTimeout(timeout);
+	}
+
+	public void start() {
+		transportService.registerHandler(ACTION,
+				new ConfigurationChangedHandler());
+	}
+
+	public void stop() {
+		transportService.removeHandler(ACTION);
+	}
+
+	/**
+	 * Notifies all nodes that the security configuration has changed. Returns
+	 * immediately, the nodes reload asynchronously.
+	 */
+	public void publish() {
+
+		final ConfigurationChangedRequest request = new ConfigurationChangedRequest(
+				clusterService.localNode().id(), System.currentTimeMillis());
+
+		published.inc();
+
+		for (final DiscoveryNode node : clusterService.state().nodes()) {
+
+			log.debug("Publish security configuration change to {}", node);
+
+			try {
+				transportService.sendRequest(node, ACTION, request, options,
+						new EmptyTransportResponseHandler(ThreadPool.Names.SAME) {
+
+					@Override
+					public void handleException(final TransportException exp) {
+						failed.inc();
+						log.warn(
+								"Unable to publish security configuration change to {}, will be picked up by the periodic refresh due to {}",
+								node, exp.toString());
+					}
+				});
+			} catch (final Exception e) {
+				failed.inc();
+				log.warn("Unable to publish security configuration change to {} due to {}",
+						node, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Publishes from a generic thread, so it can be called while indexing.
+	 * Writes which arrive before the scheduled publish is sent (like the items
+	 * of a bulk request) are covered by it and publish only once.
+	 */
+	public void publishLater() {
+
+		if (!pending.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			threadPool.generic().execute(new Runnable() {
+
+				@Override
+				public void run() {
+					// later writes need another publish
+					pending.set(false);
+					publish();
+				}
+			});
+		} catch (final RuntimeException e) {
+			pending.set(false);
+			log.warn("Unable to schedule security configuration publish, will be picked up by the periodic refresh due to {}",
+					e.toString());
+		}
+	}
+
+	/**
+	 * @return number of changes published by this node
+	 */
+	public long getPublishedCount() {
+		return published.count();
+	}
+
+	/**
+	 * @return number of change notifications this node has applied
+	 */
+	public long getReceivedCount() {
+		return received.count();
+	}
+
+	/**
+	 * @return number of notifications this node failed to deliver
+	 */
+	public long getFailedCount() {
+		return failed.count();
+	}
+
+	/**
+	 * Propagation latency is measured against the clock of the publishing
+	 * node, so it includes the clock skew between the nodes.
+	 */
+	public double getMeanPropagationMillis() {
+		return propagation.mean();
+	}
+
+	public long getMaxPropagationMillis() {
+		return maxPropagation.get();
+	}
+
+	public long getLastPropagationMillis() {
+		return lastPropagation;
+	}
+
+	private void recordPropagation(final long publishedAt) {
+		final long latency = Math.max(0,
+				System.currentTimeMillis() - publishedAt);
+
+		propagation.inc(latency);
+		lastPropagation = latency;
+
+		long max;
+		while ((max = maxPropagation.get()) < latency
+				&& !maxPropagation.compareAndSet(max, latency)) {
+			// retry
+		}
+	}
+
+	private class ConfigurationChangedHandler extends
+	BaseTransportRequestHandler<ConfigurationChangedRequest> {
+
+		@Override
+		public ConfigurationChangedRequest newInstance() {
+			return new ConfigurationChangedRequest();
+		}
+
+		@Override
+		public void messageReceived(final ConfigurationChangedRequest request,
+				final TransportChannel channel) throws Exception {
+
+			log.debug("Security configuration change published by {}",
+					request.sourceNodeId);
+
+			securityService.reloadConfiguration();
+
+			received.inc();
+			recordPropagation(request.timestamp);
+
+			channel.sendResponse(TransportResponse.Empty.INSTANCE);
+		}
+
+		@Override
+		public String executor() {
+			// reloading does blocking GETs
+			return ThreadPool.Names.GENERIC;
+		}
+	}
+
+	static class ConfigurationChangedRequest extends TransportRequest {
+
+		private String sourceNodeId;
+
+		private long timestamp;
+
+		ConfigurationChangedRequest() {
+			super();
+		}
+
+		ConfigurationChangedRequest(final String sourceNodeId,
+				final long timestamp) {
+			super();
+			this.sourceNodeId = sourceNodeId;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public void readFrom(final StreamInput in) throws IOException {
+			super.readFrom(in);
+			sourceNodeId = in.readString();
+			timestamp = in.readLong();
+		}
+
+		@Override
+		public void writeTo(final StreamOutput out) throws IOException {
+			super.writeTo(out);
+			out.writeString(sourceNodeId);
+			out.writeLong(timestamp);
+		}
+	}
+
+}
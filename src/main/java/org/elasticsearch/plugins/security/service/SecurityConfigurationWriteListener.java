@@ -0,0 +1,86 @@
+package org.elasticsearch.plugins.security.service;
+
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.indexing.IndexingOperationListener;
+import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.indices.IndicesLifecycle;
+
+/**
+ * Detects writes to the security configuration index where they happen, on
+ * the primary shard, and lets the {@link SecurityConfigurationPublisher}
+ * notify all nodes.
+ * <p>
+ * Every write path ends there: single document and bulk requests, updates,
+ * deletes and delete by query, over any http transport or the transport
+ * client. Replicas and other indices are ignored.
+ */
+public class SecurityConfigurationWriteListener extends
+IndicesLifecycle.Listener {
+
+	private static final ESLogger log = Loggers
+			.getLogger(SecurityConfigurationWriteListener.class);
+
+	private final String index;
+
+	private final SecurityConfigurationPublisher publisher;
+
+	public SecurityConfigurationWriteListener(final String index,
+			final SecurityConfigurationPublisher publisher) {
+		super();
+		this.index = index;
+		this.publisher = publisher;
+	}
+
+	@Override
+	public void afterIndexShardCreated(final IndexShard indexShard) {
+
+		if (index.equals(indexShard.shardId().getIndex())) {
+			log.debug("Watching {} for security configuration changes",
+					indexShard.shardId());
+			indexShard.indexingService().addListener(
+					new ShardListener(indexShard));
+		}
+	}
+
+	private class ShardListener extends IndexingOperationListener {
+
+		private final IndexShard indexShard;
+
+		private ShardListener(final IndexShard indexShard) {
+			super();
+			this.indexShard = indexShard;
+		}
+
+		@Override
+		public void postCreate(final Engine.Create create) {
+			changed();
+		}
+
+		@Override
+		public void postIndex(final Engine.Index index) {
+			changed();
+		}
+
+		@Override
+		public void postDelete(final Engine.Delete delete) {
+			changed();
+		}
+
+		@Override
+		public void postDeleteByQuery(final Engine.DeleteByQuery deleteByQuery) {
+			changed();
+		}
+
+		private void changed() {
+			final ShardRouting routing = indexShard.routingEntry();
+
+			if (routing != null && routing.primary()) {
+				publisher.publishLater();
+			}
+		}
+	}
+
+}
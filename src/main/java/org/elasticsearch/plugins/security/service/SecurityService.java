@@ -2,17 +2,21 @@ package org.elasticsearch.plugins.security.service;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
 
 
@@ -22,19 +26,46 @@ import net.minidev.json.JSONObject;
 
 
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
 import org.elasticsearch.plugins.security.filter.ActionPathFilter;
+import org.elasticsearch.plugins.security.filter.PermDlsEvaluator;
+import org.elasticsearch.plugins.security.filter.PermLevel;
+import org.elasticsearch.plugins.security.filter.PermLevelEvaluator;
+import org.elasticsearch.http.netty.NettyHttpRequest;
+import org.elasticsearch.plugins.security.http.netty.NettyUserRoleCallback;
+import org.elasticsearch.plugins.security.http.tomcat.ConnectionTracker;
+import org.elasticsearch.plugins.security.http.tomcat.HttpRequestStats;
+import org.elasticsearch.plugins.security.http.tomcat.ResponseCompression;
+import org.elasticsearch.plugins.security.http.tomcat.SslSessionStats;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
+import org.elasticsearch.plugins.security.http.tomcat.TomcatUserRoleCallback;
 import org.elasticsearch.plugins.security.service.permission.DlsPermission;
+import org.elasticsearch.plugins.security.service.permission.DlsPermissionExtractor;
+import org.elasticsearch.plugins.security.service.SecurityConfigurationCache.CachedConfiguration;
+import org.elasticsearch.plugins.security.service.permission.DecisionTrace;
+import org.elasticsearch.plugins.security.service.permission.PermEvaluator;
+import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
+import org.elasticsearch.plugins.security.rest.RestSecurityRefreshAction;
+import org.elasticsearch.plugins.security.rest.RestSecurityStatsAction;
+import org.elasticsearch.plugins.security.util.SecurityUtil;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
 
 import com.jayway.jsonpath.JsonPath;
 
@@ -46,23 +77,108 @@ AbstractLifecycleComponent<SecurityService> {
 	}
 
 	private final static String DEFAULT_SECURITY_CONFIG_INDEX = "securityconfiguration";
+
+	// requests from transports which don't know the user
+	private final static UserRoleCallback ANONYMOUS = new UserRoleCallback() {
+
+		@Override
+		public String getRemoteuser() {
+			return null;
+		}
+
+		@Override
+		public boolean isRemoteUserInRole(final String role) {
+			return false;
+		}
+	};
 	private final String securityConfigurationIndex;
 	private final RestController restController;
 	private final Client client;
 	private final Settings settings;
 	private final boolean strictModeEnabled;
+	private final ThreadPool threadPool;
+	private final SecurityConfigurationCache configurationCache;
+	private final TimeValue configurationRefreshInterval;
+	private volatile ScheduledFuture<?> configurationRefresher;
+	// null if push notifications are disabled
+	private final SecurityConfigurationPublisher configurationPublisher;
+	private final IndicesLifecycle indicesLifecycle;
+	// null if push notifications are disabled
+	private final SecurityConfigurationWriteListener configurationWriteListener;
+	// null if disabled
+	private final AuthorizationDecisionCache decisionCache;
+	// null until the tomcat transport is created
+	private volatile ConnectionTracker connectionTracker;
+	private volatile SslSessionStats sslSessionStats;
+	private volatile ResponseCompression responseCompression;
+	private final HttpRequestStats requestStats = new HttpRequestStats();
+	private final DnsCache dnsCache;
+	// null if no forwarded header is configured
+	private final TrustedProxies trustedProxies;
+	// null if decision traces are disabled
+	private final String traceHeader;
+	// compiled evaluators, keyed by evaluator kind, type and id
+	private final ConcurrentMap<String, CompiledEvaluator> evaluators = new ConcurrentHashMap<String, CompiledEvaluator>();
 
 	@Inject
 	public SecurityService(final Settings settings, final Client client,
-			final RestController restController) {
+			final RestController restController, final ThreadPool threadPool,
+			final ClusterService clusterService,
+			final TransportService transportService,
+			final IndicesLifecycle indicesLifecycle) {
 		super(settings);
 
 		this.settings = settings;
 		this.restController = restController;
 		this.client = client;
+		this.threadPool = threadPool;
+		this.indicesLifecycle = indicesLifecycle;
 		securityConfigurationIndex = settings.get(
 				"security.configuration.index", DEFAULT_SECURITY_CONFIG_INDEX);
 
+		configurationCache = new SecurityConfigurationCache(client,
+				securityConfigurationIndex);
+		configurationRefreshInterval = settings.getAsTime(
+				"security.configuration.cache.refresh_interval",
+				TimeValue.timeValueSeconds(5));
+
+		if (settings.getAsBoolean("security.configuration.push.enabled", true)) {
+			configurationPublisher = new SecurityConfigurationPublisher(this,
+					clusterService, transportService, threadPool,
+					settings.getAsTime("security.configuration.push.timeout",
+							TimeValue.timeValueSeconds(10)));
+			configurationWriteListener = new SecurityConfigurationWriteListener(
+					securityConfigurationIndex, configurationPublisher);
+		} else {
+			configurationPublisher = null;
+			configurationWriteListener = null;
+		}
+
+		if (settings.getAsBoolean("security.authorization.cache.enabled", true)) {
+			decisionCache = new AuthorizationDecisionCache(settings.getAsLong(
+					"security.authorization.cache.max_size", 10000L),
+					settings.getAsTime("security.authorization.cache.ttl",
+							TimeValue.timeValueSeconds(60)));
+		} else {
+			decisionCache = null;
+		}
+
+		dnsCache = new DnsCache(settings.getAsLong(
+				"security.dns.cache.max_size", 10000L), settings.getAsTime(
+				"security.dns.cache.ttl", TimeValue.timeValueMinutes(5)),
+				settings.getAsTime("security.dns.cache.negative_ttl",
+						TimeValue.timeValueSeconds(30)), settings.getAsTime(
+						"security.dns.timeout", TimeValue.timeValueSeconds(1)),
+				settings.getAsInt("security.dns.threads", 4),
+				EsExecutors.daemonThreadFactory(settings, "security_dns"));
+
+		trustedProxies = TrustedProxies.fromSettings(settings);
+
+		traceHeader = settings.getAsBoolean(
+				"security.authorization.trace.enabled", false) ? settings.get(
+				"security.authorization.trace.header", "X-Security-Trace")
+				: null;
+
 		strictModeEnabled = settings.getAsBoolean(
 				"security.strict", false);
 
@@ -72,6 +188,22 @@ AbstractLifecycleComponent<SecurityService> {
 		return strictModeEnabled;
 	}
 
+	/**
+	 * A single request can ask for a trace of its authorization decision by
+	 * sending the security.authorization.trace.header (X-Security-Trace by
+	 * default), if security.authorization.trace.enabled is set.
+	 *
+	 * @return a new trace if the request asks for one, else null
+	 */
+	public DecisionTrace getDecisionTrace(final RestRequest request) {
+
+		if (traceHeader == null || request.header(traceHeader) == null) {
+			return null;
+		}
+
+		return new DecisionTrace();
+	}
+
 	public Client getClient() {
 		return client;
 	}
@@ -89,6 +221,22 @@ AbstractLifecycleComponent<SecurityService> {
 			restController.registerFilter(new ActionPathFilter(this));
 		}
 
+		if (configurationPublisher != null) {
+			configurationPublisher.start();
+			// before the shards of the configuration index are created
+			indicesLifecycle.addListener(configurationWriteListener);
+		}
+
+		restController.registerHandler(Method.GET, "/_security/_stats",
+				new RestSecurityStatsAction(this));
+		restController.registerHandler(Method.POST, "/_security/_refresh",
+				new RestSecurityRefreshAction(this));
+
+		if (configurationRefreshInterval.millis() > 0) {
+			configurationRefresher = threadPool.scheduleWithFixedDelay(
+					new ConfigurationRefresher(), configurationRefreshInterval);
+		}
+
 		// this.restController
 		// .registerFilter(new FieldLevelPermissionFilter(this));
 		// this.restController.registerFilter(new FieldResponseFilter(this));
@@ -106,118 +254,320 @@ AbstractLifecycleComponent<SecurityService> {
 	protected void doStop() throws ElasticsearchException {
 
 		logger.debug("doStop");
+
+		if (configurationRefresher != null) {
+			configurationRefresher.cancel(false);
+			configurationRefresher = null;
+		}
+
+		if (configurationPublisher != null) {
+			indicesLifecycle.removeListener(configurationWriteListener);
+			configurationPublisher.stop();
+		}
 	}
 
 	@Override
 	protected void doClose() throws ElasticsearchException {
 		logger.debug("doClose");
+		dnsCache.close();
 
 	}
 
 	public String getXContentSecurityConfiguration(final String type,
 			final String id) throws IOException,
 			MalformedConfigurationException {
-		try {
-			return XContentHelper.convertToJson(
-					getXContentSecurityConfigurationAsBR(type, id), true);
-		} catch (final IOException e) {
-			logger.error("Unable to load type {} and id {} due to {}",
-					type, id, e);
-			return null;
-		}
+		// null if the document could not be converted to json
+		return configurationCache.get(type, id).getJson();
 	}
 
 	public BytesReference getXContentSecurityConfigurationAsBR(
 			final String type, final String id)
 					throws MalformedConfigurationException {
-		final GetResponse resp = client
-				.prepareGet(securityConfigurationIndex, type, id)
-				.setRefresh(true).setOperationThreaded(false).get();
+		return configurationCache.get(type, id).getSource();
+	}
 
-		if (resp.isExists()) {
-			return resp.getSourceAsBytesRef();
-		} else {
-			throw new MalformedConfigurationException("document type " + type
-					+ " with id " + id + " does not exists");
+	public SecurityConfigurationCache getConfigurationCache() {
+		return configurationCache;
+	}
+
+	/**
+	 * @return the publisher or null if push notifications are disabled
+	 */
+	public SecurityConfigurationPublisher getConfigurationPublisher() {
+		return configurationPublisher;
+	}
+
+	/**
+	 * Drops the cached security configuration, it will be reloaded from the
+	 * index on next access
+	 */
+	public void invalidateConfiguration() {
+		configurationCache.invalidateAll();
+
+		if (decisionCache != null) {
+			decisionCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * @return the decision cache or null if it is disabled
+	 */
+	public AuthorizationDecisionCache getDecisionCache() {
+		return decisionCache;
+	}
+
+	/**
+	 * Tells all nodes to reload the security configuration. Writes to the
+	 * security configuration index are published automatically. Without push
+	 * notifications the change is picked up by the periodic refresh.
+	 */
+	public void publishConfigurationChange() {
+		if (configurationPublisher != null) {
+			configurationPublisher.publish();
+		}
+	}
+
+	/**
+	 * Revalidates the cached configuration and, if anything changed,
+	 * recompiles the evaluators in use before swapping them in. Blocks until
+	 * done, so it must not be called on a network thread.
+	 *
+	 * @return true if the configuration has changed
+	 */
+	public boolean reloadConfiguration() {
+
+		if (!configurationCache.refresh()) {
+			return false;
+		}
+
+		// entries for the old versions can't be hit anymore
+		if (decisionCache != null) {
+			decisionCache.invalidateAll();
+		}
+
+		for (final String key : evaluators.keySet()) {
+
+			// kind/type/id
+			final String[] parts = key.split("/", 3);
+
+			try {
+				if ("dls".equals(parts[0])) {
+					getPermDlsEvaluator(parts[1], parts[2]);
+				} else {
+					getPermLevelEvaluator(parts[1], parts[2]);
+				}
+			} catch (final Exception e) {
+				// the error is raised again for the next request
+				evaluators.remove(key);
+				logger.warn("Unable to compile security configuration {} due to {}",
+						key, e.toString());
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns an evaluator for the given configuration document. The evaluator
+	 * is reused (and its rules are compiled only once) as long as the
+	 * configuration does not change.
+	 */
+	public PermLevelEvaluator getPermLevelEvaluator(final String type,
+			final String id) throws IOException,
+			MalformedConfigurationException {
+		return getPermLevelEvaluator(configurationCache.get(type, id));
+	}
+
+	/**
+	 * Evaluates the perm level of a request against the given configuration
+	 * document. Decisions are cached per configuration version, so repeated
+	 * requests do not touch the evaluator at all.
+	 */
+	public PermLevel evaluatePermLevel(final String type, final String id,
+			final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final UserRoleCallback callback)
+					throws IOException, MalformedConfigurationException {
+		return evaluatePermLevel(type, id, indices, types, hostAddress,
+				callback, null);
+	}
+
+	/**
+	 * Same as
+	 * {@link #evaluatePermLevel(String, String, List, List, InetAddress, UserRoleCallback)}
+	 * but records the decision if a trace is given. Traced decisions are
+	 * always evaluated, never taken from the cache.
+	 *
+	 * @param trace
+	 *            see {@link #getDecisionTrace(RestRequest)}, may be null
+	 */
+	public PermLevel evaluatePermLevel(final String type, final String id,
+			final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final UserRoleCallback callback,
+			final DecisionTrace trace) throws IOException,
+			MalformedConfigurationException {
+
+		final CachedConfiguration configuration = configurationCache.get(type,
+				id);
+		final PermLevelEvaluator evaluator = getPermLevelEvaluator(configuration);
+
+		if (trace != null) {
+			return evaluator.getRuleSet().evaluate(indices, types, hostAddress,
+					callback, trace);
+		}
+
+		if (decisionCache == null) {
+			return evaluator.evaluatePerm(indices, types, hostAddress, callback);
+		}
+
+		return decisionCache.evaluate(type + "/" + id,
+				configuration.getVersion(), evaluator.getRuleSet(), indices,
+				types, hostAddress, callback);
+	}
+
+	private PermLevelEvaluator getPermLevelEvaluator(
+			final CachedConfiguration configuration)
+					throws MalformedConfigurationException {
+		final String key = "permlevel/" + configuration.getType() + "/"
+				+ configuration.getId();
+
+		final PermEvaluator<?> cached = lookupEvaluator(key, configuration);
+
+		if (cached instanceof PermLevelEvaluator) {
+			return (PermLevelEvaluator) cached;
+		}
+
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(
+				configuration.getJson(), dnsCache);
+		// compile before it becomes visible to other requests
+		evaluator.getRuleSet();
+		evaluators.put(key, new CompiledEvaluator(configuration, evaluator));
+		return evaluator;
+	}
+
+	/**
+	 * @see #getPermLevelEvaluator(String, String)
+	 */
+	public PermDlsEvaluator getPermDlsEvaluator(final String type,
+			final String id) throws IOException,
+			MalformedConfigurationException {
+		final CachedConfiguration configuration = configurationCache.get(type,
+				id);
+		final String key = "dls/" + type + "/" + id;
+
+		final PermEvaluator<?> cached = lookupEvaluator(key, configuration);
+
+		if (cached instanceof PermDlsEvaluator) {
+			return (PermDlsEvaluator) cached;
+		}
+
+		final PermDlsEvaluator evaluator = new PermDlsEvaluator(
+				configuration.getJson(), dnsCache);
+		evaluator.getRuleSet();
+		evaluators.put(key, new CompiledEvaluator(configuration, evaluator));
+		return evaluator;
+	}
+
+	/**
+	 * @return the evaluator compiled from exactly this cached document, null
+	 *         if the document was reloaded (or invalidated) since
+	 */
+	private PermEvaluator<?> lookupEvaluator(final String key,
+			final CachedConfiguration configuration) {
+		final CompiledEvaluator cached = evaluators.get(key);
+
+		// the cache replaces a document only when it is reloaded, comparing
+		// the snapshots is cheaper than comparing their content
+		if (cached != null && cached.configuration == configuration) {
+			return cached.evaluator;
 		}
+
+		return null;
 	}
 
 	public String getSecurityConfigurationIndex() {
 		return securityConfigurationIndex;
 	}
 
-	public InetAddress getHostAddressFromRequest(final RestRequest request)
-			throws UnknownHostException {
-
-		// this.logger.debug(request.getClass().toString());
+	/**
+	 * @return the user and roles of the request as determined by the http
+	 *         transport which received it
+	 */
+	public UserRoleCallback getUserRoleCallback(final RestRequest request) {
 
-		final String oaddr = ((TomcatHttpServerRestRequest) request).remoteAddr();
-		// this.logger.debug("original hostname: " + addr);
+		final String sslUserAttribute = settings
+				.get("security.ssl.userattribute");
 
-		String raddr = oaddr;
+		if (request instanceof TomcatHttpServerRestRequest) {
+			return new TomcatUserRoleCallback(
+					((TomcatHttpServerRestRequest) request)
+					.getHttpServletRequest(), sslUserAttribute);
+		}
 
-		if (oaddr == null || oaddr.isEmpty()) {
-			throw new UnknownHostException("Original host is <null> or <empty>");
+		if (request instanceof NettyHttpRequest) {
+			return new NettyUserRoleCallback(
+					((NettyHttpRequest) request).getChannel(), sslUserAttribute);
 		}
 
-		final InetAddress iaddr = InetAddress.getByName(oaddr);
+		return ANONYMOUS;
+	}
 
-		// security.http.xforwardfor.header
-		// security.http.xforwardfor.trustedproxies
-		// security.http.xforwardfor.enforce
-		final String xForwardedForHeader = settings
-				.get("security.http.xforwardedfor.header");
+	/**
+	 * @return the values of all fields with the name, a proxy may append its
+	 *         hop as a field of its own instead of extending the last one
+	 */
+	private static List<String> getHeaderValues(final RestRequest request,
+			final String name) {
 
-		if (xForwardedForHeader != null && !xForwardedForHeader.isEmpty()) {
+		if (request instanceof TomcatHttpServerRestRequest) {
+			return ((TomcatHttpServerRestRequest) request).headerValues(name);
+		}
 
-			final String xForwardedForValue = request
-					.header(xForwardedForHeader);
+		if (request instanceof NettyHttpRequest) {
+			return ((NettyHttpRequest) request).request().headers()
+					.getAll(name);
+		}
 
-			logger.debug("xForwardedForHeader is " + xForwardedForHeader
-					+ ":" + xForwardedForValue);
+		final String value = request.header(name);
+		return value == null ? Collections.<String> emptyList() : Collections
+				.singletonList(value);
+	}
 
-			final String xForwardedTrustedProxiesS = settings
-					.get("security.http.xforwardedfor.trustedproxies");
-			// TODO use yaml list
-			final String[] xForwardedTrustedProxies = xForwardedTrustedProxiesS == null ? new String[0]
-					: xForwardedTrustedProxiesS.replace(" ", "").split(",");
+	public InetAddress getHostAddressFromRequest(final RestRequest request)
+			throws UnknownHostException {
 
-			final boolean xForwardedEnforce = settings.getAsBoolean(
-					"security.http.xforwardedfor.enforce", false);
+		// this.logger.debug(request.getClass().toString());
 
-			if (xForwardedForValue != null && !xForwardedForValue.isEmpty()) {
-				final List<String> addresses = Arrays.asList(xForwardedForValue
-						.replace(" ", "").split(","));
-				final List<String> proxiesPassed = new ArrayList<String>(
-						addresses.subList(1, addresses.size()));
+		final String oaddr;
 
-				if (xForwardedTrustedProxies.length == 0) {
-					throw new UnknownHostException("No trusted proxies");
-				}
+		if (request instanceof TomcatHttpServerRestRequest) {
+			oaddr = ((TomcatHttpServerRestRequest) request).remoteAddr();
+		} else if (request.getRemoteAddress() instanceof InetSocketAddress) {
+			oaddr = ((InetSocketAddress) request.getRemoteAddress())
+					.getAddress().getHostAddress();
+		} else {
+			oaddr = null;
+		}
 
-				proxiesPassed
-				.removeAll(Arrays.asList(xForwardedTrustedProxies));
+		// this.logger.debug("original hostname: " + addr);
 
-				logger.debug(proxiesPassed.size() + "/" + proxiesPassed);
+		String raddr = oaddr;
 
-				if (proxiesPassed.size() == 0
-						&& (Arrays.asList(xForwardedTrustedProxies).contains(
-								oaddr) || iaddr.isLoopbackAddress())) {
+		if (oaddr == null || oaddr.isEmpty()) {
+			throw new UnknownHostException("Original host is <null> or <empty>");
+		}
 
-					raddr = addresses.get(0).trim();
+		final InetAddress iaddr = dnsCache.getByName(oaddr);
 
-				} else {
-					throw new UnknownHostException(
-							"Not all proxies are trusted");
-				}
+		if (trustedProxies != null) {
+			final String xForwardedForValue = TrustedProxies
+					.join(getHeaderValues(request, trustedProxies.getHeader()));
 
-			} else {
-				if (xForwardedEnforce) {
-					throw new UnknownHostException(
-							"Forward header enforced but not present");
-				}
+			if (logger.isDebugEnabled()) {
+				logger.debug("xForwardedForHeader is "
+						+ trustedProxies.getHeader() + ":" + xForwardedForValue);
 			}
 
+			raddr = trustedProxies.getClientAddress(xForwardedForValue, iaddr);
 		}
 
 		if (raddr == null || raddr.isEmpty()) {
@@ -227,72 +577,218 @@ AbstractLifecycleComponent<SecurityService> {
 		if(raddr.equals(oaddr)) {
 			return iaddr;
 		} else {
-			// if null or "" then loopback is returned
-			return InetAddress.getByName(raddr);
+			return dnsCache.getByName(raddr);
 		}
 
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Collects the dls permissions of all hits of a search response (or of a
+	 * single document) in one streaming pass. If there are none the
+	 * permissions from the dlspermissions/default configuration apply.
+	 */
 	public List<DlsPermission> parseDlsPermissions(final BytesReference br)
 			throws IOException, MalformedConfigurationException {
 
-		final List<DlsPermission> perms = new ArrayList<DlsPermission>();
+		DlsPermissionExtractor extractor = extractDlsPermissions(br);
 
-		final List<JSONObject> dlsPermissions = new ArrayList<JSONObject>();
-
-		String json = XContentHelper.convertToJson(br, false);
-
-		if (json.contains("\"hits\":{\"total\":0,\"max_score\":null")) {
-			// no hits
+		if (extractor.isNoHits()) {
 			logger.debug("No hits, return ALL permissions");
+			final List<DlsPermission> perms = new ArrayList<DlsPermission>();
 			perms.add(DlsPermission.ALL_PERMISSION);
 			return perms;
 		}
 
-		if (!json.contains("dlspermissions")) {
-			json = XContentHelper.convertToJson(getXContentSecurityConfigurationAsBR("dlspermissions",
-					"default"), false);
+		if (!extractor.isFound()) {
+			extractor = extractDlsPermissions(getXContentSecurityConfigurationAsBR(
+					"dlspermissions", "default"));
 		}
 
-		if (json.contains("_source")) {
-			dlsPermissions.addAll((List<JSONObject>) JsonPath.read(json,
-					"$.hits.hits[*]._source.dlspermissions"));
-		} else {
-			dlsPermissions.add((JSONObject) JsonPath.read(json,
-					"$.dlspermissions"));
-		}
+		return extractor.getPermissions();
 
-		for (final JSONObject dlsPermission : dlsPermissions) {
+	}
 
-			if (dlsPermission == null) {
-				continue;
+	/**
+	 * @return the paths of a response which the user is allowed to read, or
+	 *         null if the response is returned unmodified
+	 */
+	public String[] getDlsIncludes(final RestRequest restRequest,
+			final RestResponse xres, final UserRoleCallback callback)
+			throws IOException, MalformedConfigurationException {
+
+
+		final List<String> indices = SecurityUtil.getIndices(restRequest);
+		
+		logger.debug("applyDLS() for indices {}", indices);
+		
+		if (indices.contains(getSecurityConfigurationIndex())) {
+
+			if (getHostAddressFromRequest(restRequest)
+					.isLoopbackAddress()) {
+				
+				logger.debug("applyDLS() return unmodified content because of loopback address");
+				return null;
+						
+			} else {
+				throw new IOException("Only allowed from localhost (loopback)");
 			}
 
-			for (final String field : dlsPermission.keySet()) {
+		}
+		
+		if(xres.content() == null || xres.content().length() == 0) {
+			logger.debug("applyDLS() return unmodified content because of content is null or of zero length");
+			return null;
+		}
 
-				final DlsPermission dlsPerm = new DlsPermission();
-				dlsPerm.setField(field);
+		if (xres.status().getStatus() < 200
+				|| xres.status().getStatus() >= 300) {
 
-				JSONArray ja = (JSONArray) ((JSONObject) dlsPermission
-						.get(field)).get("read");
-				dlsPerm.addReadTokens(ja.toArray(new String[0]));
+			logger.debug("applyDLS() return unmodified content because of status {}", xres.status().getStatus());
+			return null;
+		}
 
-				ja = (JSONArray) ((JSONObject) dlsPermission.get(field))
-						.get("update");
-				dlsPerm.addUpdateTokens(ja.toArray(new String[0]));
+		if ( !restRequest.path().contains("_search")
+				&& !restRequest.path().contains("_msearch")
+				&& !restRequest.path().contains("_mlt")
+				&& !restRequest.path().contains("_suggest")
+				&& restRequest.method() != Method.GET) {
+					
+			logger.debug("applyDLS() return unmodified content because of path (no search): {} {}", restRequest.method(), restRequest.path());
+			return null;
+		}
 
-				ja = (JSONArray) ((JSONObject) dlsPermission.get(field))
-						.get("delete");
-				dlsPerm.addDeleteTokens(ja.toArray(new String[0]));
+		final List<String> dlsTokens = getPermDlsEvaluator(
+						"dlspermissions", "dlspermissions").evaluatePerm(
+								SecurityUtil.getIndices(restRequest),
+								SecurityUtil.getTypes(restRequest),
+								getHostAddressFromRequest(restRequest),
+								callback);
+
+		logger.debug("dls tokens: {}", dlsTokens);
+
+		// this.logger.debug("orig json: " + xres.builder().string());
+
+		final List<DlsPermission> perms = parseDlsPermissions(xres.content());
+
+		// TODO check against the tokens
+
+		final List<String> fields = new ArrayList<String>();
+		fields.add("_shards*");
+		fields.add("took");
+		fields.add("timed_out");
+		fields.add("hits.total");
+		fields.add("hits.max_score");
+		fields.add("hits.hits._index");
+		fields.add("hits.hits._type");
+		fields.add("hits.hits._id");
+		fields.add("hits.hits._score");
+		
+		//GET
+		fields.add("_index");
+		fields.add("_type");
+		fields.add("_version");
+		fields.add("_id");
+		fields.add("found");
+		
+		
+		if(!isStrictModeEnabled()){
+			fields.add("facets"); 
+			fields.add("suggest");
+		}
+		
 
-				perms.add(dlsPerm);
-			}
+		logger.debug("perms {}", perms);
 
+		for (final String field : getDlsReadableFields(perms, dlsTokens)) {
+			fields.add("hits.hits._source." + field);
+			fields.add("_source." + field);
 		}
 
-		return perms;
+		logger.debug("fields {}", fields);
+
+		return fields.toArray(new String[fields.size()]);
+
+	}
 
+	/**
+	 * @return the fields of the permissions which allow one of the tokens to
+	 *         read
+	 */
+	public List<String> getDlsReadableFields(final List<DlsPermission> perms,
+			final List<String> dlsTokens) {
+		return DlsPermission.getReadableFields(perms, dlsTokens);
+	}
+
+	/**
+	 * @return the fields of the permissions which allow one of the tokens to
+	 *         update
+	 */
+	public List<String> getDlsUpdatableFields(
+			final List<DlsPermission> perms, final List<String> dlsTokens) {
+		return DlsPermission.getUpdatableFields(perms, dlsTokens);
+	}
+
+	/**
+	 * @return the connection statistics of the tomcat transport or null if
+	 *         it is not used
+	 */
+	public ConnectionTracker getConnectionTracker() {
+		return connectionTracker;
+	}
+
+	public void setConnectionTracker(final ConnectionTracker connectionTracker) {
+		this.connectionTracker = connectionTracker;
+	}
+
+	/**
+	 * @return the TLS handshake statistics of the http transport or null if
+	 *         SSL is disabled
+	 */
+	public SslSessionStats getSslSessionStats() {
+		return sslSessionStats;
+	}
+
+	public void setSslSessionStats(final SslSessionStats sslSessionStats) {
+		this.sslSessionStats = sslSessionStats;
+	}
+
+	/**
+	 * @return the response compression of the tomcat transport or null if
+	 *         compression is disabled
+	 */
+	public ResponseCompression getResponseCompression() {
+		return responseCompression;
+	}
+
+	public void setResponseCompression(
+			final ResponseCompression responseCompression) {
+		this.responseCompression = responseCompression;
+	}
+
+	/**
+	 * @return the statistics of the responses sent by the tomcat transport
+	 */
+	public HttpRequestStats getRequestStats() {
+		return requestStats;
+	}
+
+	/**
+	 * @return the cache of the dns lookups for host rules
+	 */
+	public DnsCache getDnsCache() {
+		return dnsCache;
+	}
+
+	private static DlsPermissionExtractor extractDlsPermissions(
+			final BytesReference br) throws IOException {
+		final XContentParser parser = XContentFactory.xContent(br)
+				.createParser(br);
+
+		try {
+			return DlsPermissionExtractor.extract(parser);
+		} finally {
+			parser.close();
+		}
 	}
 	
 	/**
@@ -375,4 +871,51 @@ AbstractLifecycleComponent<SecurityService> {
 	}	
 
 
+	/**
+	 * Periodically revalidates the cached configuration. The scheduler only
+	 * hands the work over to the generic pool and skips a run while the
+	 * previous one is still in progress.
+	 */
+	private class ConfigurationRefresher implements Runnable {
+
+		private final AtomicBoolean running = new AtomicBoolean();
+
+		@Override
+		public void run() {
+			if (!running.compareAndSet(false, true)) {
+				return;
+			}
+
+			try {
+				threadPool.generic().execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							reloadConfiguration();
+						} finally {
+							running.set(false);
+						}
+					}
+				});
+			} catch (final RuntimeException e) {
+				running.set(false);
+				logger.warn("Unable to schedule security configuration refresh", e);
+			}
+		}
+	}
+
+	private static final class CompiledEvaluator {
+
+		private final CachedConfiguration configuration;
+
+		private final PermEvaluator<?> evaluator;
+
+		private CompiledEvaluator(final CachedConfiguration configuration,
+				final PermEvaluator<?> evaluator) {
+			this.configuration = configuration;
+			this.evaluator = evaluator;
+		}
+	}
+
 }
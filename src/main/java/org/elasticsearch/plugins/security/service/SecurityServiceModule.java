@@ -0,0 +1,15 @@
+package org.elasticsearch.plugins.security.service;
+
+import org.elasticsearch.common.inject.AbstractModule;
+
+/**
+ * Binds the {@link SecurityService} as a singleton, so the instance the node
+ * starts is the one injected into the http transports
+ */
+public class SecurityServiceModule extends AbstractModule {
+	@Override
+	protected void configure() {
+		this.bind(SecurityService.class).asEagerSingleton();
+	}
+
+}
@@ -0,0 +1,225 @@
+package org.elasticsearch.plugins.security.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.common.net.InetAddresses;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugins.security.service.permission.InetAddressTree;
+
+/**
+ * The X-Forwarded-For (or RFC 7239 Forwarded) configuration, compiled once
+ * from the security.http.xforwardedfor.* settings.
+ * <p>
+ * Trusted proxies are addresses, CIDR blocks or ranges (looked up in an
+ * {@link InetAddressTree}) or names (compared literally). The header is
+ * walked from the right, the hop closest to us first: the connecting peer
+ * and every hop but the leftmost must be trusted proxies, the leftmost is
+ * the client. Walking stops at the first untrusted hop. A header sent in
+ * several fields is one list, the fields joined in the order received.
+ */
+public class TrustedProxies {
+
+	private static final String FORWARDED = "Forwarded";
+
+	private final String header;
+
+	// true for the RFC 7239 syntax
+	private final boolean forwarded;
+
+	private final boolean enforce;
+
+	private final InetAddressTree networks = new InetAddressTree();
+
+	private final Set<String> names = new HashSet<String>();
+
+	public TrustedProxies(final String header, final String[] proxies,
+			final boolean enforce) {
+		super();
+		this.header = header;
+		this.forwarded = FORWARDED.equalsIgnoreCase(header);
+		this.enforce = enforce;
+
+		for (final String proxy : proxies) {
+			final String trimmed = proxy.trim();
+
+			if (!trimmed.isEmpty() && !networks.add(trimmed, 0)) {
+				names.add(trimmed);
+			}
+		}
+	}
+
+	/**
+	 * @return null if no forwarded header is configured
+	 */
+	public static TrustedProxies fromSettings(final Settings settings) {
+		final String header = settings
+				.get("security.http.xforwardedfor.header");
+
+		if (header == null || header.isEmpty()) {
+			return null;
+		}
+
+		return new TrustedProxies(header, settings.getAsArray(
+				"security.http.xforwardedfor.trustedproxies", new String[0]),
+				settings.getAsBoolean("security.http.xforwardedfor.enforce",
+						false));
+	}
+
+	/**
+	 * @return the name of the header carrying the forwarded addresses
+	 */
+	public String getHeader() {
+		return header;
+	}
+
+	/**
+	 * @param values
+	 *            the values of all fields of the forwarded header in the order
+	 *            received
+	 * @return the values as one comma separated list, null if there are none
+	 */
+	public static String join(final List<String> values) {
+
+		if (values.size() == 1) {
+			return values.get(0);
+		}
+
+		final StringBuilder sb = new StringBuilder();
+
+		for (final String value : values) {
+			if (value != null && !value.trim().isEmpty()) {
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+
+				sb.append(value);
+			}
+		}
+
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	/**
+	 * @param value
+	 *            the value of the forwarded header, null if it is not
+	 *            present
+	 * @param peer
+	 *            the address of the connecting peer
+	 * @return the address of the client, the peer if the request was not
+	 *         forwarded
+	 * @throws UnknownHostException
+	 *             if the header is enforced but missing or a hop is not
+	 *             trusted
+	 */
+	public String getClientAddress(final String value, final InetAddress peer)
+			throws UnknownHostException {
+
+		if (value == null || value.isEmpty()) {
+			if (enforce) {
+				throw new UnknownHostException(
+						"Forward header enforced but not present");
+			}
+
+			return peer.getHostAddress();
+		}
+
+		if (networks.isEmpty() && names.isEmpty()) {
+			throw new UnknownHostException("No trusted proxies");
+		}
+
+		if (!peer.isLoopbackAddress() && !names.contains(peer.getHostAddress())
+				&& !networks.contains(peer)) {
+			throw new UnknownHostException("Not all proxies are trusted");
+		}
+
+		int end = value.length();
+
+		while (true) {
+			final int start = value.lastIndexOf(',', end - 1) + 1;
+			final String hop = forwarded ? forwardedFor(value, start, end)
+					: value.substring(start, end).trim();
+
+			if (start == 0) {
+				return hop;
+			}
+
+			if (!isTrusted(hop)) {
+				throw new UnknownHostException("Not all proxies are trusted");
+			}
+
+			end = start - 1;
+		}
+	}
+
+	private boolean isTrusted(final String hop) {
+
+		if (names.contains(hop)) {
+			return true;
+		}
+
+		if (networks.isEmpty() || !InetAddresses.isInetAddress(hop)) {
+			return false;
+		}
+
+		return networks.contains(InetAddresses.forString(hop));
+	}
+
+	/**
+	 * @return the node of the for parameter of the forwarded element between
+	 *         start and end, without quotes, brackets and port, or an empty
+	 *         string if there is none
+	 */
+	static String forwardedFor(final String value, final int start,
+			final int end) {
+		int pairStart = start;
+
+		while (pairStart < end) {
+			int pairEnd = value.indexOf(';', pairStart);
+
+			if (pairEnd < 0 || pairEnd > end) {
+				pairEnd = end;
+			}
+
+			while (pairStart < pairEnd
+					&& Character.isWhitespace(value.charAt(pairStart))) {
+				pairStart++;
+			}
+
+			if (value.regionMatches(true, pairStart, "for=", 0, 4)) {
+				return node(value.substring(pairStart + 4, pairEnd).trim());
+			}
+
+			pairStart = pairEnd + 1;
+		}
+
+		return "";
+	}
+
+	private static String node(String node) {
+
+		if (node.length() > 1 && node.charAt(0) == '"'
+				&& node.charAt(node.length() - 1) == '"') {
+			node = node.substring(1, node.length() - 1);
+		}
+
+		if (node.startsWith("[")) {
+			final int close = node.indexOf(']');
+			return close < 0 ? node : node.substring(1, close);
+		}
+
+		final int colon = node.indexOf(':');
+
+		// an IPv4 address or a name with a port, IPv6 addresses are in
+		// brackets
+		if (colon >= 0 && colon == node.lastIndexOf(':')) {
+			return node.substring(0, colon);
+		}
+
+		return node;
+	}
+
+}
@@ -0,0 +1,173 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records how a {@link PermRuleSet} reached a decision: the request as the
+ * rules saw it, every rule which was checked together with the first
+ * condition it failed, and the rule (or the default) which applied.
+ * <p>
+ * Only references are stored while rules are checked, nothing is formatted
+ * until {@link #toString()} is called. Evaluations without a trace record
+ * nothing at all. A trace belongs to a single evaluation and is not thread
+ * safe.
+ */
+public final class DecisionTrace {
+
+	/**
+	 * The condition of a rule which did not match the request, in the order
+	 * the conditions are checked
+	 */
+	public enum Mismatch {
+		USER, ROLE, HOST, TYPE, INDEX
+	}
+
+	private String remoteUser;
+
+	private String hostIp;
+
+	// null if the hostname was not needed
+	private String hostName;
+
+	private List<String> indices;
+
+	private List<String> types;
+
+	private int checked;
+
+	private int total;
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	// null if the default applied
+	private Perm<?> applied;
+
+	private Object permLevel;
+
+	void request(final String remoteUser, final String hostIp,
+			final List<String> indices, final List<String> types) {
+		this.remoteUser = remoteUser;
+		this.hostIp = hostIp;
+		this.indices = indices;
+		this.types = types;
+	}
+
+	void hostName(final String hostName) {
+		this.hostName = hostName;
+	}
+
+	void candidates(final int checked, final int total) {
+		this.checked = checked;
+		this.total = total;
+	}
+
+	void mismatch(final int rule, final Perm<?> perm, final Mismatch mismatch) {
+		steps.add(new Step(rule, perm, mismatch));
+	}
+
+	void match(final int rule, final Perm<?> perm) {
+		steps.add(new Step(rule, perm, null));
+		applied = perm;
+		permLevel = perm.permLevel;
+	}
+
+	void fallback(final Object defaultPermLevel) {
+		applied = null;
+		permLevel = defaultPermLevel;
+	}
+
+	/**
+	 * @return the checked rules in the order they were checked
+	 */
+	public List<Step> getSteps() {
+		return Collections.unmodifiableList(steps);
+	}
+
+	/**
+	 * @return the number of rules left to check after the index lookup
+	 */
+	public int getChecked() {
+		return checked;
+	}
+
+	public Object getPermLevel() {
+		return permLevel;
+	}
+
+	/**
+	 * @return true if no rule matched and the default perm level applied
+	 */
+	public boolean isDefaultApplied() {
+		return applied == null;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("user ").append(remoteUser).append(", host ").append(hostIp);
+
+		if (hostName != null) {
+			sb.append(" (").append(hostName).append(')');
+		}
+
+		sb.append(", indices ").append(indices).append(", types ")
+		.append(types).append(": checked ").append(checked).append(" of ")
+		.append(total).append(" rules");
+
+		for (final Step step : steps) {
+			sb.append("\n  ").append(step);
+		}
+
+		sb.append("\n  ");
+
+		if (applied == null) {
+			sb.append("no rule matched, default ");
+		} else {
+			sb.append("applied ");
+		}
+
+		return sb.append(permLevel).toString();
+	}
+
+	/**
+	 * A checked rule
+	 */
+	public static final class Step {
+
+		private final int rule;
+
+		private final Perm<?> perm;
+
+		private final Mismatch mismatch;
+
+		private Step(final int rule, final Perm<?> perm, final Mismatch mismatch) {
+			this.rule = rule;
+			this.perm = perm;
+			this.mismatch = mismatch;
+		}
+
+		/**
+		 * @return the position of the rule among the non-default rules
+		 */
+		public int getRule() {
+			return rule;
+		}
+
+		/**
+		 * @return the condition which did not match, null if the rule matched
+		 */
+		public Mismatch getMismatch() {
+			return mismatch;
+		}
+
+		@Override
+		public String toString() {
+			return "rule " + rule + " " + perm
+					+ (mismatch == null ? " matches" : " does not match ("
+							+ mismatch + ")");
+		}
+	}
+
+}
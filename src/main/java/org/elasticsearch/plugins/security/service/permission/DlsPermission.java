@@ -1,8 +1,9 @@
 package org.elasticsearch.plugins.security.service.permission;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class DlsPermission {
 
@@ -15,9 +16,10 @@ public class DlsPermission {
 		ALL_PERMISSION.setField("*");
 	}
 
-	private final List<String> readTokens = new ArrayList<String>();
-	private final List<String> updateTokens = new ArrayList<String>();
-	private final List<String> deleteTokens = new ArrayList<String>();
+	// hashed, so a check costs one lookup per user token
+	private final Set<String> readTokens = new LinkedHashSet<String>();
+	private final Set<String> updateTokens = new LinkedHashSet<String>();
+	private final Set<String> deleteTokens = new LinkedHashSet<String>();
 	private String field;
 
 	public void setField(final String field) {
@@ -106,32 +108,88 @@ public class DlsPermission {
 	}
 
 	public boolean isTokenAllowedToRead(final String token) {
-		return readTokens.contains(token) || readTokens.contains("*");
+		return isAllowed(readTokens, token);
 	}
 
 	public boolean isTokenAllowedToUpdate(final String token) {
-		return updateTokens.contains(token)
-				|| updateTokens.contains("*");
+		return isAllowed(updateTokens, token);
 	}
 
 	public boolean isTokenAllowedToDelete(final String token) {
-		return deleteTokens.contains(token)
-				|| deleteTokens.contains("*");
+		return isAllowed(deleteTokens, token);
 	}
 
 	public boolean isAnyTokenAllowedToDelete(final List<String> tokens) {
-		return !Collections.disjoint(deleteTokens, tokens)
-				|| deleteTokens.contains("*");
+		return isAnyAllowed(deleteTokens, tokens);
 	}
 
 	public boolean isAnyTokenAllowedToRead(final List<String> tokens) {
-		return !Collections.disjoint(readTokens, tokens)
-				|| readTokens.contains("*");
+		return isAnyAllowed(readTokens, tokens);
 	}
 
 	public boolean isAnyTokenAllowedToUpdate(final List<String> tokens) {
-		return !Collections.disjoint(updateTokens, tokens)
-				|| updateTokens.contains("*");
+		return isAnyAllowed(updateTokens, tokens);
+	}
+
+	private static boolean isAllowed(final Set<String> allowed,
+			final String token) {
+		return allowed.contains(token) || allowed.contains("*");
+	}
+
+	private static boolean isAnyAllowed(final Set<String> allowed,
+			final List<String> tokens) {
+
+		if (allowed.isEmpty()) {
+			return false;
+		}
+
+		if (allowed.contains("*")) {
+			return true;
+		}
+
+		for (int i = 0; i < tokens.size(); i++) {
+			if (allowed.contains(tokens.get(i))) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the fields of all permissions which allow one of the tokens to
+	 *         read, each once and in the order of the permissions
+	 */
+	public static List<String> getReadableFields(
+			final List<DlsPermission> perms, final List<String> tokens) {
+		final List<String> fields = new ArrayList<String>();
+
+		for (final DlsPermission p : perms) {
+			if (p.isAnyTokenAllowedToRead(tokens)
+					&& !fields.contains(p.getField())) {
+				fields.add(p.getField());
+			}
+		}
+
+		return fields;
+	}
+
+	/**
+	 * @return the fields of all permissions which allow one of the tokens to
+	 *         update, each once and in the order of the permissions
+	 */
+	public static List<String> getUpdatableFields(
+			final List<DlsPermission> perms, final List<String> tokens) {
+		final List<String> fields = new ArrayList<String>();
+
+		for (final DlsPermission p : perms) {
+			if (p.isAnyTokenAllowedToUpdate(tokens)
+					&& !fields.contains(p.getField())) {
+				fields.add(p.getField());
+			}
+		}
+
+		return fields;
 	}
 
 	public String getField() {
@@ -168,7 +226,7 @@ public class DlsPermission {
 		addToken(token, deleteTokens);
 	}
 
-	private void addToken(final String token, final List<String> list) {
+	private void addToken(final String token, final Set<String> list) {
 		if (token == null || token.trim().isEmpty() || token.contains(",")) {
 			throw new IllegalArgumentException("'" + token
 					+ "' is not a valid dls token");
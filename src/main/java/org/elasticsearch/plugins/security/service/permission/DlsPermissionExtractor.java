@@ -0,0 +1,187 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+
+/**
+ * Collects the <code>dlspermissions</code> objects of a search response, a get
+ * response or a plain document in a single pass over the tokens. Everything
+ * else is skipped without being materialized.
+ * <p>
+ * The objects are looked up at <code>hits.hits[*]._source.dlspermissions</code>,
+ * <code>_source.dlspermissions</code> and <code>dlspermissions</code>.
+ * Identical permissions, like the ones of documents indexed with the same
+ * dls metadata, are collected only once.
+ */
+public final class DlsPermissionExtractor {
+
+	private final Set<DlsPermission> perms = new LinkedHashSet<DlsPermission>();
+
+	private boolean found;
+
+	private boolean noHits;
+
+	private DlsPermissionExtractor() {
+	}
+
+	/**
+	 * @return the extractor holding the result, the parser is consumed
+	 */
+	public static DlsPermissionExtractor extract(final XContentParser parser)
+			throws IOException {
+		final DlsPermissionExtractor extractor = new DlsPermissionExtractor();
+
+		if (parser.nextToken() == Token.START_OBJECT) {
+			extractor.parseRoot(parser);
+		}
+
+		return extractor;
+	}
+
+	/**
+	 * @return the distinct permissions of all <code>dlspermissions</code>
+	 *         objects, in order of first occurrence
+	 */
+	public List<DlsPermission> getPermissions() {
+		return new ArrayList<DlsPermission>(perms);
+	}
+
+	/**
+	 * @return true if at least one <code>dlspermissions</code> object was found
+	 */
+	public boolean isFound() {
+		return found;
+	}
+
+	/**
+	 * @return true if this is a search response without hits
+	 */
+	public boolean isNoHits() {
+		return noHits;
+	}
+
+	private void parseRoot(final XContentParser parser) throws IOException {
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			final String name = parser.currentName();
+			final Token token = parser.nextToken();
+
+			if ("hits".equals(name) && token == Token.START_OBJECT) {
+				parseHits(parser);
+			} else if ("_source".equals(name) && token == Token.START_OBJECT) {
+				parseSource(parser);
+			} else if ("dlspermissions".equals(name)) {
+				parseDlsPermissions(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private void parseHits(final XContentParser parser) throws IOException {
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			final String name = parser.currentName();
+			final Token token = parser.nextToken();
+
+			if ("total".equals(name) && token == Token.VALUE_NUMBER) {
+				noHits = parser.longValue() == 0;
+			} else if ("hits".equals(name) && token == Token.START_ARRAY) {
+				while (parser.nextToken() != Token.END_ARRAY) {
+					if (parser.currentToken() == Token.START_OBJECT) {
+						parseHit(parser);
+					} else {
+						parser.skipChildren();
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private void parseHit(final XContentParser parser) throws IOException {
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			final String name = parser.currentName();
+			final Token token = parser.nextToken();
+
+			if ("_source".equals(name) && token == Token.START_OBJECT) {
+				parseSource(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private void parseSource(final XContentParser parser) throws IOException {
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			final String name = parser.currentName();
+			parser.nextToken();
+
+			if ("dlspermissions".equals(name)) {
+				parseDlsPermissions(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	// { "field" : { "read" : [...], "update" : [...], "delete" : [...] }, ... }
+	private void parseDlsPermissions(final XContentParser parser)
+			throws IOException {
+
+		found = true;
+
+		if (parser.currentToken() != Token.START_OBJECT) {
+			// null or malformed, like a null json object before
+			parser.skipChildren();
+			return;
+		}
+
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			final DlsPermission dlsPerm = new DlsPermission();
+			dlsPerm.setField(parser.currentName());
+
+			if (parser.nextToken() != Token.START_OBJECT) {
+				parser.skipChildren();
+				continue;
+			}
+
+			// missing token lists allow nothing
+			while (parser.nextToken() == Token.FIELD_NAME) {
+				final String operation = parser.currentName();
+
+				if (parser.nextToken() != Token.START_ARRAY) {
+					parser.skipChildren();
+					continue;
+				}
+
+				Token token;
+
+				while ((token = parser.nextToken()) != Token.END_ARRAY) {
+					if (!token.isValue()) {
+						parser.skipChildren();
+						continue;
+					}
+
+					final String value = parser.text();
+
+					if ("read".equals(operation)) {
+						dlsPerm.addReadToken(value);
+					} else if ("update".equals(operation)) {
+						dlsPerm.addUpdateToken(value);
+					} else if ("delete".equals(operation)) {
+						dlsPerm.addDeleteToken(value);
+					}
+				}
+			}
+
+			perms.add(dlsPerm);
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.net.InetAddress;
+
+/**
+ * Reverse lookup of the client address for host rules with hostname
+ * patterns
+ */
+public interface HostNameResolver {
+
+	/**
+	 * Asks {@link InetAddress#getHostName()} on every call
+	 */
+	public static final HostNameResolver DEFAULT = new HostNameResolver() {
+
+		@Override
+		public String getHostName(final InetAddress address) {
+			return address.getHostName();
+		}
+	};
+
+	/**
+	 * @return the hostname of the address or its textual ip if it has none
+	 */
+	public String getHostName(InetAddress address);
+
+}
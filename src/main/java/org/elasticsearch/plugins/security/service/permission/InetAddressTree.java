@@ -0,0 +1,293 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.math.BigInteger;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.net.InetAddresses;
+
+/**
+ * Binary radix tree over the networks of the host rules of a
+ * {@link PermRuleSet} (or of the trusted proxies), keyed on the address
+ * bits. Looking up a client address walks at most 32 (IPv4) or 128 (IPv6)
+ * nodes and yields every rule with a network containing the address,
+ * whatever the number of rules.
+ * <p>
+ * Host patterns which describe networks are
+ * <ul>
+ * <li>addresses, <code>10.0.0.1</code>, <code>::1</code></li>
+ * <li>CIDR blocks, <code>10.0.0.0/8</code>, <code>fd00::/8</code></li>
+ * <li>ranges, <code>10.0.0.10-10.0.0.50</code>, split into the CIDR blocks
+ * covering them</li>
+ * <li>IPv4 wildcards of whole octets, <code>10.1.*</code> or
+ * <code>10.1.*.*</code> (which is 10.1.0.0/16)</li>
+ * </ul>
+ * Other patterns are left to {@link org.elasticsearch.plugins.security.util.WildcardMatcher}.
+ */
+public final class InetAddressTree {
+
+	private static final Pattern OCTET_WILDCARD = Pattern
+			.compile("(\\d{1,3}\\.){1,3}\\*(\\.\\*)*");
+
+	private final Node ipv4 = new Node();
+
+	private final Node ipv6 = new Node();
+
+	private boolean empty = true;
+
+	/**
+	 * Adds the networks of a host pattern for a rule
+	 *
+	 * @return false if the pattern does not describe networks
+	 */
+	public boolean add(final String pattern, final int ordinal) {
+		final List<Network> networks = parse(pattern);
+
+		if (networks == null) {
+			return false;
+		}
+
+		for (final Network network : networks) {
+			Node node = network.address.length == 4 ? ipv4 : ipv6;
+
+			for (int i = 0; i < network.prefixLength; i++) {
+				final int bit = bit(network.address, i);
+
+				if (node.children[bit] == null) {
+					node.children[bit] = new Node();
+				}
+
+				node = node.children[bit];
+			}
+
+			node.add(ordinal);
+		}
+
+		empty = false;
+		return true;
+	}
+
+	/**
+	 * @return true if no network was added
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * @return true if any network contains the address
+	 */
+	public boolean contains(final InetAddress address) {
+		final byte[] bytes = address.getAddress();
+		Node node = bytes.length == 4 ? ipv4 : ipv6;
+
+		for (int i = 0; node != null; i++) {
+			if (node.rules.length > 0) {
+				return true;
+			}
+
+			if (i == bytes.length * 8) {
+				break;
+			}
+
+			node = node.children[bit(bytes, i)];
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sets the ordinals of all rules with a network containing the address
+	 */
+	public void collect(final InetAddress address, final BitSet matches) {
+		final byte[] bytes = address.getAddress();
+		Node node = bytes.length == 4 ? ipv4 : ipv6;
+
+		for (int i = 0; node != null; i++) {
+			for (final int ordinal : node.rules) {
+				matches.set(ordinal);
+			}
+
+			if (i == bytes.length * 8) {
+				break;
+			}
+
+			node = node.children[bit(bytes, i)];
+		}
+	}
+
+	/**
+	 * @return the networks the pattern describes or null if it is not a
+	 *         network pattern
+	 */
+	public static List<Network> parse(final String pattern) {
+
+		if (InetAddresses.isInetAddress(pattern)) {
+			final byte[] address = InetAddresses.forString(pattern)
+					.getAddress();
+			return Arrays.asList(new Network(address, address.length * 8));
+		}
+
+		final int slash = pattern.indexOf('/');
+
+		if (slash > 0) {
+			final String address = pattern.substring(0, slash);
+			final String length = pattern.substring(slash + 1);
+
+			if (!InetAddresses.isInetAddress(address) || length.isEmpty()
+					|| length.length() > 3) {
+				return null;
+			}
+
+			for (int i = 0; i < length.length(); i++) {
+				if (!Character.isDigit(length.charAt(i))) {
+					return null;
+				}
+			}
+
+			final byte[] bytes = InetAddresses.forString(address).getAddress();
+			final int prefixLength = Integer.parseInt(length);
+
+			if (prefixLength > bytes.length * 8) {
+				return null;
+			}
+
+			return Arrays.asList(new Network(bytes, prefixLength));
+		}
+
+		final int dash = pattern.indexOf('-');
+
+		if (dash > 0) {
+			final String first = pattern.substring(0, dash);
+			final String last = pattern.substring(dash + 1);
+
+			if (!InetAddresses.isInetAddress(first)
+					|| !InetAddresses.isInetAddress(last)) {
+				return null;
+			}
+
+			return range(InetAddresses.forString(first),
+					InetAddresses.forString(last));
+		}
+
+		if (OCTET_WILDCARD.matcher(pattern).matches()) {
+			final String[] parts = pattern.split("\\.");
+			final byte[] bytes = new byte[4];
+			int octets = 0;
+
+			if (parts.length > 4) {
+				return null;
+			}
+
+			for (; octets < parts.length && !"*".equals(parts[octets]); octets++) {
+				final int octet = Integer.parseInt(parts[octets]);
+
+				if (octet > 255) {
+					return null;
+				}
+
+				bytes[octets] = (byte) octet;
+			}
+
+			return Arrays.asList(new Network(bytes, octets * 8));
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the smallest list of CIDR blocks which cover the range, null if
+	 *         the addresses are of different families or last is below first
+	 */
+	private static List<Network> range(final InetAddress first,
+			final InetAddress last) {
+
+		if (first instanceof Inet4Address != last instanceof Inet4Address) {
+			return null;
+		}
+
+		final int bits = first.getAddress().length * 8;
+		BigInteger start = new BigInteger(1, first.getAddress());
+		final BigInteger end = new BigInteger(1, last.getAddress());
+
+		if (start.compareTo(end) > 0) {
+			return null;
+		}
+
+		final List<Network> networks = new ArrayList<Network>();
+
+		while (start.compareTo(end) <= 0) {
+			// the largest block aligned at start which does not pass end
+			final int aligned = start.signum() == 0 ? bits : start
+					.getLowestSetBit();
+			final int fits = end.subtract(start).add(BigInteger.ONE)
+					.bitLength() - 1;
+			final int hostBits = Math.min(aligned, fits);
+
+			networks.add(new Network(toBytes(start, bits / 8), bits - hostBits));
+			start = start.add(BigInteger.ONE.shiftLeft(hostBits));
+		}
+
+		return networks;
+	}
+
+	private static byte[] toBytes(final BigInteger value, final int length) {
+		final byte[] unsigned = value.toByteArray();
+		final byte[] bytes = new byte[length];
+		// toByteArray has a leading sign byte or fewer bytes
+		final int copy = Math.min(unsigned.length, length);
+		System.arraycopy(unsigned, unsigned.length - copy, bytes, length
+				- copy, copy);
+		return bytes;
+	}
+
+	private static int bit(final byte[] address, final int index) {
+		return address[index >> 3] >> 7 - (index & 7) & 1;
+	}
+
+	/**
+	 * A CIDR block
+	 */
+	public static final class Network {
+
+		final byte[] address;
+
+		final int prefixLength;
+
+		Network(final byte[] address, final int prefixLength) {
+			this.address = address;
+			this.prefixLength = prefixLength;
+		}
+
+		@Override
+		public String toString() {
+			try {
+				return InetAddress.getByAddress(address).getHostAddress() + "/"
+						+ prefixLength;
+			} catch (final UnknownHostException e) {
+				return Arrays.toString(address) + "/" + prefixLength;
+			}
+		}
+	}
+
+	private static final class Node {
+
+		private static final int[] NONE = new int[0];
+
+		private final Node[] children = new Node[2];
+
+		private int[] rules = NONE;
+
+		private void add(final int ordinal) {
+			rules = Arrays.copyOf(rules, rules.length + 1);
+			rules[rules.length - 1] = ordinal;
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A single rule of a security configuration. Instances are built while the
+ * configuration is parsed and must not be modified once they are part of a
+ * {@link PermRuleSet}.
+ */
+final class Perm<T> {
+
+	final List<String> inetAddresses = new ArrayList<String>();
+	final List<String> users = new ArrayList<String>();
+	final List<String> roles = new ArrayList<String>();
+	final List<String> indices = new ArrayList<String>();
+	final List<String> types = new ArrayList<String>();
+
+	T permLevel = null;
+
+	public boolean isValid() {
+		return this.permLevel != null;
+	}
+
+	// default is either all props empty and/or "*"
+	public boolean isDefault() {
+
+		if (this.inetAddresses.isEmpty() && this.users.isEmpty()
+				&& this.roles.isEmpty() && this.indices.isEmpty()
+				&& this.types.isEmpty()) {
+			return true;
+		}
+
+		return (this.inetAddresses.isEmpty() ? true : this.inetAddresses
+				.size() == 1 && "*".equals(this.inetAddresses.get(0)))
+				&& (this.users.isEmpty() ? true : this.users.size() == 1
+				&& "*".equals(this.users.get(0)))
+				&& (this.roles.isEmpty() ? true : this.roles.size() == 1
+				&& "*".equals(this.roles.get(0)))
+				&& (this.types.isEmpty() ? true : this.types.size() == 1
+				&& "*".equals(this.types.get(0)))
+				&& (this.indices.isEmpty() ? true
+						: this.indices.size() == 1
+						&& "*".equals(this.indices.get(0)));
+	}
+
+	public void addInetAddress(final String inetAddress) {
+		if (inetAddress == null || inetAddress.isEmpty()
+				|| inetAddress.contains(",")) {
+			throw new IllegalArgumentException("'" + inetAddress
+					+ "' is not a valid inet address");
+		}
+		this.inetAddresses.add(inetAddress.trim());
+	}
+
+	public void addIndice(final String indice) {
+		if (indice == null || indice.isEmpty() || indice.contains(",")) {
+			throw new IllegalArgumentException("'" + indice
+					+ "' is not a valid index name");
+		}
+		this.indices.add(indice.trim());
+	}
+
+	public void addUser(final String user) {
+		if (user == null || user.isEmpty() || user.contains(",")) {
+			throw new IllegalArgumentException("'" + user
+					+ "' is not a valid user");
+		}
+		this.users.add(user.trim());
+	}
+
+	public void addRole(final String role) {
+		if (role == null || role.isEmpty() || role.contains(",")) {
+			throw new IllegalArgumentException("'" + role
+					+ "' is not a valid role");
+		}
+		this.roles.add(role.trim());
+	}
+
+	public void addType(final String type) {
+		if (type == null || type.isEmpty() || type.contains(",")) {
+			throw new IllegalArgumentException("'" + type
+					+ "' is not a valid type");
+		}
+		this.types.add(type.trim());
+	}
+
+	public void setPermLevel(final T permLevel) {
+
+		if (permLevel == null) {
+			throw new IllegalArgumentException("'" + permLevel
+					+ "' is not a valid permLevel");
+		}
+
+		this.permLevel = permLevel;
+	}
+
+	public Perm() {
+
+	}
+
+	// equals() ignores the order of the list entries, so the hash must too
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + unorderedHash(this.indices);
+		result = prime * result + unorderedHash(this.inetAddresses);
+		result = prime * result + unorderedHash(this.roles);
+		result = prime * result + unorderedHash(this.types);
+		result = prime * result + unorderedHash(this.users);
+		return result;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (this.getClass() != obj.getClass()) {
+			return false;
+		}
+		final Perm<?> other = (Perm<?>) obj;
+		return equalLists(this.indices, other.indices)
+				&& equalLists(this.inetAddresses, other.inetAddresses)
+				&& equalLists(this.roles, other.roles)
+				&& equalLists(this.users, other.users)
+				&& equalLists(this.types, other.types);
+	}
+
+	@Override
+	public String toString() {
+		return "Perm [inetAddresses=" + this.inetAddresses + ", users="
+				+ this.users + ", roles=" + this.roles + ", indices="
+				+ this.indices + ", types=" + this.types + ", permLevel="
+				+ this.permLevel + ", isValid()=" + this.isValid()
+				+ ", isDefault()=" + this.isDefault() + "]";
+	}
+
+	private static int unorderedHash(final List<String> list) {
+		return list == null ? 0 : new HashSet<String>(list).hashCode();
+	}
+
+	private static boolean equalLists(final List<String> one,
+			final List<String> two) {
+		if (one == null && two == null) {
+			return true;
+		}
+
+		if (one == null && two != null || one != null && two == null
+				|| one.size() != two.size()) {
+			return false;
+		}
+
+		return one.containsAll(two) && two.containsAll(one);
+	}
+
+}
@@ -2,9 +2,9 @@ package org.elasticsearch.plugins.security.service.permission;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
@@ -17,9 +17,23 @@ public abstract class PermEvaluator<T> {
 	protected static final ESLogger log = Loggers
 			.getLogger(PermEvaluator.class);
 	protected final String xSecurityConfiguration;
-	protected XContentParser parser = null;
+
+	// compiled lazily on first use, so a broken configuration is still
+	// reported by evaluatePerm()
+	private volatile PermRuleSet<T> ruleSet = null;
+
+	private final HostNameResolver hostNameResolver;
 
 	protected PermEvaluator(final String xSecurityConfiguration) {
+		this(xSecurityConfiguration, HostNameResolver.DEFAULT);
+	}
+
+	/**
+	 * @param hostNameResolver
+	 *            how the hostnames of clients are looked up
+	 */
+	protected PermEvaluator(final String xSecurityConfiguration,
+			final HostNameResolver hostNameResolver) {
 		super();
 
 		if (xSecurityConfiguration == null || xSecurityConfiguration.isEmpty()) {
@@ -28,6 +42,7 @@ public abstract class PermEvaluator<T> {
 		}
 
 		this.xSecurityConfiguration = xSecurityConfiguration;
+		this.hostNameResolver = hostNameResolver;
 
 		// log.debug("Configuration: " + xSecurityConfiguration);
 	}
@@ -38,6 +53,10 @@ public abstract class PermEvaluator<T> {
 
 	protected abstract String getPermissionFieldName();
 
+	public String getXSecurityConfiguration() {
+		return xSecurityConfiguration;
+	}
+
 	public T evaluatePerm(final List<String> indices, final List<String> types,
 			final InetAddress hostAddress, final UserRoleCallback callback)
 					throws MalformedConfigurationException {
@@ -46,13 +65,39 @@ public abstract class PermEvaluator<T> {
 	        throw new MalformedConfigurationException("Indices, types and hostAddress must not be null");
 	    }*/
 
+		return getRuleSet().evaluate(indices, types, hostAddress, callback);
+
+	}
+
+	/**
+	 * Returns the compiled rules of this evaluator. The configuration is parsed
+	 * only once, all subsequent calls return the same immutable instance.
+	 * 
+	 * @throws MalformedConfigurationException
+	 *             if the configuration cannot be parsed, contains duplicate
+	 *             rules or has no default rule
+	 */
+	public PermRuleSet<T> getRuleSet() throws MalformedConfigurationException {
+		PermRuleSet<T> current = ruleSet;
+
+		if (current == null) {
+			current = compile();
+			ruleSet = current;
+		}
+
+		return current;
+	}
+
+	protected PermRuleSet<T> compile() throws MalformedConfigurationException {
+
 		final List<Perm<T>> perms = new ArrayList<Perm<T>>();
+		final Set<Perm<T>> uniquePerms = new HashSet<Perm<T>>();
 
-		//final List<WildcardString> matchList = new ArrayList<WildcardString>();
+		XContentParser parser = null;
 
 		try {
 
-			this.parser = XContentFactory.xContent(this.xSecurityConfiguration)
+			parser = XContentFactory.xContent(this.xSecurityConfiguration)
 					.createParser(this.xSecurityConfiguration);
 
 			final String permissionFieldName = this.getPermissionFieldName();
@@ -60,14 +105,14 @@ public abstract class PermEvaluator<T> {
 			XContentParser.Token token = null;
 			String currentFieldName = null;
 			Perm<T> currentPerm = null;
-			while ((token = this.parser.nextToken()) != null) {
+			while ((token = parser.nextToken()) != null) {
 
 				if (token == XContentParser.Token.START_OBJECT) {
 					currentPerm = new Perm<T>();
 
 				} else if (token == XContentParser.Token.END_OBJECT) {
 
-					if (currentPerm != null && perms.contains(currentPerm)) {
+					if (currentPerm != null && !uniquePerms.add(currentPerm)) {
 						log.error("Duplicate permissions " + currentPerm);
 						throw new MalformedConfigurationException(
 								"Duplicate permissions found");
@@ -90,24 +135,24 @@ public abstract class PermEvaluator<T> {
 					}
 
 				} else if (token == XContentParser.Token.FIELD_NAME) {
-					currentFieldName = this.parser.currentName();
+					currentFieldName = parser.currentName();
 
 				} else if (token.isValue()) {
 
 					if ("hosts".equals(currentFieldName)) {
-						currentPerm.addInetAddress(this.parser.text());
+						currentPerm.addInetAddress(parser.text());
 					}
 					if ("users".equals(currentFieldName)) {
-						currentPerm.addUser(this.parser.text());
+						currentPerm.addUser(parser.text());
 					}
 					if ("roles".equals(currentFieldName)) {
-						currentPerm.addRole(this.parser.text());
+						currentPerm.addRole(parser.text());
 					} else if ("indices".equals(currentFieldName)) {
-						currentPerm.addIndice(this.parser.text());
+						currentPerm.addIndice(parser.text());
 					} else if ("types".equals(currentFieldName)) {
-						currentPerm.addType(this.parser.text());
+						currentPerm.addType(parser.text());
 					} else if (permissionFieldName.equals(currentFieldName)) {
-						final String text = this.parser.text();
+						final String text = parser.text();
 						currentPerm.setPermLevel(this
 								.createFromString(text == null ? null : text
 										.trim()));
@@ -120,15 +165,10 @@ public abstract class PermEvaluator<T> {
 		} catch (final Exception e) {
 			throw new MalformedConfigurationException(e);
 		} finally {
-			this.parser.close();
+			if (parser != null) {
+				parser.close();
+			}
 		}
-		
-		
-		
-		
-		
-
-		log.debug("Checking " + perms.size() + " perms");
 
 		T permLevel = null;
 
@@ -148,394 +188,9 @@ public abstract class PermEvaluator<T> {
 					"No default configuration found");
 		}
 
-		/*for (final Perm<T> p : perms) {
-
-			for (final String ip : p.inetAddresses) {
-				//matchList.add(new WildcardString(ip));
-			}
-		}*/
-
-		final String clientHostName = hostAddress.getHostName();
-		final String clientHostIp = hostAddress.getHostAddress();
-		
-		permloop: for (final Perm<T> p : perms) {
-
-			if (p.isDefault()) {
-				continue;
-			}
-
-			String _role = null;
-			String _host = null;
-
-			log.debug("Check perm " + p);
-
-			// TODO difference between not here and []
-			if (!p.users.isEmpty()
-					&& !p.users.contains("*")
-					&& (callback == null || callback.getRemoteuser() == null || !p.users
-					.contains(callback.getRemoteuser()))) {
-				if(callback != null) {
-			        log.debug("User " + callback.getRemoteuser()
-					+ " does not match, so skip this permission");
-				} else {
-				    log.debug("No callback");
-				}
-				continue permloop;
-			}
-
-			log.debug("User "
-					+ (callback == null ? "" : callback.getRemoteuser())
-					+ " match");
-
-			if (!p.roles.contains("*") && !p.roles.isEmpty()) {
-				if (callback == null) {
-					log.debug("Role does not match, so skip this permission");
-					continue permloop;
-				}
-
-				for (final String role : p.roles) {
-					if (callback.isRemoteUserInRole(role)) {
-						log.debug("Role " + role + " match");
-						_role = role;
-						break;
-					}
-				}
-
-				if (_role == null) {
-					log.debug("Role does not match, so skip this permission");
-					continue permloop;
-				}
-			}
-
-			if (!p.inetAddresses.contains("*") && !p.inetAddresses.isEmpty()) {
-				for (final String pinetAddress : p.inetAddresses) {
-					if (isWildcardMatch(pinetAddress, clientHostName)
-					|| isWildcardMatch(pinetAddress, clientHostIp)) {
-
-						log.debug("Host adress " + pinetAddress + " match");
-						_host = pinetAddress;
-						break;
-
-					}
-
-				}
-
-				if (_host == null) {
-
-					log.debug("Host adress ("
-							+ clientHostIp
-							+ "(ip) and "
-							+ clientHostName
-							+ " (hostname) does not match, so skip this permission");
-					continue permloop;
-
-				}
-
-			}
-
-			if (!p.types.isEmpty() && !p.types.contains("*")) {
-				
-				boolean typeMatch=false;
-				
-				typeloop:
-				for (final String pType : p.types) {
-					
-					for (final String tType : types)
-					{
-						if (isWildcardMatch(tType, pType)) {
-							log.debug("Type "+pType+" match " + tType + "");
-							typeMatch=true;
-							break typeloop;
-
-						}else {
-							log.debug("Type "+pType+" not match " + tType + "");
-						}
-						
-					}
-				}
-				
-				if(!typeMatch){
-					log.debug("No type matches, so skip this permission ["
-							+ p.types + " != " + types + "]");
-					continue permloop;
-				}
-			}
-
-			log.debug("All types matches");
-
-			if ( !p.indices.isEmpty() && !p.indices.contains("*")) {
-
-				
-				boolean indexMatch=false;
-				
-				indexloop:
-                for (final String pIndex : p.indices) {
-					
-                    if(indices != null) {
-                        for (final String tIndex : indices)
-                        {
-                            if (isWildcardMatch(tIndex, pIndex)) {
-                                log.debug("Index "+pIndex+" match " + tIndex + "");
-                                indexMatch=true;
-                                break indexloop;
-
-                            }else {
-                                log.debug("Index "+pIndex+" not match " + tIndex + "");
-                            }
-                            
-                        }
-                    }
-					
-				}
-
-				if(!indexMatch)
-				{
-					
-					log.debug("No index matches, so skip this permission ["
-							+ p.indices + " != " + indices + "]");
-					continue permloop;
-				}
-				
-				
-			}
-			
-			
-			//START
-			//added condition to check if indices provided are empty to validate the matching of index. This is required to allow requesting metadata queries like /_mapping, /_setting etc.
-			//(contributed by Ram Kotamaraja)
-			else
-			if((indices == null || indices.isEmpty()) && !p.indices.isEmpty() && !p.indices.contains("*") ){ 
-
-				log.debug("Not all indexes match because no index specified, so skip this permission ["
-						+ p.indices + " != " + indices + "]");
-				continue permloop;
-				
-			}
-			//END
-
-			log.debug("All rules match, will apply " + p);
-			return p.permLevel;
-
-		}// end permloop
-
-		log.debug("No rules matched, will apply default perm " + permLevel);
-		return permLevel;
+		log.debug("Compiled {} perms", perms.size());
 
+		return new PermRuleSet<T>(perms, permLevel, hostNameResolver);
 	}
 
-	protected static class Perm<T> {
-
-		private final List<String> inetAddresses = new ArrayList<String>();
-		private final List<String> users = new ArrayList<String>();
-		private final List<String> roles = new ArrayList<String>();
-		private final List<String> indices = new ArrayList<String>();
-		private final List<String> types = new ArrayList<String>();
-
-		private T permLevel = null;
-
-		public boolean isValid() {
-			return this.permLevel != null;
-		}
-
-		// default is either all props empty and/or "*"
-		public boolean isDefault() {
-
-			if (this.inetAddresses.isEmpty() && this.users.isEmpty()
-					&& this.roles.isEmpty() && this.indices.isEmpty()
-					&& this.types.isEmpty()) {
-				return true;
-			}
-
-			return (this.inetAddresses.isEmpty() ? true : this.inetAddresses
-					.size() == 1 && "*".equals(this.inetAddresses.get(0)))
-					&& (this.users.isEmpty() ? true : this.users.size() == 1
-					&& "*".equals(this.users.get(0)))
-					&& (this.roles.isEmpty() ? true : this.roles.size() == 1
-					&& "*".equals(this.roles.get(0)))
-					&& (this.types.isEmpty() ? true : this.types.size() == 1
-					&& "*".equals(this.types.get(0)))
-					&& (this.indices.isEmpty() ? true
-							: this.indices.size() == 1
-							&& "*".equals(this.indices.get(0)));
-		}
-
-		public void addInetAddress(final String inetAddress) {
-			if (inetAddress == null || inetAddress.isEmpty()
-					|| inetAddress.contains(",")) {
-				throw new IllegalArgumentException("'" + inetAddress
-						+ "' is not a valid inet address");
-			}
-			this.inetAddresses.add(inetAddress.trim());
-		}
-
-		public void addIndice(final String indice) {
-			if (indice == null || indice.isEmpty() || indice.contains(",")) {
-				throw new IllegalArgumentException("'" + indice
-						+ "' is not a valid index name");
-			}
-			this.indices.add(indice.trim());
-		}
-
-		public void addUser(final String user) {
-			if (user == null || user.isEmpty() || user.contains(",")) {
-				throw new IllegalArgumentException("'" + user
-						+ "' is not a valid user");
-			}
-			this.users.add(user.trim());
-		}
-
-		public void addRole(final String role) {
-			if (role == null || role.isEmpty() || role.contains(",")) {
-				throw new IllegalArgumentException("'" + role
-						+ "' is not a valid role");
-			}
-			this.roles.add(role.trim());
-		}
-
-		public void addType(final String type) {
-			if (type == null || type.isEmpty() || type.contains(",")) {
-				throw new IllegalArgumentException("'" + type
-						+ "' is not a valid type");
-			}
-			this.types.add(type.trim());
-		}
-
-		public void setPermLevel(final T permLevel) {
-
-			if (permLevel == null) {
-				throw new IllegalArgumentException("'" + permLevel
-						+ "' is not a valid permLevel");
-			}
-
-			this.permLevel = permLevel;
-		}
-
-		public Perm() {
-
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result
-					+ (this.indices == null ? 0 : this.indices.hashCode());
-			result = prime
-					* result
-					+ (this.inetAddresses == null ? 0 : this.inetAddresses
-							.hashCode());
-			result = prime * result
-					+ (this.roles == null ? 0 : this.roles.hashCode());
-			result = prime * result
-					+ (this.types == null ? 0 : this.types.hashCode());
-			result = prime * result
-					+ (this.users == null ? 0 : this.users.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj) {
-				// log.debug("perm ==");
-				return true;
-			}
-			if (obj == null) {
-				// log.debug("perm other null");
-				return false;
-			}
-			if (this.getClass() != obj.getClass()) {
-				// log.debug("perm class mismatch");
-				return false;
-			}
-			final Perm<?> other = (Perm<?>) obj;
-			if (this.indices == null) {
-				if (other.indices != null) {
-					return false;
-				}
-			} else if (!equalLists(this.indices, other.indices)) {
-				// log.debug("perm list not match: indices");
-				return false;
-			}
-			if (this.inetAddresses == null) {
-				if (other.inetAddresses != null) {
-					return false;
-				}
-			} else if (!equalLists(this.inetAddresses, other.inetAddresses)) {
-				// log.debug("perm list not match: inetaddr");
-				return false;
-			}
-			if (this.roles == null) {
-				if (other.roles != null) {
-					return false;
-				}
-			} else if (!equalLists(this.roles, other.roles)) {
-				// log.debug("perm list not match: roles");
-				return false;
-			}
-			if (this.users == null) {
-				if (other.users != null) {
-					return false;
-				}
-			} else if (!equalLists(this.users, other.users)) {
-				// log.debug("perm list not match: users");
-				return false;
-			}
-
-			if (this.types == null) {
-				if (other.types != null) {
-					return false;
-				}
-			} else if (!equalLists(this.types, other.types)) {
-				// log.debug("perm list not match: types");
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public String toString() {
-			return "Perm [inetAddresses=" + this.inetAddresses + ", users="
-					+ this.users + ", roles=" + this.roles + ", indices="
-					+ this.indices + ", types=" + this.types + ", permLevel="
-					+ this.permLevel + ", isValid()=" + this.isValid()
-					+ ", isDefault()=" + this.isDefault() + "]";
-		}
-
-	}
-
-	private static boolean equalLists(final List<String> one,
-			final List<String> two) {
-		if (one == null && two == null) {
-			return true;
-		}
-
-		if (one == null && two != null || one != null && two == null
-				|| one.size() != two.size()) {
-			return false;
-		}
-
-		return one.containsAll(two) && two.containsAll(one);
-	}
-
-	
-	private boolean isWildcardMatch(String a, String b) {
-		
-		String escapedA = a.replace(".", "\\.").replace("*",
-				".*");
-		
-		Pattern p = Pattern.compile(escapedA);
-		Matcher m = p.matcher(b);
-		if(m.matches()){
-			return true;
-		} else {
-			String escapedB = b.replace(".", "\\.").replace("*",
-					".*");
-			
-			p = Pattern.compile(escapedB);
-			m = p.matcher(a);
-			return m.matches();
-		}
-	}
-	
 }
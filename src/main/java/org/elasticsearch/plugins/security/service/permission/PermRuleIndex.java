@@ -0,0 +1,402 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.plugins.security.util.WildcardMatcher;
+
+/**
+ * Inverted index over the rules of a {@link PermRuleSet}. For a request it
+ * returns the ordinals of all rules which can possibly match, every other
+ * rule is guaranteed not to match. The candidates still have to be checked
+ * in ordinal order to keep first-match-wins semantics.
+ * <p>
+ * Users, hosts, types and indices are indexed independently, the candidates
+ * are the intersection of all dimensions. Within a dimension a rule is found
+ * by
+ * <ul>
+ * <li>a hash lookup for literal values</li>
+ * <li>a prefix trie for patterns with a literal head (<code>logstash-*</code>,
+ * <code>10.1.2.*</code>, <code>app*-2014.*</code>)</li>
+ * <li>a suffix trie for patterns with a literal tail only (<code>*-prod</code>,
+ * <code>*.example.com</code>)</li>
+ * </ul>
+ * Rules without a constraint in a dimension and patterns like
+ * <code>*abc*</code> are candidates for every value. Roles are not indexed
+ * because they can only be checked through the {@link UserRoleCallback}.
+ */
+final class PermRuleIndex {
+
+	private final Dimension users;
+	private final Dimension hosts;
+	private final Dimension types;
+	private final Dimension indices;
+
+	PermRuleIndex(final List<? extends Perm<?>> rules) {
+		final int size = rules.size();
+
+		final Dimension.Builder usersBuilder = new Dimension.Builder();
+		final Dimension.Builder hostsBuilder = new Dimension.Builder();
+		final Dimension.Builder typesBuilder = new Dimension.Builder();
+		final Dimension.Builder indicesBuilder = new Dimension.Builder();
+
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			final Perm<?> p = rules.get(ordinal);
+			usersBuilder.add(ordinal, p.users, true);
+			hostsBuilder.add(ordinal, withoutNetworks(p.inetAddresses), false);
+			typesBuilder.add(ordinal, p.types, false);
+			indicesBuilder.add(ordinal, p.indices, false);
+		}
+
+		users = usersBuilder.build();
+		hosts = hostsBuilder.build();
+		types = typesBuilder.build();
+		indices = indicesBuilder.build();
+	}
+
+	/**
+	 * Host patterns describing networks are looked up in the
+	 * {@link InetAddressTree} of the rule set instead, a rule with only such
+	 * patterns keeps the host dimension constrained without indexing
+	 * anything
+	 */
+	private static List<String> withoutNetworks(final List<String> hosts) {
+
+		if (hosts.isEmpty() || hosts.contains("*")) {
+			return hosts;
+		}
+
+		final List<String> patterns = new ArrayList<String>(hosts.size());
+
+		for (final String host : hosts) {
+			if (InetAddressTree.parse(host) == null) {
+				patterns.add(host);
+			}
+		}
+
+		return patterns.isEmpty() ? null : patterns;
+	}
+
+	/**
+	 * @param addressMatches
+	 *            the rules with a network containing the client address
+	 * @return the ordinals of all rules which may match, in ascending order
+	 */
+	BitSet candidates(final String remoteUser, final String hostName,
+			final String hostIp, final BitSet addressMatches,
+			final List<String> requestTypes, final List<String> requestIndices) {
+
+		final BitSet candidates = users.candidates(remoteUser);
+
+		if (!hosts.isUnconstrained()) {
+			final BitSet hostCandidates = hosts.candidates(hostIp);
+			hosts.collect(hostName, hostCandidates);
+			hostCandidates.or(addressMatches);
+			candidates.and(hostCandidates);
+		}
+
+		if (!candidates.isEmpty() && !types.isUnconstrained()) {
+			and(candidates, types.candidates(requestTypes));
+		}
+
+		if (!candidates.isEmpty() && !indices.isUnconstrained()) {
+			and(candidates, indices.candidates(requestIndices));
+		}
+
+		return candidates;
+	}
+
+	private static void and(final BitSet candidates, final BitSet other) {
+		// null means the dimension does not restrict the candidates
+		if (other != null) {
+			candidates.and(other);
+		}
+	}
+
+	/**
+	 * Index over the values of one dimension
+	 */
+	private static final class Dimension {
+
+		// rules which match any value, including the rules with match all
+		// patterns and the ones with patterns which cannot be indexed
+		private final BitSet always;
+
+		private final Map<String, int[]> literals;
+
+		private final TrieNode prefixes;
+
+		private final TrieNode suffixes;
+
+		// true if no rule restricts this dimension
+		private final boolean unconstrained;
+
+		private Dimension(final BitSet always, final Map<String, int[]> literals,
+				final TrieNode prefixes, final TrieNode suffixes,
+				final boolean unconstrained) {
+			this.always = always;
+			this.literals = literals;
+			this.prefixes = prefixes;
+			this.suffixes = suffixes;
+			this.unconstrained = unconstrained;
+		}
+
+		/**
+		 * @return true if every rule matches any value of this dimension
+		 */
+		boolean isUnconstrained() {
+			return unconstrained;
+		}
+
+		BitSet candidates(final String value) {
+			final BitSet candidates = (BitSet) always.clone();
+			collect(value, candidates);
+			return candidates;
+		}
+
+		/**
+		 * @return the candidates or null if the values contain wildcards (the
+		 *         matching is symmetric, so such a value may match any rule)
+		 */
+		BitSet candidates(final List<String> values) {
+			final BitSet candidates = (BitSet) always.clone();
+
+			if (values == null) {
+				return candidates;
+			}
+
+			for (final String value : values) {
+				if (WildcardMatcher.containsWildcard(value)) {
+					return null;
+				}
+
+				collect(value, candidates);
+			}
+
+			return candidates;
+		}
+
+		void collect(final String value, final BitSet candidates) {
+
+			if (value == null) {
+				return;
+			}
+
+			set(candidates, literals.get(value));
+
+			TrieNode node = prefixes;
+			for (int i = 0; node != null; i++) {
+				set(candidates, node.rules);
+
+				if (i == value.length()) {
+					break;
+				}
+
+				node = node.child(value.charAt(i));
+			}
+
+			node = suffixes;
+			for (int i = value.length() - 1; node != null; i--) {
+				set(candidates, node.rules);
+
+				if (i < 0) {
+					break;
+				}
+
+				node = node.child(value.charAt(i));
+			}
+		}
+
+		private static void set(final BitSet candidates, final int[] ordinals) {
+			if (ordinals != null) {
+				for (final int ordinal : ordinals) {
+					candidates.set(ordinal);
+				}
+			}
+		}
+
+		private static final class Builder {
+
+			private final BitSet always = new BitSet();
+
+			private final Map<String, List<Integer>> literals = new HashMap<String, List<Integer>>();
+
+			private final TrieNode.Builder prefixes = new TrieNode.Builder();
+
+			private final TrieNode.Builder suffixes = new TrieNode.Builder();
+
+			private boolean unconstrained = true;
+
+			/**
+			 * @param patterns
+			 *            the patterns to index, null if the rule is
+			 *            constrained by values indexed elsewhere
+			 * @param literalOnly
+			 *            true if the values are compared literally (users)
+			 */
+			void add(final int ordinal, final List<String> patterns,
+					final boolean literalOnly) {
+
+				if (patterns == null) {
+					unconstrained = false;
+					return;
+				}
+
+				if (patterns.isEmpty() || patterns.contains("*")) {
+					always.set(ordinal);
+					return;
+				}
+
+				unconstrained = false;
+
+				for (final String pattern : patterns) {
+
+					final int first = pattern.indexOf('*');
+
+					if (literalOnly || first == -1) {
+						List<Integer> ordinals = literals.get(pattern);
+
+						if (ordinals == null) {
+							ordinals = new ArrayList<Integer>(1);
+							literals.put(pattern, ordinals);
+						}
+
+						ordinals.add(ordinal);
+
+					} else if (first > 0) {
+						prefixes.add(pattern.substring(0, first), ordinal);
+
+					} else if (pattern.lastIndexOf('*') < pattern.length() - 1) {
+						final String tail = pattern.substring(pattern
+								.lastIndexOf('*') + 1);
+						suffixes.add(
+								new StringBuilder(tail).reverse().toString(),
+								ordinal);
+
+					} else {
+						// *abc*, can't be indexed
+						always.set(ordinal);
+					}
+				}
+			}
+
+			Dimension build() {
+				final Map<String, int[]> literalOrdinals = new HashMap<String, int[]>(
+						literals.size() * 2);
+
+				for (final Map.Entry<String, List<Integer>> e : literals
+						.entrySet()) {
+					literalOrdinals.put(e.getKey(), toArray(e.getValue()));
+				}
+
+				return new Dimension(always, literalOrdinals,
+						prefixes.build(), suffixes.build(), unconstrained);
+			}
+		}
+	}
+
+	/**
+	 * Immutable trie node, the rules of a node are the rules whose pattern
+	 * head (or reversed tail) is the path to this node
+	 */
+	private static final class TrieNode {
+
+		private final char[] keys;
+
+		private final TrieNode[] children;
+
+		private final int[] rules;
+
+		private TrieNode(final char[] keys, final TrieNode[] children,
+				final int[] rules) {
+			this.keys = keys;
+			this.children = children;
+			this.rules = rules;
+		}
+
+		TrieNode child(final char c) {
+			// keys are sorted
+			int low = 0;
+			int high = keys.length - 1;
+
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+
+				if (keys[mid] < c) {
+					low = mid + 1;
+				} else if (keys[mid] > c) {
+					high = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+
+			return null;
+		}
+
+		private static final class Builder {
+
+			private final Map<Character, Builder> children = new HashMap<Character, Builder>();
+
+			private final List<Integer> rules = new ArrayList<Integer>();
+
+			void add(final String path, final int ordinal) {
+				Builder node = this;
+
+				for (int i = 0; i < path.length(); i++) {
+					Builder child = node.children.get(path.charAt(i));
+
+					if (child == null) {
+						child = new Builder();
+						node.children.put(path.charAt(i), child);
+					}
+
+					node = child;
+				}
+
+				node.rules.add(ordinal);
+			}
+
+			/**
+			 * @return the trie or null if it is empty
+			 */
+			TrieNode build() {
+				if (children.isEmpty() && rules.isEmpty()) {
+					return null;
+				}
+
+				final List<Character> sortedKeys = new ArrayList<Character>(
+						children.keySet());
+				Collections.sort(sortedKeys);
+
+				final char[] keys = new char[sortedKeys.size()];
+				final TrieNode[] nodes = new TrieNode[sortedKeys.size()];
+
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = sortedKeys.get(i);
+					nodes[i] = children.get(keys[i]).build();
+				}
+
+				return new TrieNode(keys, nodes, rules.isEmpty() ? null
+						: toArray(rules));
+			}
+		}
+	}
+
+	private static int[] toArray(final Collection<Integer> values) {
+		final int[] result = new int[values.size()];
+		int i = 0;
+
+		for (final Integer value : values) {
+			result[i++] = value;
+		}
+
+		return result;
+	}
+
+}
@@ -0,0 +1,517 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.plugins.security.service.permission.DecisionTrace.Mismatch;
+import org.elasticsearch.plugins.security.util.WildcardMatcher;
+
+/**
+ * Immutable, compiled form of a security configuration. A rule set is built
+ * once per configuration by {@link PermEvaluator#getRuleSet()} and can then be
+ * evaluated concurrently for any number of requests without touching the
+ * configuration source again.
+ * <p>
+ * Large rule sets are evaluated through a {@link PermRuleIndex}, so only the
+ * rules which can match the request are checked.
+ * <p>
+ * Host patterns describing networks (addresses, CIDR blocks, ranges and
+ * whole octet wildcards) are compiled into one {@link InetAddressTree}, the
+ * client address is looked up there once per request. The hostname of the
+ * client is only looked up if the ip did not match and a rule has a host
+ * pattern which is not an ip pattern. Other ip patterns (digits, dots,
+ * colons, hex digits with colons and wildcards) are matched against the ip
+ * only.
+ * <p>
+ * Nothing is logged or formatted while rules are checked. A
+ * {@link DecisionTrace} passed to
+ * {@link #evaluate(List, List, InetAddress, UserRoleCallback, DecisionTrace)}
+ * records the checked rules, with debug logging enabled every decision is
+ * traced and logged.
+ */
+public final class PermRuleSet<T> {
+
+	private static final ESLogger log = Loggers.getLogger(PermRuleSet.class);
+
+	// below this size scanning all rules is cheaper than an index lookup
+	static final int INDEX_THRESHOLD = 16;
+
+	private final List<Rule<T>> rules;
+
+	private final T defaultPermLevel;
+
+	// null for small rule sets
+	private final PermRuleIndex index;
+
+	private final List<String> roles;
+
+	private final HostNameResolver hostNameResolver;
+
+	private final InetAddressTree addressTree = new InetAddressTree();
+
+	// true if any rule has a hostname pattern
+	private final boolean needsHostName;
+
+	PermRuleSet(final List<Perm<T>> perms, final T defaultPermLevel) {
+		this(perms, defaultPermLevel, HostNameResolver.DEFAULT);
+	}
+
+	PermRuleSet(final List<Perm<T>> perms, final T defaultPermLevel,
+			final HostNameResolver hostNameResolver) {
+		super();
+
+		final List<Perm<T>> nonDefaultPerms = new ArrayList<Perm<T>>(
+				perms.size());
+		final List<Rule<T>> nonDefaultRules = new ArrayList<Rule<T>>(
+				perms.size());
+		final Set<String> referencedRoles = new LinkedHashSet<String>();
+
+		for (final Perm<T> p : perms) {
+			if (!p.isDefault()) {
+				nonDefaultPerms.add(p);
+				nonDefaultRules.add(new Rule<T>(p, nonDefaultRules.size(),
+						addressTree));
+
+				if (!p.roles.contains("*")) {
+					referencedRoles.addAll(p.roles);
+				}
+			}
+		}
+
+		this.rules = Collections.unmodifiableList(nonDefaultRules);
+		this.defaultPermLevel = defaultPermLevel;
+		this.roles = Collections.unmodifiableList(new ArrayList<String>(
+				referencedRoles));
+		this.index = nonDefaultPerms.size() < INDEX_THRESHOLD ? null
+				: new PermRuleIndex(nonDefaultPerms);
+		this.hostNameResolver = hostNameResolver;
+
+		boolean needsHostName = false;
+
+		for (final Rule<T> r : nonDefaultRules) {
+			needsHostName |= r.hostNames;
+		}
+
+		this.needsHostName = needsHostName;
+	}
+
+	/**
+	 * @return the perm level which applies if no rule matches
+	 */
+	public T getDefaultPermLevel() {
+		return defaultPermLevel;
+	}
+
+	/**
+	 * @return all roles the rules depend on, i.e. the roles for which
+	 *         {@link UserRoleCallback#isRemoteUserInRole(String)} may be
+	 *         called during evaluation
+	 */
+	public List<String> getRoles() {
+		return roles;
+	}
+
+	/**
+	 * @return the number of non-default rules
+	 */
+	public int size() {
+		return rules.size();
+	}
+
+	/**
+	 * @return the perm level of the first matching rule or the default perm
+	 *         level if no rule matches
+	 */
+	public T evaluate(final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final UserRoleCallback callback) {
+		return evaluate(indices, types, hostAddress, callback, index != null,
+				null);
+	}
+
+	/**
+	 * Same as {@link #evaluate(List, List, InetAddress, UserRoleCallback)}
+	 * but records the decision
+	 *
+	 * @param trace
+	 *            receives the checked rules, may be null
+	 */
+	public T evaluate(final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final UserRoleCallback callback,
+			final DecisionTrace trace) {
+		return evaluate(indices, types, hostAddress, callback, index != null,
+				trace);
+	}
+
+	/**
+	 * Same as {@link #evaluate(List, List, InetAddress, UserRoleCallback)}
+	 * but always checks every rule
+	 */
+	T evaluateLinear(final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final UserRoleCallback callback) {
+		return evaluate(indices, types, hostAddress, callback, false, null);
+	}
+
+	private T evaluate(final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final UserRoleCallback callback,
+			final boolean useIndex, final DecisionTrace trace) {
+
+		// the debug log gets a trace of every decision, nothing is recorded
+		// or formatted unless it is enabled
+		if (trace == null && log.isDebugEnabled()) {
+			final DecisionTrace debugTrace = new DecisionTrace();
+			final T permLevel = evaluate(indices, types, hostAddress,
+					callback, useIndex, debugTrace);
+			log.debug("Decision for {}", debugTrace);
+			return permLevel;
+		}
+
+		final ClientHostName clientHostName = new ClientHostName(hostAddress,
+				hostNameResolver);
+		final String clientHostIp = hostAddress.getHostAddress();
+		final BitSet addressMatches = new BitSet();
+
+		if (!addressTree.isEmpty()) {
+			addressTree.collect(hostAddress, addressMatches);
+		}
+
+		// wildcards in the request (like /logstash-*/_search) are matched
+		// against the rule values, so compile them once per request
+		final WildcardMatcher[] typeMatchers = compileRequestValues(types);
+		final WildcardMatcher[] indexMatchers = compileRequestValues(indices);
+
+		if (trace != null) {
+			trace.request(callback == null ? null : callback.getRemoteuser(),
+					clientHostIp, indices, types);
+		}
+
+		Rule<T> matched = null;
+
+		if (useIndex) {
+			final BitSet candidates = index.candidates(callback == null ? null
+					: callback.getRemoteuser(),
+					needsHostName ? clientHostName.get() : null, clientHostIp,
+					addressMatches, types, indices);
+
+			if (trace != null) {
+				trace.candidates(candidates.cardinality(), rules.size());
+			}
+
+			for (int i = candidates.nextSetBit(0); matched == null && i >= 0; i = candidates
+					.nextSetBit(i + 1)) {
+				final Rule<T> r = rules.get(i);
+
+				if (matches(r, indices, types, clientHostName, clientHostIp,
+						addressMatches, typeMatchers, indexMatchers, callback,
+						trace)) {
+					matched = r;
+				}
+			}
+
+		} else {
+
+			if (trace != null) {
+				trace.candidates(rules.size(), rules.size());
+			}
+
+			for (int i = 0; matched == null && i < rules.size(); i++) {
+				final Rule<T> r = rules.get(i);
+
+				if (matches(r, indices, types, clientHostName, clientHostIp,
+						addressMatches, typeMatchers, indexMatchers, callback,
+						trace)) {
+					matched = r;
+				}
+			}
+		}
+
+		if (trace != null) {
+			trace.hostName(clientHostName.hostName);
+
+			if (matched == null) {
+				trace.fallback(defaultPermLevel);
+			}
+		}
+
+		return matched == null ? defaultPermLevel : matched.perm.permLevel;
+	}
+
+	/**
+	 * Checks the conditions of a rule in order, cheapest first. The trace
+	 * (if any) gets the first condition which does not match.
+	 */
+	private static <T> boolean matches(final Rule<T> r,
+			final List<String> indices, final List<String> types,
+			final ClientHostName clientHostName, final String clientHostIp,
+			final BitSet addressMatches, final WildcardMatcher[] typeMatchers,
+			final WildcardMatcher[] indexMatchers,
+			final UserRoleCallback callback, final DecisionTrace trace) {
+
+		final Mismatch mismatch = mismatch(r, indices, types, clientHostName,
+				clientHostIp, addressMatches, typeMatchers, indexMatchers,
+				callback);
+
+		if (trace != null) {
+			if (mismatch == null) {
+				trace.match(r.ordinal, r.perm);
+			} else {
+				trace.mismatch(r.ordinal, r.perm, mismatch);
+			}
+		}
+
+		return mismatch == null;
+	}
+
+	/**
+	 * @return the first condition of the rule which does not match, null if
+	 *         the rule matches
+	 */
+	private static <T> Mismatch mismatch(final Rule<T> r,
+			final List<String> indices, final List<String> types,
+			final ClientHostName clientHostName, final String clientHostIp,
+			final BitSet addressMatches, final WildcardMatcher[] typeMatchers,
+			final WildcardMatcher[] indexMatchers,
+			final UserRoleCallback callback) {
+
+		// TODO difference between not here and []
+		if (!r.anyUser
+				&& (callback == null || callback.getRemoteuser() == null || !r.users
+				.contains(callback.getRemoteuser()))) {
+			return Mismatch.USER;
+		}
+
+		if (!r.anyRole && !isInAnyRole(r.perm.roles, callback)) {
+			return Mismatch.ROLE;
+		}
+
+		if (!r.anyHost && !addressMatches.get(r.ordinal)
+				&& !isAnyMatch(r.ipPatterns, clientHostIp)
+				&& !(r.hostNames && isAnyMatch(r.hostNamePatterns,
+						clientHostName.get()))) {
+			return Mismatch.HOST;
+		}
+
+		if (!r.anyType && !isAnyMatch(r.types, types, typeMatchers)) {
+			return Mismatch.TYPE;
+		}
+
+		if (!r.anyIndex && !isAnyMatch(r.indices, indices, indexMatchers)) {
+			return Mismatch.INDEX;
+		}
+
+		return null;
+	}
+
+	private static boolean isInAnyRole(final List<String> roles,
+			final UserRoleCallback callback) {
+
+		if (callback == null) {
+			return false;
+		}
+
+		for (final String role : roles) {
+			if (callback.isRemoteUserInRole(role)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isAnyMatch(final WildcardMatcher[] patterns,
+			final String value) {
+
+		for (final WildcardMatcher pattern : patterns) {
+			if (pattern.matches(value)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * True if any of the rule patterns matches any of the request values.
+	 * Matching is symmetric, a request value containing a wildcard matches
+	 * the rule value it covers.
+	 */
+	private static boolean isAnyMatch(final WildcardMatcher[] rulePatterns,
+			final List<String> requestValues,
+			final WildcardMatcher[] requestMatchers) {
+
+		if (requestValues == null) {
+			return false;
+		}
+
+		for (final WildcardMatcher rulePattern : rulePatterns) {
+
+			for (int i = 0; i < requestValues.size(); i++) {
+				final String requestValue = requestValues.get(i);
+
+				if (rulePattern.matches(requestValue)
+						|| requestMatchers[i] != null
+						&& requestMatchers[i].matches(rulePattern.pattern())) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static WildcardMatcher[] compileRequestValues(
+			final List<String> values) {
+
+		if (values == null) {
+			return null;
+		}
+
+		final WildcardMatcher[] matchers = new WildcardMatcher[values.size()];
+
+		for (int i = 0; i < matchers.length; i++) {
+			final String value = values.get(i);
+
+			if (WildcardMatcher.containsWildcard(value)) {
+				matchers[i] = WildcardMatcher.compile(value);
+			}
+		}
+
+		return matchers;
+	}
+
+	/**
+	 * @return true if the pattern can only match an ip address (networks are
+	 *         checked first by {@link InetAddressTree#parse(String)})
+	 */
+	static boolean isIpPattern(final String pattern) {
+		final boolean ipv6 = pattern.indexOf(':') >= 0;
+
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+
+			if (c >= '0' && c <= '9' || c == '.' || c == '*' || c == '?'
+					|| c == ':' || c == '/') {
+				continue;
+			}
+
+			if (ipv6 && (c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) {
+				continue;
+			}
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Looks up the hostname of the client at most once per evaluation, and
+	 * only if a rule needs it
+	 */
+	private static final class ClientHostName {
+
+		private final InetAddress address;
+
+		private final HostNameResolver resolver;
+
+		private String hostName;
+
+		private ClientHostName(final InetAddress address,
+				final HostNameResolver resolver) {
+			this.address = address;
+			this.resolver = resolver;
+		}
+
+		String get() {
+			if (hostName == null) {
+				hostName = resolver.getHostName(address);
+			}
+
+			return hostName;
+		}
+
+		@Override
+		public String toString() {
+			return hostName == null ? "<not resolved>" : hostName;
+		}
+	}
+
+	private static WildcardMatcher[] compile(final List<String> patterns) {
+		final WildcardMatcher[] matchers = new WildcardMatcher[patterns.size()];
+
+		for (int i = 0; i < matchers.length; i++) {
+			matchers[i] = WildcardMatcher.compile(patterns.get(i));
+		}
+
+		return matchers;
+	}
+
+	/**
+	 * A {@link Perm} together with everything that can be precomputed for it
+	 */
+	private static final class Rule<T> {
+
+		private final Perm<T> perm;
+
+		private final int ordinal;
+
+		private final boolean anyUser;
+		private final boolean anyRole;
+		private final boolean anyHost;
+		private final boolean anyType;
+		private final boolean anyIndex;
+
+		private final Set<String> users;
+		// the ip patterns which are not in the address tree
+		private final WildcardMatcher[] ipPatterns;
+		// the host patterns which are not ip patterns
+		private final WildcardMatcher[] hostNamePatterns;
+		private final boolean hostNames;
+		private final WildcardMatcher[] types;
+		private final WildcardMatcher[] indices;
+
+		private Rule(final Perm<T> perm, final int ordinal,
+				final InetAddressTree addressTree) {
+			this.perm = perm;
+			this.ordinal = ordinal;
+
+			anyUser = perm.users.isEmpty() || perm.users.contains("*");
+			anyRole = perm.roles.isEmpty() || perm.roles.contains("*");
+			anyHost = perm.inetAddresses.isEmpty()
+					|| perm.inetAddresses.contains("*");
+			anyType = perm.types.isEmpty() || perm.types.contains("*");
+			anyIndex = perm.indices.isEmpty() || perm.indices.contains("*");
+
+			users = new HashSet<String>(perm.users);
+
+			final List<String> ips = new ArrayList<String>();
+			final List<String> hostNames = new ArrayList<String>();
+
+			for (final String host : perm.inetAddresses) {
+				if (anyHost || addressTree.add(host, ordinal)) {
+					continue;
+				}
+
+				if (isIpPattern(host)) {
+					ips.add(host);
+				} else {
+					hostNames.add(host);
+				}
+			}
+
+			ipPatterns = compile(ips);
+			hostNamePatterns = compile(hostNames);
+			this.hostNames = !anyHost && !hostNames.isEmpty();
+			types = compile(perm.types);
+			indices = compile(perm.indices);
+		}
+	}
+
+}
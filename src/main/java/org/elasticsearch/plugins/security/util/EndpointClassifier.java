@@ -0,0 +1,211 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the built-in commands (<code>_search</code>, <code>_bulk</code>,
+ * <code>_refresh</code>, ...) of a request path in a single pass. The path
+ * is split into segments and every segment is looked up in a trie of the
+ * command names compiled from the
+ * <code>SecurityUtil.BUILT_IN_*_COMMANDS</code>, without building any
+ * strings.
+ * <p>
+ * The last non-empty segment is the command of the request, unless the
+ * same command name also appears as an inner segment (an index or type named
+ * like a command). Empty segments of double or trailing slashes are ignored.
+ * Inner segments which are command names are reported separately, see
+ * {@link #nameFlags(int)}.
+ */
+final class EndpointClassifier {
+
+	static final int ADMIN = 1;
+	static final int READ_STRICT = 2;
+	static final int WRITE_STRICT = 4;
+	static final int READ_LAX = 8;
+	static final int WRITE_LAX = 16;
+
+	private static final Node ROOT = build();
+
+	private EndpointClassifier() {
+	}
+
+	/**
+	 * @return the flags of the command and of the command names used as
+	 *         inner segments of the path, packed into one int, see
+	 *         {@link #commandFlags(int)} and {@link #nameFlags(int)}
+	 */
+	static int classify(final String path) {
+		final int length = path.length();
+		int nameFlags = 0;
+		// the commands seen as inner segments, by ordinal
+		long names = 0;
+		// the command of the last non-empty segment seen so far
+		Node command = null;
+
+		for (int i = 0; i <= length; i++) {
+			final int start = i;
+			Node node = ROOT;
+
+			for (; i < length && path.charAt(i) != '/'; i++) {
+				if (node != null) {
+					node = node.child(path.charAt(i));
+				}
+			}
+
+			// empty segments (double or trailing slashes) are skipped
+			if (i == start) {
+				continue;
+			}
+
+			// the previous segment turned out to be an inner one
+			if (command != null) {
+				nameFlags |= command.flags;
+				names |= 1L << command.ordinal;
+			}
+
+			// a command always follows a slash
+			command = start > 0 && node != null && node.ordinal >= 0 ? node
+					: null;
+		}
+
+		final int commandFlags = command == null
+				|| (names & 1L << command.ordinal) != 0 ? 0 : command.flags;
+
+		return nameFlags << 8 | commandFlags;
+	}
+
+	/**
+	 * @return the flags of the command of the path
+	 */
+	static int commandFlags(final int classification) {
+		return classification & 0xff;
+	}
+
+	/**
+	 * @return the flags of all command names used as inner segments (index
+	 *         or type names) of the path
+	 */
+	static int nameFlags(final int classification) {
+		return classification >>> 8;
+	}
+
+	private static Node build() {
+		final Map<String, Integer> commands = new HashMap<String, Integer>();
+		add(commands, SecurityUtil.BUILT_IN_ADMIN_COMMANDS, ADMIN);
+		add(commands, SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT, READ_STRICT);
+		add(commands, SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT, WRITE_STRICT);
+		add(commands, SecurityUtil.BUILT_IN_READ_COMMANDS_LAX, READ_LAX);
+		add(commands, SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX, WRITE_LAX);
+
+		if (commands.size() > 64) {
+			throw new IllegalStateException("Too many built-in commands");
+		}
+
+		final Node.Builder root = new Node.Builder();
+		int ordinal = 0;
+
+		for (final Map.Entry<String, Integer> e : commands.entrySet()) {
+			root.add(e.getKey(), ordinal++, e.getValue());
+		}
+
+		return root.build();
+	}
+
+	private static void add(final Map<String, Integer> commands,
+			final String[] names, final int flag) {
+		for (final String name : names) {
+			final Integer flags = commands.get(name);
+			commands.put(name, flags == null ? flag : flags | flag);
+		}
+	}
+
+	/**
+	 * Immutable trie node, a node with an ordinal ends a command name
+	 */
+	private static final class Node {
+
+		private final char[] keys;
+
+		private final Node[] children;
+
+		private final int ordinal;
+
+		private final int flags;
+
+		private Node(final char[] keys, final Node[] children,
+				final int ordinal, final int flags) {
+			this.keys = keys;
+			this.children = children;
+			this.ordinal = ordinal;
+			this.flags = flags;
+		}
+
+		Node child(final char c) {
+			// keys are sorted
+			int low = 0;
+			int high = keys.length - 1;
+
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+
+				if (keys[mid] < c) {
+					low = mid + 1;
+				} else if (keys[mid] > c) {
+					high = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+
+			return null;
+		}
+
+		private static final class Builder {
+
+			private final Map<Character, Builder> children = new HashMap<Character, Builder>();
+
+			private int ordinal = -1;
+
+			private int flags;
+
+			void add(final String name, final int ordinal, final int flags) {
+				Builder node = this;
+
+				for (int i = 0; i < name.length(); i++) {
+					Builder child = node.children.get(name.charAt(i));
+
+					if (child == null) {
+						child = new Builder();
+						node.children.put(name.charAt(i), child);
+					}
+
+					node = child;
+				}
+
+				node.ordinal = ordinal;
+				node.flags = flags;
+			}
+
+			Node build() {
+				final List<Character> sortedKeys = new ArrayList<Character>(
+						children.keySet());
+				Collections.sort(sortedKeys);
+
+				final char[] keys = new char[sortedKeys.size()];
+				final Node[] nodes = new Node[sortedKeys.size()];
+
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = sortedKeys.get(i);
+					nodes[i] = children.get(keys[i]).build();
+				}
+
+				return new Node(keys, nodes, ordinal, flags);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.base.Charsets;
+
+/**
+ * Loads the keystores of the security.ssl.* settings and exports their
+ * entries as PEM files for TLS implementations which can't read keystores
+ * (OpenSSL).
+ */
+public class KeyStoreUtil {
+
+	private static final int PEM_LINE_LENGTH = 64;
+
+	// PKCS#12 PBE, which both the JDK and OpenSSL can read from PKCS#8
+	private static final String PBE_ALGORITHM = "PBEWithSHA1AndDESede";
+
+	private static final int PBE_ITERATIONS = 10000;
+
+	private static final int PBE_SALT_LENGTH = 16;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private KeyStoreUtil() {
+
+	}
+
+	public static KeyStore load(final String file, final String password,
+			final String type) throws IOException, GeneralSecurityException {
+
+		final KeyStore keystore = KeyStore.getInstance(type);
+		final InputStream in = new FileInputStream(file);
+
+		try {
+			keystore.load(in, password == null ? null : password.toCharArray());
+		} finally {
+			in.close();
+		}
+
+		return keystore;
+	}
+
+	/**
+	 * @return the given alias if not null, otherwise the alias of the first
+	 *         key entry of the keystore
+	 * @throws GeneralSecurityException
+	 *             if there is no such key entry
+	 */
+	public static String keyAlias(final KeyStore keystore, final String alias)
+			throws GeneralSecurityException {
+
+		if (alias != null) {
+			if (!keystore.isKeyEntry(alias)) {
+				throw new GeneralSecurityException("No key with alias '"
+						+ alias + "' in keystore");
+			}
+
+			return alias;
+		}
+
+		final Enumeration<String> aliases = keystore.aliases();
+
+		while (aliases.hasMoreElements()) {
+			final String candidate = aliases.nextElement();
+
+			if (keystore.isKeyEntry(candidate)) {
+				return candidate;
+			}
+		}
+
+		throw new GeneralSecurityException("No key in keystore");
+	}
+
+	/**
+	 * @return a random password of printable ascii characters, to encrypt an
+	 *         exported key with
+	 */
+	public static String newPemPassword() {
+		final byte[] bytes = new byte[24];
+		RANDOM.nextBytes(bytes);
+		return Base64.encodeBytes(bytes);
+	}
+
+	/**
+	 * Writes the private key of the entry as encrypted PKCS#8 PEM. The file is
+	 * created readable by the owner only before anything is written to it.
+	 *
+	 * @throws IOException
+	 *             if the file system does not support POSIX permissions
+	 */
+	public static void writePrivateKey(final KeyStore keystore,
+			final String alias, final String password, final String pemPassword,
+			final File file) throws IOException, GeneralSecurityException {
+
+		final Key key = keystore.getKey(alias, password == null ? null
+				: password.toCharArray());
+
+		if (!(key instanceof PrivateKey)) {
+			throw new GeneralSecurityException("Entry '" + alias
+					+ "' is no private key");
+		}
+
+		final byte[] salt = new byte[PBE_SALT_LENGTH];
+		RANDOM.nextBytes(salt);
+
+		final Cipher cipher = Cipher.getInstance(PBE_ALGORITHM);
+		cipher.init(Cipher.ENCRYPT_MODE, SecretKeyFactory.getInstance(
+				PBE_ALGORITHM).generateSecret(
+						new PBEKeySpec(pemPassword.toCharArray())),
+						new PBEParameterSpec(salt, PBE_ITERATIONS));
+
+		final EncryptedPrivateKeyInfo encrypted = new EncryptedPrivateKeyInfo(
+				cipher.getParameters(), cipher.doFinal(key.getEncoded()));
+
+		createOwnerOnly(file);
+		writePem(file, "ENCRYPTED PRIVATE KEY", encrypted.getEncoded());
+	}
+
+	/**
+	 * Replaces the file by an empty one with rw------- permissions
+	 */
+	private static void createOwnerOnly(final File file) throws IOException {
+		final Path path = file.toPath();
+		Files.deleteIfExists(path);
+
+		try {
+			Files.createFile(path, PosixFilePermissions
+					.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (final UnsupportedOperationException e) {
+			throw new IOException("Unable to restrict " + file
+					+ " to the owner, POSIX permissions not supported", e);
+		}
+	}
+
+	/**
+	 * Writes the certificate chain of the entry as PEM, the certificate of
+	 * the entry first
+	 */
+	public static void writeCertificateChain(final KeyStore keystore,
+			final String alias, final File file) throws IOException,
+			GeneralSecurityException {
+
+		final Certificate[] chain = keystore.getCertificateChain(alias);
+
+		if (chain == null || chain.length == 0) {
+			throw new GeneralSecurityException("No certificate for '" + alias
+					+ "'");
+		}
+
+		writeCertificates(chain, file);
+	}
+
+	/**
+	 * Writes all trusted certificates of the keystore as PEM
+	 */
+	public static void writeTrustedCertificates(final KeyStore keystore,
+			final File file) throws IOException, GeneralSecurityException {
+
+		final List<Certificate> certificates = new ArrayList<Certificate>();
+		final Enumeration<String> aliases = keystore.aliases();
+
+		while (aliases.hasMoreElements()) {
+			final String alias = aliases.nextElement();
+
+			if (keystore.isCertificateEntry(alias)) {
+				certificates.add(keystore.getCertificate(alias));
+			}
+		}
+
+		if (certificates.isEmpty()) {
+			throw new GeneralSecurityException("No trusted certificates in keystore");
+		}
+
+		writeCertificates(certificates.toArray(new Certificate[certificates
+		                                                       .size()]), file);
+	}
+
+	private static void writeCertificates(final Certificate[] certificates,
+			final File file) throws IOException, GeneralSecurityException {
+
+		final byte[][] encoded = new byte[certificates.length][];
+
+		for (int i = 0; i < certificates.length; i++) {
+			encoded[i] = certificates[i].getEncoded();
+		}
+
+		writePem(file, "CERTIFICATE", encoded);
+	}
+
+	private static void writePem(final File file, final String type,
+			final byte[]... blocks) throws IOException {
+
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				Charsets.US_ASCII);
+
+		try {
+			for (final byte[] block : blocks) {
+				final String base64 = Base64.encodeBytes(block);
+
+				out.write("-----BEGIN " + type + "-----\n");
+
+				for (int i = 0; i < base64.length(); i += PEM_LINE_LENGTH) {
+					out.write(base64, i,
+							Math.min(PEM_LINE_LENGTH, base64.length() - i));
+					out.write('\n');
+				}
+
+				out.write("-----END " + type + "-----\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
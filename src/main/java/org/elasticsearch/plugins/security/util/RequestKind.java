@@ -0,0 +1,10 @@
+package org.elasticsearch.plugins.security.util;
+
+/**
+ * What a request does, as far as the action path filter is concerned.
+ * Admin requests need the ALL perm level, write requests READWRITE and read
+ * requests READONLY.
+ */
+public enum RequestKind {
+	READ, WRITE, ADMIN;
+}
@@ -0,0 +1,227 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.rest.RestRequest.Method;
+
+/**
+ * The indices, types, id and command classification of a request path,
+ * parsed once per request (see {@link SecurityUtil#getRequestPath}) instead
+ * of on every access by the filters.
+ */
+public final class RequestPath {
+
+	private static final ESLogger log = Loggers.getLogger(RequestPath.class);
+
+	private final String path;
+
+	// null if the path is not absolute
+	private final List<String> indices;
+
+	private final List<String> types;
+
+	private final String id;
+
+	private final boolean admin;
+
+	private final boolean writeStrict;
+
+	private final boolean writeLax;
+
+	// see EndpointClassifier#nameFlags(int)
+	private final int commandNames;
+
+	private RequestPath(final String path, final List<String> indices,
+			final List<String> types, final String id, final Method method,
+			final int classification) {
+		this.path = path;
+		this.indices = indices;
+		this.types = types;
+		this.id = id;
+
+		final int command = EndpointClassifier.commandFlags(classification);
+		admin = (command & EndpointClassifier.ADMIN) != 0;
+		writeStrict = isWrite(method, command, EndpointClassifier.READ_STRICT,
+				EndpointClassifier.WRITE_STRICT);
+		writeLax = isWrite(method, command, EndpointClassifier.READ_LAX,
+				EndpointClassifier.WRITE_LAX);
+		commandNames = EndpointClassifier.nameFlags(classification);
+	}
+
+	/**
+	 * DELETE and PUT always write, POST writes unless the command is a read
+	 * command
+	 */
+	private static boolean isWrite(final Method method, final int command,
+			final int read, final int write) {
+		return method == Method.DELETE || method == Method.PUT
+				|| method == Method.POST && (command & read) == 0
+				|| (command & write) != 0;
+	}
+
+	/**
+	 * @param path
+	 *            the decoded path
+	 */
+	public static RequestPath parse(final Method method, final String path) {
+		final RequestPath requestPath = new RequestPath(path,
+				parseIndices(path), parseTypes(path), parseId(path), method,
+				EndpointClassifier.classify(path));
+
+		if (log.isDebugEnabled()) {
+			log.debug("Parsed path '" + path + "': indices "
+					+ requestPath.indices + ", types " + requestPath.types
+					+ ", id " + requestPath.id + ", "
+					+ requestPath.getKind(true) + " (strict), "
+					+ requestPath.getKind(false) + " (lax)");
+		}
+
+		return requestPath;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the indices, empty for requests without indices (like
+	 *         /_cluster/health), null if the path is not absolute
+	 */
+	public List<String> getIndices() {
+		return indices;
+	}
+
+	/**
+	 * @return the types, empty for requests without types, null if the path
+	 *         is not absolute
+	 */
+	public List<String> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return the last path element
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return what the request does, admin requests which also write are
+	 *         {@link RequestKind#ADMIN}
+	 */
+	public RequestKind getKind(final boolean strictModeEnabled) {
+
+		if (admin) {
+			return RequestKind.ADMIN;
+		}
+
+		return isWriteRequest(strictModeEnabled) ? RequestKind.WRITE
+				: RequestKind.READ;
+	}
+
+	public boolean isAdminRequest() {
+		return admin;
+	}
+
+	/**
+	 * @return true for write requests, also if they are admin requests
+	 */
+	public boolean isWriteRequest(final boolean strictModeEnabled) {
+		return strictModeEnabled ? writeStrict : writeLax;
+	}
+
+	public boolean isReadRequest(final boolean strictModeEnabled) {
+		return getKind(strictModeEnabled) == RequestKind.READ;
+	}
+
+	/**
+	 * @return true if an index or type is named like an admin command
+	 */
+	public boolean hasAdminCommandAsName() {
+		return (commandNames & EndpointClassifier.ADMIN) != 0;
+	}
+
+	/**
+	 * @return true if an index or type is named like a read command
+	 */
+	public boolean hasReadCommandAsName(final boolean strictModeEnabled) {
+		return (commandNames & (strictModeEnabled ? EndpointClassifier.READ_STRICT
+				: EndpointClassifier.READ_LAX)) != 0;
+	}
+
+	/**
+	 * @return true if an index or type is named like a write command
+	 */
+	public boolean hasWriteCommandAsName(final boolean strictModeEnabled) {
+		return (commandNames & (strictModeEnabled ? EndpointClassifier.WRITE_STRICT
+				: EndpointClassifier.WRITE_LAX)) != 0;
+	}
+
+	private static List<String> parseIndices(final String path) {
+
+		if (!path.startsWith("/")) {
+			return null;
+		}
+
+		// root level requests like /_mapping or /_settings have no indices
+		if (path.length() <= 1 || path.trim().startsWith("/_")) {
+			return Collections.emptyList();
+		}
+
+		int endIndex = path.indexOf('/', 1);
+
+		if (endIndex == -1) {
+			endIndex = path.length();
+		}
+
+		return split(path.substring(1, endIndex));
+	}
+
+	private static List<String> parseTypes(final String path) {
+
+		if (!path.startsWith("/")) {
+			return null;
+		}
+
+		final int endIndex = path.indexOf('/', 1);
+
+		if (path.length() <= 1 || endIndex == -1) {
+			return Collections.emptyList();
+		}
+
+		final int endType = path.indexOf('/', endIndex + 1);
+
+		if (endType == -1) {
+			return Collections.emptyList();
+		}
+
+		return split(path.substring(endIndex + 1, endType));
+	}
+
+	private static String parseId(final String path) {
+
+		if (!path.startsWith("/") || path.length() <= 1) {
+			return null;
+		}
+
+		String id = path.substring(path.lastIndexOf('/') + 1);
+
+		if (id.contains("?")) {
+			id = path.substring(id.indexOf("?") + 1);
+		}
+
+		return id;
+	}
+
+	private static List<String> split(final String value) {
+		return Collections.unmodifiableList(Arrays.asList(Strings
+				.splitStringByCommaToArray(value)));
+	}
+
+}
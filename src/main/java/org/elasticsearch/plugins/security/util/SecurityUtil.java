@@ -5,16 +5,16 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.Arrays;
 import java.util.List;
 
-import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestChannel;
+import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
@@ -131,131 +131,57 @@ public class SecurityUtil {
 		return false;
 	}
 
-	public static List<String> getIndices(final RestRequest request) {
-		String[] indices = new String[0];
-		final String path = request.path();
-		// TODO all indices , length=0
-		log.debug("Evaluate decoded path for indices'" + path + "'");
+	private static final String REQUEST_PATH_KEY = RequestPath.class
+			.getName();
 
-		if (!path.startsWith("/")) {
+	/**
+	 * @return the parsed path of the request, parsed on first access and then
+	 *         kept with the request
+	 */
+	public static RequestPath getRequestPath(final RestRequest request) {
 
-			return null;
+		if (request instanceof TomcatHttpServerRestRequest) {
+			return ((TomcatHttpServerRestRequest) request).getRequestPath();
 		}
 
-		if (path.length() > 1) {
-
-			int endIndex;
-
-			
-			
-			
-			/*			if ((endIndex = path.indexOf('/', 1)) != -1) {
-			indices = Strings.splitStringByCommaToArray(path.substring(1,
-					endIndex));
-
-		}
-*/			
-		/**
-		* (contributed by Ram Kotamaraja)
-		*The above commented code handles code if there is a '/' at the end of the elastic search indices. Code is modified to handle indices where there is no '/' after it.
-		*Code below also handles the root level queries like '/_mapping', '/_settings' etc.			
-		*/
-
-		//Code modification START - Ram Kotamaraja
-		if ((path.indexOf('/', 1)) != -1) {
-			endIndex = path.indexOf('/', 1);
-		}else{
-			endIndex = path.length();
-		}
+		RequestPath requestPath = request.getFromContext(REQUEST_PATH_KEY);
 
-		//check if the index start with /_. If it is not staring, then parse path, if not do nothing to return empty object			
-		if (!path.trim().startsWith("/_")) {
-			indices = Strings.splitStringByCommaToArray(path.substring(1,endIndex));
-		}
-		
-		//Code modification END - Ram Kotamaraja
-			
-			
-			
-			
+		if (requestPath == null) {
+			requestPath = RequestPath.parse(request.method(), request.path());
+			request.putInContext(REQUEST_PATH_KEY, requestPath);
 		}
 
-		log.debug("Indices: " + Arrays.toString(indices));
-		return Arrays.asList(indices);
+		return requestPath;
+	}
 
+	/**
+	 * @see RequestPath#getIndices()
+	 */
+	public static List<String> getIndices(final RestRequest request) {
+		return getRequestPath(request).getIndices();
 	}
 
+	/**
+	 * @see RequestPath#getId()
+	 */
 	public static String getId(final RestRequest request) {
-
-		String id = null;
-		final String path = request.path();
-
-		log.debug("Evaluate decoded path for id '" + path + "'");
-
-		if (!path.startsWith("/")) {
-
-			return null;
-		}
-
-		if (path.length() > 1) {
-
-			int endIndex;
-
-			if ((endIndex = path.lastIndexOf('/')) != -1) {
-				id = path.substring(endIndex + 1);
-
-				if (id.contains("?")) {
-					id = path.substring(id.indexOf("?") + 1);
-
-				}
-
-				// if(id.contains("/")) return null;
-
-			}
-		}
-
-		log.debug("Id: " + id);
-		return id;
-
+		return getRequestPath(request).getId();
 	}
 
+	/**
+	 * @see RequestPath#getTypes()
+	 */
 	public static List<String> getTypes(final RestRequest request) {
-		String[] types = new String[0];
-		final String path = request.path();
-
-		// TODO all types, length=0 or _all ??
-		// TODO aliases indices get expanded before or after rest layer?
-		log.debug("Evaluate decoded path for types '" + path + "'");
-
-		if (!path.startsWith("/")) {
-
-			return null;
-		}
-
-		if (path.length() > 1) {
-
-			int endIndex;
-
-			if ((endIndex = path.indexOf('/', 1)) != -1) {
-
-				int endType;
-
-				if ((endType = path.indexOf('/', endIndex + 1)) != -1) {
-
-					types = Strings.splitStringByCommaToArray(path.substring(
-							endIndex + 1, endType));
-				}
-
-			}
-		}
-
-		log.debug("Types: " + Arrays.toString(types));
-		return Arrays.asList(types);
-
+		return getRequestPath(request).getTypes();
 	}
 
 	public static void send(final RestRequest request,
 			final RestChannel channel, final RestStatus status, final String arg) {
+
+		if (channel instanceof TomcatHttpServerRestChannel) {
+			((TomcatHttpServerRestChannel) channel).markRejected();
+		}
+
 		try {
 
 			final XContentBuilder builder = channel.newBuilder();
@@ -299,53 +225,45 @@ public class SecurityUtil {
 	public static String[] BUILT_IN_READ_COMMANDS_LAX = new String[] { "_search",
 	"_msearch","_mlt", "_explain", "_validate","_count","_suggest", "_percolate",  "_nodes", "_percolator","_mapping", "_aliases", "_analyze"};
 	
-	private static boolean stringContainsItemFromListAsCommand(
+	public static boolean stringContainsItemFromListAsTypeOrIndex(
 			final String inputString, final String[] items) {
-
 		for (int i = 0; i < items.length; i++) {
-			if (inputString.contains("/" + items[i])
-					&& !inputString.contains(items[i] + "/")) {
-
+			if (contains(inputString, items[i])) {
 				return true;
 			}
 		}
-
 		return false;
 	}
 
-	public static boolean stringContainsItemFromListAsTypeOrIndex(
-			final String inputString, final String[] items) {
-		for (int i = 0; i < items.length; i++) {
-			if (inputString.contains("/" + items[i] + "/")) {
+	/**
+	 * Same as <code>value.contains("/" + item + "/")</code> but without
+	 * building the string
+	 */
+	private static boolean contains(final String value, final String item) {
+
+		for (int i = value.indexOf(item); i >= 0; i = value.indexOf(item,
+				i + 1)) {
+			final int end = i + item.length();
+
+			if (i > 0 && value.charAt(i - 1) == '/' && end < value.length()
+					&& value.charAt(end) == '/') {
 				return true;
 			}
 		}
+
 		return false;
 	}
 
 	public static boolean isWriteRequest(final RestRequest request, boolean strictModeEnabled) {
-		if (request.method() == Method.DELETE || request.method() == Method.PUT) {
-			return true;
-		}
-
-		if (request.method() == Method.POST) {
-			if (!stringContainsItemFromListAsCommand(request.path(),
-					strictModeEnabled?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX)) {
-				return true;
-			}
-		}
-
-		return stringContainsItemFromListAsCommand(request.path(),
-				strictModeEnabled?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX);
+		return getRequestPath(request).isWriteRequest(strictModeEnabled);
 	}
 
 	public static boolean isAdminRequest(final RestRequest request) {
-		return stringContainsItemFromListAsCommand(request.path(),
-				BUILT_IN_ADMIN_COMMANDS);
+		return getRequestPath(request).isAdminRequest();
 	}
 
 	public static boolean isReadRequest(final RestRequest request, boolean strictModeEnabled) {
-		return !isWriteRequest(request, strictModeEnabled) && !isAdminRequest(request);
+		return getRequestPath(request).isReadRequest(strictModeEnabled);
 	}
 	
 	public static XContentType xContentTypefromRestContentType(String contentType) {
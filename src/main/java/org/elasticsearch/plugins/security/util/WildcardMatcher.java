@@ -0,0 +1,274 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled matcher for simple glob patterns where <code>*</code> matches
+ * any sequence of characters (including none). All other characters are
+ * matched literally.
+ * <p>
+ * Common pattern shapes (literal, <code>abc*</code>, <code>*abc</code>,
+ * <code>*abc*</code>) are matched with a single string operation, everything
+ * else is matched segment by segment in one left to right pass. Instances are
+ * immutable and thread safe.
+ */
+public abstract class WildcardMatcher {
+
+	private static final char WILDCARD = '*';
+
+	protected final String pattern;
+
+	private WildcardMatcher(final String pattern) {
+		this.pattern = pattern;
+	}
+
+	public static WildcardMatcher compile(final String pattern) {
+
+		if (pattern == null) {
+			throw new IllegalArgumentException("pattern must not be null");
+		}
+
+		final int first = pattern.indexOf(WILDCARD);
+
+		if (first == -1) {
+			return new Literal(pattern);
+		}
+
+		final List<String> segments = split(pattern);
+
+		if (segments.isEmpty()) {
+			return new MatchAll(pattern);
+		}
+
+		final boolean leading = pattern.charAt(0) == WILDCARD;
+		final boolean trailing = pattern.charAt(pattern.length() - 1) == WILDCARD;
+
+		if (segments.size() == 1) {
+			final String segment = segments.get(0);
+
+			if (leading && trailing) {
+				return new Contains(pattern, segment);
+			}
+
+			if (trailing) {
+				return new Prefix(pattern, segment);
+			}
+
+			if (leading) {
+				return new Suffix(pattern, segment);
+			}
+		}
+
+		return new Segments(pattern, segments, leading, trailing);
+	}
+
+	/**
+	 * Symmetric match of two values where either one may contain wildcards.
+	 * Compiles both values on every call, so use it only outside of hot
+	 * paths.
+	 */
+	public static boolean isWildcardMatch(final String a, final String b) {
+		return compile(a).matches(b) || compile(b).matches(a);
+	}
+
+	public static boolean containsWildcard(final String value) {
+		return value != null && value.indexOf(WILDCARD) != -1;
+	}
+
+	public abstract boolean matches(String candidate);
+
+	public String pattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return true if the pattern contains no wildcard at all
+	 */
+	public boolean isLiteral() {
+		return false;
+	}
+
+	/**
+	 * @return true if this pattern matches every value
+	 */
+	public boolean isMatchAll() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	private static List<String> split(final String pattern) {
+		final List<String> segments = new ArrayList<String>();
+		int start = 0;
+		int idx;
+
+		while ((idx = pattern.indexOf(WILDCARD, start)) != -1) {
+			if (idx > start) {
+				segments.add(pattern.substring(start, idx));
+			}
+			start = idx + 1;
+		}
+
+		if (start < pattern.length()) {
+			segments.add(pattern.substring(start));
+		}
+
+		return segments;
+	}
+
+	private static final class Literal extends WildcardMatcher {
+
+		private Literal(final String pattern) {
+			super(pattern);
+		}
+
+		@Override
+		public boolean matches(final String candidate) {
+			return pattern.equals(candidate);
+		}
+
+		@Override
+		public boolean isLiteral() {
+			return true;
+		}
+	}
+
+	private static final class MatchAll extends WildcardMatcher {
+
+		private MatchAll(final String pattern) {
+			super(pattern);
+		}
+
+		@Override
+		public boolean matches(final String candidate) {
+			return candidate != null;
+		}
+
+		@Override
+		public boolean isMatchAll() {
+			return true;
+		}
+	}
+
+	private static final class Prefix extends WildcardMatcher {
+
+		private final String prefix;
+
+		private Prefix(final String pattern, final String prefix) {
+			super(pattern);
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean matches(final String candidate) {
+			return candidate != null && candidate.startsWith(prefix);
+		}
+	}
+
+	private static final class Suffix extends WildcardMatcher {
+
+		private final String suffix;
+
+		private Suffix(final String pattern, final String suffix) {
+			super(pattern);
+			this.suffix = suffix;
+		}
+
+		@Override
+		public boolean matches(final String candidate) {
+			return candidate != null && candidate.endsWith(suffix);
+		}
+	}
+
+	private static final class Contains extends WildcardMatcher {
+
+		private final String infix;
+
+		private Contains(final String pattern, final String infix) {
+			super(pattern);
+			this.infix = infix;
+		}
+
+		@Override
+		public boolean matches(final String candidate) {
+			return candidate != null && candidate.contains(infix);
+		}
+	}
+
+	/**
+	 * General case: the literal segments between the wildcards have to occur
+	 * in order. Taking the leftmost occurrence of every segment is always
+	 * sufficient because <code>*</code> is the only metacharacter, so no
+	 * backtracking is needed.
+	 */
+	private static final class Segments extends WildcardMatcher {
+
+		private final String[] segments;
+		private final boolean leading;
+		private final boolean trailing;
+		private final int minLength;
+
+		private Segments(final String pattern, final List<String> segments,
+				final boolean leading, final boolean trailing) {
+			super(pattern);
+			this.segments = segments.toArray(new String[segments.size()]);
+			this.leading = leading;
+			this.trailing = trailing;
+
+			int len = 0;
+			for (final String segment : this.segments) {
+				len += segment.length();
+			}
+			minLength = len;
+		}
+
+		@Override
+		public boolean matches(final String candidate) {
+
+			if (candidate == null || candidate.length() < minLength) {
+				return false;
+			}
+
+			int from = 0;
+			int first = 0;
+			int last = segments.length;
+
+			if (!leading) {
+				if (!candidate.startsWith(segments[0])) {
+					return false;
+				}
+				from = segments[0].length();
+				first = 1;
+			}
+
+			if (!trailing) {
+				final String tail = segments[segments.length - 1];
+				if (!candidate.endsWith(tail)
+						|| candidate.length() - tail.length() < from) {
+					return false;
+				}
+				last = segments.length - 1;
+			}
+
+			final int end = trailing ? candidate.length() : candidate.length()
+					- segments[segments.length - 1].length();
+
+			for (int i = first; i < last; i++) {
+				final int idx = candidate.indexOf(segments[i], from);
+
+				if (idx == -1 || idx + segments[i].length() > end) {
+					return false;
+				}
+
+				from = idx + segments[i].length();
+			}
+
+			return true;
+		}
+	}
+
+}
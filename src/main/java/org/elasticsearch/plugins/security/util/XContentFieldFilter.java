@@ -0,0 +1,265 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.common.xcontent.XContentType;
+
+/**
+ * Copies the fields of a document which match a set of include paths from a
+ * parser to a generator, token by token.
+ * <p>
+ * The result is the same as serializing
+ * <code>XContentMapValues.filter(map, includes, null)</code> but no map tree
+ * is built, memory usage depends only on the nesting depth of the document.
+ * Objects which are only on the way to an included path are written lazily,
+ * when the first included value below them shows up, so (like with the map
+ * based filter) they are omitted if nothing below them is included. Arrays on
+ * the way to an included path are always written.
+ */
+public final class XContentFieldFilter {
+
+	private static final int NONE = 0;
+	private static final int PREFIX = 1;
+	private static final int EXACT = 2;
+
+	private final XContentParser parser;
+
+	private final XContentGenerator generator;
+
+	private final String[] includes;
+
+	private final StringBuilder path = new StringBuilder();
+
+	// objects and arrays entered, the first written ones are already started
+	// in the output
+	private final List<Frame> frames = new ArrayList<Frame>();
+
+	private int written;
+
+	private XContentFieldFilter(final XContentParser parser,
+			final XContentGenerator generator, final String[] includes) {
+		this.parser = parser;
+		this.generator = generator;
+		this.includes = includes;
+	}
+
+	/**
+	 * Filters the object the parser is positioned at (or the next one if the
+	 * parser was not advanced yet). Only paths matching one of the includes
+	 * are copied, like <code>hits.hits._source.field</code> or
+	 * <code>_shards*</code>.
+	 *
+	 * @throws IOException
+	 *             if the content is not an object
+	 */
+	public static void filter(final XContentParser parser,
+			final XContentGenerator generator, final String[] includes)
+					throws IOException {
+
+		Token token = parser.currentToken();
+
+		if (token == null) {
+			token = parser.nextToken();
+		}
+
+		if (token != Token.START_OBJECT) {
+			throw new IOException("Expected an object but got " + token);
+		}
+
+		if (includes.length == 0) {
+			generator.copyCurrentStructure(parser);
+			return;
+		}
+
+		final XContentFieldFilter filter = new XContentFieldFilter(parser,
+				generator, includes);
+
+		// the root object is always written, even if empty
+		filter.enter(null, false);
+		filter.write();
+		filter.filterObject();
+		filter.exit();
+	}
+
+	/**
+	 * Filters a whole document into a new one of the same content type
+	 */
+	public static BytesReference filter(final BytesReference content,
+			final String[] includes) throws IOException {
+
+		final XContentType xContentType = XContentFactory.xContentType(content);
+		final XContentBuilder builder = XContentFactory
+				.contentBuilder(xContentType);
+		final XContentParser parser = XContentFactory.xContent(xContentType)
+				.createParser(content);
+
+		try {
+			filter(parser, builder.generator(), includes);
+		} finally {
+			parser.close();
+		}
+
+		return builder.bytes();
+	}
+
+	private void filterObject() throws IOException {
+
+		Token token;
+
+		while ((token = parser.nextToken()) != Token.END_OBJECT) {
+
+			final String name = parser.currentName();
+			token = parser.nextToken();
+
+			final int mark = path.length();
+
+			if (mark > 0) {
+				path.append('.');
+			}
+
+			path.append(name);
+
+			final int match = match(path.toString());
+
+			if (match == NONE) {
+				parser.skipChildren();
+
+			} else if (match == EXACT) {
+				write();
+				generator.writeFieldName(name);
+				generator.copyCurrentStructure(parser);
+
+			} else if (token == Token.START_OBJECT) {
+				enter(name, false);
+				filterObject();
+				exit();
+
+			} else if (token == Token.START_ARRAY) {
+				enter(name, true);
+				// arrays are kept even if all elements are filtered out
+				write();
+				filterArray();
+				exit();
+			}
+
+			path.setLength(mark);
+		}
+	}
+
+	private void filterArray() throws IOException {
+
+		Token token;
+
+		while ((token = parser.nextToken()) != Token.END_ARRAY) {
+
+			if (token == Token.START_OBJECT) {
+				enter(null, false);
+				filterObject();
+				exit();
+
+			} else if (token == Token.START_ARRAY) {
+				enter(null, true);
+				filterArray();
+				exit();
+
+			} else {
+				// values in arrays are kept
+				write();
+				generator.copyCurrentStructure(parser);
+			}
+		}
+	}
+
+	private int match(final String currentPath) {
+
+		boolean prefix = false;
+
+		for (final String include : includes) {
+
+			// same rules as XContentMapValues.filter
+			if (include.charAt(0) == '*') {
+				if (Regex.simpleMatch(include, currentPath)) {
+					return EXACT;
+				}
+				prefix = true;
+				continue;
+			}
+
+			if (include.startsWith(currentPath)) {
+				if (include.length() == currentPath.length()) {
+					return EXACT;
+				} else if (include.charAt(currentPath.length()) == '.') {
+					prefix = true;
+					continue;
+				}
+			}
+
+			if (Regex.simpleMatch(include, currentPath)) {
+				return EXACT;
+			}
+		}
+
+		return prefix ? PREFIX : NONE;
+	}
+
+	private void enter(final String name, final boolean array) {
+		frames.add(new Frame(name, array));
+	}
+
+	private void exit() throws IOException {
+		final Frame frame = frames.remove(frames.size() - 1);
+
+		if (written > frames.size()) {
+			written--;
+
+			if (frame.array) {
+				generator.writeEndArray();
+			} else {
+				generator.writeEndObject();
+			}
+		}
+	}
+
+	/**
+	 * Writes all pending object and array starts, called before anything is
+	 * written into them
+	 */
+	private void write() throws IOException {
+
+		for (; written < frames.size(); written++) {
+			final Frame frame = frames.get(written);
+
+			if (frame.name != null) {
+				generator.writeFieldName(frame.name);
+			}
+
+			if (frame.array) {
+				generator.writeStartArray();
+			} else {
+				generator.writeStartObject();
+			}
+		}
+	}
+
+	private static final class Frame {
+
+		// null for array elements and the root
+		private final String name;
+		private final boolean array;
+
+		private Frame(final String name, final boolean array) {
+			this.name = name;
+			this.array = array;
+		}
+	}
+
+}
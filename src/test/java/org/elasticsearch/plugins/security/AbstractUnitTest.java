@@ -42,6 +42,9 @@ import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.ImmutableSettings.Builder;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
 import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSCredential;
@@ -130,6 +133,8 @@ public abstract class AbstractUnitTest {
 
 	EsSetup esSetup;
 
+	private final List<Node> nodes = new ArrayList<Node>();
+
 	@Before
 	public void setUp() throws Exception {
 
@@ -170,6 +175,12 @@ public abstract class AbstractUnitTest {
 
 		// This will stop and clean the local node
 
+		for (final Node node : nodes) {
+			node.close();
+		}
+
+		nodes.clear();
+
 		if(esSetup != null) {
 			esSetup.terminate();
 		}
@@ -182,6 +193,35 @@ public abstract class AbstractUnitTest {
 
 
 
+	/**
+	 * Starts another node which joins the cluster of the test node, it is
+	 * closed after the test
+	 * 
+	 * @param settings
+	 *            overrides the settings of the test node, like http.port
+	 */
+	protected Node startNode(final Settings settings) {
+		final String clusterName = esSetup.client().admin().cluster()
+				.prepareState().get().getClusterName().value();
+
+		final Node node = NodeBuilder
+				.nodeBuilder()
+				.local(true)
+				.settings(
+						ImmutableSettings.settingsBuilder()
+						.put(settingsBuilder.build())
+						.put("cluster.name", clusterName).put(settings))
+						.node();
+		nodes.add(node);
+
+		// shards moved to the new node are started before the test goes on
+		esSetup.client().admin().cluster().prepareHealth()
+		.setWaitForNodes(String.valueOf(nodes.size() + 1))
+		.setWaitForGreenStatus().setWaitForRelocatingShards(0).get();
+
+		return node;
+	}
+
 	protected JestResult executeIndex(final String file, final String index,
 			final String type, final String id, final boolean mustBeSuccesfull)
 					throws Exception {
@@ -0,0 +1,247 @@
+package org.elasticsearch.plugins.security;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.plugins.security.http.tomcat.HttpRequestStats;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Requests answered after security.http.tomcat.async.timeout, with servlet
+ * async support and with the blocking fallback
+ */
+public class AsyncDispatchTests extends AbstractUnitTest {
+
+	// counted down after the slow handler sent its response
+	static volatile CountDownLatch sent;
+
+	@Before
+	public void setUpConfiguration() throws Exception {
+		sent = new CountDownLatch(1);
+		executeIndex("ur_test_all.json", "securityconfiguration",
+				"actionpathfilter", "actionpathfilter", true);
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		final Node node = startNode(ImmutableSettings.settingsBuilder()
+				.put("http.port", "8081")
+				.put("plugin.types", SlowPlugin.class.getName())
+				.put("security.http.tomcat.async.timeout", "500ms").build());
+
+		final long start = System.nanoTime();
+		Assert.assertEquals(503, status("/_test/slow?delay=3000"));
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS
+				.toNanos(3));
+
+		// the late response is dropped without touching the servlet response
+		Assert.assertTrue(sent.await(10, TimeUnit.SECONDS));
+		final SortedMap<Integer, Long> statusCounts = securityService(node)
+				.getRequestStats().getStatusCounts();
+		Assert.assertEquals(1, statusCounts.size());
+		Assert.assertEquals(Long.valueOf(1), statusCounts.get(503));
+
+		// the connector still serves requests in time
+		Assert.assertEquals(200, status("/_test/slow?delay=0"));
+		awaitCount(securityService(node).getRequestStats(), 2);
+		Assert.assertEquals(Long.valueOf(1), securityService(node)
+				.getRequestStats().getStatusCounts().get(200));
+	}
+
+	@Test
+	public void timeoutWhileWriting() throws Exception {
+		final Node node = startNode(ImmutableSettings.settingsBuilder()
+				.put("http.port", "8081")
+				.put("plugin.types", SlowPlugin.class.getName())
+				.put("security.http.tomcat.async.timeout", "500ms").build());
+
+		// the response is sent in time, but writing it outlasts the timeout
+		Assert.assertEquals("slow", get("/_test/slow?delay=0&write=1500"));
+		Assert.assertTrue(sent.await(10, TimeUnit.SECONDS));
+		awaitCount(securityService(node).getRequestStats(), 1);
+
+		final SortedMap<Integer, Long> statusCounts = securityService(node)
+				.getRequestStats().getStatusCounts();
+		Assert.assertEquals(1, statusCounts.size());
+		Assert.assertEquals(Long.valueOf(1), statusCounts.get(200));
+
+		// the servlet response was not recycled under the writer
+		Assert.assertEquals("slow", get("/_test/slow?delay=0"));
+	}
+
+	@Test
+	public void blockingFallback() throws Exception {
+		final Node node = startNode(ImmutableSettings.settingsBuilder()
+				.put("http.port", "8081")
+				.put("plugin.types", SlowPlugin.class.getName())
+				.put("security.http.tomcat.async.enabled", false)
+				.put("security.http.tomcat.async.timeout", "500ms").build());
+
+		// the servlet thread waits for the response, there is no timeout
+		Assert.assertEquals(200, status("/_test/slow?delay=1500"));
+		Assert.assertTrue(sent.await(10, TimeUnit.SECONDS));
+		awaitCount(securityService(node).getRequestStats(), 1);
+
+		final SortedMap<Integer, Long> statusCounts = securityService(node)
+				.getRequestStats().getStatusCounts();
+		Assert.assertEquals(1, statusCounts.size());
+		Assert.assertEquals(Long.valueOf(1), statusCounts.get(200));
+	}
+
+	private static SecurityService securityService(final Node node) {
+		return ((InternalNode) node).injector().getInstance(
+				SecurityService.class);
+	}
+
+	/**
+	 * The stats are recorded after the response was written
+	 */
+	private static void awaitCount(final HttpRequestStats stats,
+			final long count) throws InterruptedException {
+		for (int i = 0; i < 100 && stats.getCount() < count; i++) {
+			Thread.sleep(50);
+		}
+
+		Assert.assertEquals(count, stats.getCount());
+	}
+
+	/**
+	 * @return the status of a GET request to the other node
+	 */
+	private static int status(final String path) throws Exception {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:8081" + path).openConnection();
+		connection.setReadTimeout(10000);
+
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * @return the body of a successful GET request to the other node
+	 */
+	private static String get(final String path) throws Exception {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:8081" + path).openConnection();
+		connection.setReadTimeout(10000);
+
+		try {
+			Assert.assertEquals(200, connection.getResponseCode());
+			return Streams.copyToString(new InputStreamReader(connection
+					.getInputStream(), "UTF-8"));
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	public static class SlowPlugin extends AbstractPlugin {
+
+		@Override
+		public String name() {
+			return "slow-rest-handler";
+		}
+
+		@Override
+		public String description() {
+			return "Answers /_test/slow after the given delay, and writes the response as slow as requested";
+		}
+
+		public void onModule(final RestModule module) {
+			module.addRestAction(SlowRestHandler.class);
+		}
+	}
+
+	public static class SlowRestHandler extends BaseRestHandler {
+
+		private final ThreadPool threadPool;
+
+		@Inject
+		public SlowRestHandler(final Settings settings,
+				final RestController controller, final Client client,
+				final ThreadPool threadPool) {
+			super(settings, controller, client);
+			this.threadPool = threadPool;
+			controller.registerHandler(RestRequest.Method.GET, "/_test/slow",
+					this);
+		}
+
+		@Override
+		protected void handleRequest(final RestRequest request,
+				final RestChannel channel, final Client client) {
+			final long write = request.paramAsLong("write", 0);
+			threadPool.schedule(
+					TimeValue.timeValueMillis(request.paramAsLong("delay", 0)),
+					ThreadPool.Names.GENERIC, new Runnable() {
+
+						@Override
+						public void run() {
+							// text is not filtered by dls
+							channel.sendResponse(new BytesRestResponse(
+									RestStatus.OK, BytesRestResponse.TEXT_CONTENT_TYPE,
+									new SlowBytes("slow", write), true));
+							sent.countDown();
+						}
+					});
+		}
+	}
+
+	/**
+	 * Writes the first half, flushes it to the client and writes the rest
+	 * after a delay
+	 */
+	private static class SlowBytes extends BytesArray {
+
+		private final long delay;
+
+		private SlowBytes(final String text, final long delay) {
+			super(text);
+			this.delay = delay;
+		}
+
+		@Override
+		public void writeTo(final OutputStream os) throws IOException {
+			final int half = length() / 2;
+			os.write(array(), arrayOffset(), half);
+			os.flush();
+
+			try {
+				Thread.sleep(delay);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			os.write(array(), arrayOffset() + half, length() - half);
+		}
+	}
+
+}
@@ -0,0 +1,274 @@
+package org.elasticsearch.plugins.security;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.KeyStore;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.plugins.security.http.netty.NettySecureHttpServerTransport;
+import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The scenarios of SecurityPermTests and DlsTests end to end over a node
+ * which serves http with the {@link NettySecureHttpServerTransport}
+ */
+public class NettySecureHttpServerTransportTests extends AbstractUnitTest {
+
+	// the user of a client certificate has no roles
+	private static final String PERM_NELSONH = "{\"rules\":[{\"permission\":\"NONE\"},"
+			+ "{\"users\":[\"nelsonh\"],\"permission\":\"READONLY\"}]}";
+
+	private static final String DLS_NELSONH = "{\"rules\":[{\"dlstoken\":[\"default,everyone\"]},"
+			+ "{\"users\":[\"nelsonh\"],\"dlstoken\":[\"guesttoken\"]}]}";
+
+	private static final String MESSAGE = "playing with Elastic Search";
+
+	@Test
+	public void permissions() throws Exception {
+		configure(loadFile("test_normal.json"),
+				loadFile("dls_test_normal.json"));
+		esSetup.client().prepareIndex("testindex1", "type1", "1")
+		.setSource("{\"a\":1}").setRefresh(true).get();
+		esSetup.client().admin().indices().prepareCreate("testindex2").get();
+
+		startNode(ImmutableSettings.settingsBuilder().put(nettySettings())
+				.put("security.http.xforwardedfor.header", "X-Forwarded-For")
+				.put("security.http.xforwardedfor.trustedproxies", "127.0.0.1")
+				.build());
+
+		final String search = "/testindex1,testindex2/_search";
+		Assert.assertEquals(200, status("GET", search, "8.8.8.9"));
+		Assert.assertEquals(200, status("GET", search, "8.8.8.8"));
+		Assert.assertEquals(200, status("GET", search, null));
+		Assert.assertEquals(403, status("GET", search, "1.2.3.4"));
+
+		final String write = "/testindex1/type1/2";
+		Assert.assertEquals(201, status("PUT", write, "8.8.8.9"));
+		Assert.assertEquals(200, status("PUT", write, "8.8.8.8"));
+		Assert.assertEquals(403, status("PUT", write, null));
+		Assert.assertEquals(403, status("PUT", write, "1.2.3.4"));
+	}
+
+	@Test
+	public void dls() throws Exception {
+		configure(loadFile("ur_test_all.json"),
+				loadFile("dls_test_normal.json"));
+		indexTweet();
+
+		startNode(nettySettings());
+
+		// default,everyone may read no field, only the hit remains
+		final String body = get(open("http://localhost:8081/twitter/_search"));
+		Assert.assertTrue(body, body.contains("\"_id\":\"1\""));
+		Assert.assertFalse(body, body.contains(MESSAGE));
+	}
+
+	@Test
+	public void clientCertificateUser() throws Exception {
+		configure(PERM_NELSONH, DLS_NELSONH);
+		indexTweet();
+
+		startNode(ImmutableSettings
+				.settingsBuilder()
+				.put(nettySettings())
+				.put("security.ssl.enabled", true)
+				.put("security.ssl.keystorefile", path("netty_server.p12"))
+				.put("security.ssl.keystoretype", "PKCS12")
+				.put("security.ssl.clientauth.enabled", true)
+				.put("security.ssl.clientauth.truststorefile",
+						path("netty_truststore.jks"))
+						.put("security.ssl.userattribute", "CN").build());
+
+		// the fixtures from src/test/resources expired, these are self-signed
+		// and valid for a century; CN=nelsonh may read and gets the guesttoken
+		final HttpsURLConnection connection = (HttpsURLConnection) open("https://localhost:8081/twitter/_search");
+		connection.setSSLSocketFactory(clientContext().getSocketFactory());
+		final String body = get(connection);
+		Assert.assertTrue(body, body.contains(MESSAGE));
+	}
+
+	@Test
+	public void dispatchedOffTheIoThreads() throws Exception {
+		configure(loadFile("ur_test_all.json"),
+				loadFile("dls_test_normal.json"));
+
+		startNode(ImmutableSettings.settingsBuilder().put(nettySettings())
+				.put("plugin.types", ThreadPlugin.class.getName()).build());
+
+		final String thread = get(open("http://localhost:8081/_test/thread"));
+		Assert.assertTrue(thread, thread.contains("[generic]"));
+	}
+
+	private void configure(final String actionPathFilter, final String dls)
+			throws Exception {
+		esSetup.client()
+		.prepareIndex("securityconfiguration", "actionpathfilter",
+				"actionpathfilter").setSource(actionPathFilter)
+				.get();
+		esSetup.client()
+		.prepareIndex("securityconfiguration", "dlspermissions",
+				"default")
+				.setSource(loadFile("dls_default_test_allowall.json")).get();
+		esSetup.client()
+		.prepareIndex("securityconfiguration", "dlspermissions",
+				"dlspermissions").setSource(dls).setRefresh(true).get();
+	}
+
+	private void indexTweet() throws Exception {
+		esSetup.client().prepareIndex("twitter", "tweet", "1")
+		.setSource(loadFile("dls_dummy_content.json")).setRefresh(true)
+		.get();
+	}
+
+	private static Settings nettySettings() {
+		return ImmutableSettings.settingsBuilder()
+				.put("http.type", NettySecureHttpServerTransport.class.getName())
+				.put("http.port", "8081").build();
+	}
+
+	private static String path(final String resource) {
+		return SecurityUtil.getAbsoluteFilePathFromClassPath(resource)
+				.getAbsolutePath();
+	}
+
+	private static SSLContext clientContext() throws Exception {
+		final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		final KeyStore trustStore = KeyStore.getInstance("JKS");
+		final InputStream keyIn = new FileInputStream(
+				path("netty_client.p12"));
+		final InputStream trustIn = new FileInputStream(path("netty_truststore.jks"));
+
+		try {
+			keyStore.load(keyIn, "changeit".toCharArray());
+			trustStore.load(trustIn, "changeit".toCharArray());
+		} finally {
+			keyIn.close();
+			trustIn.close();
+		}
+
+		final KeyManagerFactory kmf = KeyManagerFactory
+				.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, "changeit".toCharArray());
+		final TrustManagerFactory tmf = TrustManagerFactory
+				.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(trustStore);
+
+		final SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+		return sslContext;
+	}
+
+	private static HttpURLConnection open(final String url) throws Exception {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url)
+		.openConnection();
+		connection.setReadTimeout(10000);
+		return connection;
+	}
+
+	/**
+	 * @return the body of a successful GET request
+	 */
+	private static String get(final HttpURLConnection connection)
+			throws Exception {
+		try {
+			Assert.assertEquals(200, connection.getResponseCode());
+			return Streams.copyToString(new InputStreamReader(
+					connection.getInputStream(), "UTF-8"));
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * @param forwardedFor
+	 *            the client address announced by the loopback proxy, null
+	 *            for none
+	 * @return the status of a request to the other node
+	 */
+	private static int status(final String method, final String path,
+			final String forwardedFor) throws Exception {
+		final HttpURLConnection connection = open("http://localhost:8081"
+				+ path);
+		connection.setRequestMethod(method);
+
+		if (forwardedFor != null) {
+			connection.setRequestProperty("X-Forwarded-For", forwardedFor);
+		}
+
+		if ("PUT".equals(method)) {
+			connection.setDoOutput(true);
+			final OutputStream out = connection.getOutputStream();
+
+			try {
+				out.write("{\"a\":2}".getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+		}
+
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	public static class ThreadPlugin extends AbstractPlugin {
+
+		@Override
+		public String name() {
+			return "thread-rest-handler";
+		}
+
+		@Override
+		public String description() {
+			return "Answers /_test/thread with the name of the handling thread";
+		}
+
+		public void onModule(final RestModule module) {
+			module.addRestAction(ThreadRestHandler.class);
+		}
+	}
+
+	public static class ThreadRestHandler extends BaseRestHandler {
+
+		@Inject
+		public ThreadRestHandler(final Settings settings,
+				final RestController controller, final Client client) {
+			super(settings, controller, client);
+			controller.registerHandler(RestRequest.Method.GET, "/_test/thread",
+					this);
+		}
+
+		@Override
+		protected void handleRequest(final RestRequest request,
+				final RestChannel channel, final Client client) {
+			channel.sendResponse(new BytesRestResponse(RestStatus.OK, Thread
+					.currentThread().getName()));
+		}
+	}
+
+}
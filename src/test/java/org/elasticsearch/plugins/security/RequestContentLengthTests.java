@@ -0,0 +1,61 @@
+package org.elasticsearch.plugins.security;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.SortedMap;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.plugins.security.http.tomcat.HttpRequestStats;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Requests with a declared Content-Length above http.max_content_length are
+ * refused before they are dispatched, and still show up in the request
+ * statistics
+ */
+public class RequestContentLengthTests extends AbstractUnitTest {
+
+	@Test
+	public void refusedBeforeDispatch() throws Exception {
+		executeIndex("ur_test_all.json", "securityconfiguration",
+				"actionpathfilter", "actionpathfilter", true);
+
+		final Node node = startNode(ImmutableSettings.settingsBuilder()
+				.put("http.port", "8081")
+				.put("http.max_content_length", "100b").build());
+
+		final HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:8081/twitter/tweet/1").openConnection();
+		connection.setRequestMethod("PUT");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(1000);
+
+		try {
+			final OutputStream out = connection.getOutputStream();
+
+			try {
+				out.write(new byte[1000]);
+			} finally {
+				out.close();
+			}
+
+			Assert.assertEquals(413, connection.getResponseCode());
+		} finally {
+			connection.disconnect();
+		}
+
+		final HttpRequestStats stats = ((InternalNode) node).injector()
+				.getInstance(SecurityService.class).getRequestStats();
+		final SortedMap<Integer, Long> statusCounts = stats.getStatusCounts();
+		Assert.assertEquals(1, statusCounts.size());
+		Assert.assertEquals(Long.valueOf(1), statusCounts.get(413));
+		Assert.assertEquals(1,
+				stats.getCount(HttpRequestStats.Outcome.FORBIDDEN));
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.elasticsearch.plugins.security;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.plugins.security.service.SecurityConfigurationPublisher;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Writes to the security configuration index reach the other nodes by push
+ * notification, whichever way they are written
+ */
+public class SecurityConfigurationPushTests extends AbstractUnitTest {
+
+	private static final String ALLOW = "{\"rules\":[{\"permission\":\"ALL\"}]}";
+
+	private static final String DENY = "{\"rules\":[{\"permission\":\"NONE\"}]}";
+
+	@Override
+	protected Properties getProperties() {
+
+		final Properties props = new Properties();
+		props.putAll(super.getProperties());
+		// no periodic refresh, only a push can update the other node
+		props.setProperty("security.configuration.cache.refresh_interval",
+				"0");
+		return props;
+	}
+
+	@Test
+	public void transportClientWrite() throws Exception {
+
+		executeIndex("ur_test_all.json", "securityconfiguration",
+				"actionpathfilter", "actionpathfilter", true);
+		executeIndex("dummy_content.json", "twitter", "tweet", "1", true);
+		indexDlsConfiguration();
+
+		final Node other = startNode(ImmutableSettings.settingsBuilder()
+				.put("http.port", "8081").build());
+
+		Assert.assertEquals(200, status("GET", "/twitter/_search"));
+
+		// the node client bypasses all rest filters
+		esSetup.client()
+		.prepareIndex("securityconfiguration", "actionpathfilter",
+				"actionpathfilter").setSource(DENY).get();
+
+		Assert.assertEquals(403, awaitStatus(403, "GET", "/twitter/_search"));
+		Assert.assertTrue(publisher(other).getReceivedCount() > 0);
+	}
+
+	@Test
+	public void bulkWrite() throws Exception {
+
+		executeIndex("test_denyall.json", "securityconfiguration",
+				"actionpathfilter", "actionpathfilter", true);
+		indexDlsConfiguration();
+
+		startNode(ImmutableSettings.settingsBuilder().put("http.port", "8081")
+				.build());
+
+		Assert.assertEquals(403, status("GET", "/twitter/_search"));
+
+		// bulk requests don't name the index in the path
+		esSetup.client().prepareBulk()
+		.add(esSetup.client().prepareIndex("securityconfiguration",
+				"actionpathfilter", "actionpathfilter").setSource(ALLOW))
+				.add(esSetup.client().prepareIndex("twitter", "tweet", "1")
+						.setSource(loadFile("dummy_content.json")))
+						.setRefresh(true).get();
+
+		Assert.assertEquals(200, awaitStatus(200, "GET", "/twitter/_search"));
+	}
+
+	@Test
+	public void deleteWrite() throws Exception {
+
+		executeIndex("test_denyall.json", "securityconfiguration",
+				"actionpathfilter", "actionpathfilter", true);
+		executeIndex("ur_test_all.json", "securityconfiguration",
+				"dlspermissions", "default", true);
+
+		final Node other = startNode(ImmutableSettings.settingsBuilder()
+				.put("http.port", "8081").build());
+		final SecurityService securityService = ((InternalNode) other)
+				.injector().getInstance(SecurityService.class);
+
+		Assert.assertTrue(securityService.getConfigurationCache()
+				.get("dlspermissions", "default").exists());
+
+		esSetup.client()
+		.prepareDelete("securityconfiguration", "dlspermissions",
+				"default").get();
+
+		for (int i = 0; i < 100
+				&& securityService.getConfigurationCache()
+				.get("dlspermissions", "default").exists(); i++) {
+			Thread.sleep(100);
+		}
+
+		Assert.assertFalse(securityService.getConfigurationCache()
+				.get("dlspermissions", "default").exists());
+	}
+
+	private void indexDlsConfiguration() throws Exception {
+		executeIndex("dls_default_test_allowall.json", "securityconfiguration",
+				"dlspermissions", "default", true);
+		executeIndex("dls_test_normal.json", "securityconfiguration",
+				"dlspermissions", "dlspermissions", true);
+	}
+
+	private static SecurityConfigurationPublisher publisher(final Node node) {
+		return ((InternalNode) node).injector()
+				.getInstance(SecurityService.class)
+				.getConfigurationPublisher();
+	}
+
+	/**
+	 * @return the status of a request to the other node
+	 */
+	private static int status(final String method, final String path)
+			throws Exception {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:8081" + path).openConnection();
+		connection.setRequestMethod(method);
+
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static int awaitStatus(final int expected, final String method,
+			final String path) throws Exception {
+		int status = status(method, path);
+
+		for (int i = 0; i < 100 && status != expected; i++) {
+			Thread.sleep(100);
+			status = status(method, path);
+		}
+
+		return status;
+	}
+
+}
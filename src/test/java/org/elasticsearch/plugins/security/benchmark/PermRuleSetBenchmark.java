@@ -0,0 +1,98 @@
+package org.elasticsearch.plugins.security.benchmark;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.plugins.security.filter.PermLevel;
+import org.elasticsearch.plugins.security.filter.PermLevelEvaluator;
+import org.elasticsearch.plugins.security.service.permission.PermRuleSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one rule evaluation depending on the size of the rule set. Every
+ * rule grants access to one tenant index, every tenth one to a wildcard
+ * pattern and every other one is restricted to a host range.
+ * <p>
+ * Run with
+ * <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main PermRuleSetBenchmark</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PermRuleSetBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int rules;
+
+	private PermRuleSet<PermLevel> ruleSet;
+
+	private InetAddress host;
+
+	// matched by one of the last rules
+	private List<String> lastTenant;
+
+	// matched by no rule at all
+	private List<String> unknownIndex;
+
+	@Setup
+	public void setup() throws Exception {
+		final StringBuilder config = new StringBuilder(
+				"{\"rules\":[{\"permission\":\"NONE\"}");
+
+		for (int i = 0; i < rules; i++) {
+			config.append(",{\"indices\":[\"");
+			config.append(i % 10 == 0 ? "tenant-" + i + "-*" : "tenant-" + i);
+			config.append("\"]");
+
+			if (i % 2 == 1) {
+				config.append(",\"hosts\":[\"10.0.").append(i % 250)
+				.append(".*\"]");
+			}
+
+			config.append(",\"permission\":\"READWRITE\"}");
+		}
+
+		config.append("]}");
+
+		ruleSet = new PermLevelEvaluator(config.toString()).getRuleSet();
+
+		// resolved once, InetAddress caches the hostname
+		host = InetAddress.getByAddress("client", new byte[] { 10, 0,
+				(byte) ((rules - 3) % 250), 5 });
+		host.getHostName();
+
+		lastTenant = Arrays.asList("tenant-" + (rules - 3));
+		unknownIndex = Arrays.asList("unknown");
+
+		if (evaluateLastTenant() != PermLevel.READWRITE
+				|| evaluateUnknownIndex() != PermLevel.NONE) {
+			throw new IllegalStateException("unexpected rule set behaviour");
+		}
+	}
+
+	@Benchmark
+	public PermLevel evaluateLastTenant() {
+		return ruleSet.evaluate(lastTenant, null, host, null);
+	}
+
+	@Benchmark
+	public PermLevel evaluateUnknownIndex() {
+		return ruleSet.evaluate(unknownIndex, null, host, null);
+	}
+
+}
@@ -0,0 +1,155 @@
+package org.elasticsearch.plugins.security.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.plugins.security.util.RequestPath;
+import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.elasticsearch.rest.support.RestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Path handling of one request through the ActionPathFilter, as the filters
+ * did it before (every access decodes and splits the path again and
+ * classifies it by substring scans for "/" + command strings) versus a
+ * {@link RequestPath} parsed and classified once.
+ * <p>
+ * The interesting number is the allocation per request, run with the gc
+ * profiler and compare gc.alloc.rate.norm (bytes per operation):
+ * <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main RequestPathBenchmark -prof gc</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestPathBenchmark {
+
+	private final String rawPath = "/logstash-2014.12.01,logstash-2014.12.02/_search";
+
+	@Setup
+	public void setup() {
+		// the legacy copies below do not log
+		Loggers.getLogger(RequestPath.class).setLevel("INFO");
+	}
+
+	@Benchmark
+	public void before(final Blackhole bh) {
+		// SecureRestFilter.process
+		bh.consume(legacyIndices(path()));
+
+		// ActionPathFilter.processSecure
+		bh.consume(legacyTypeOrIndex(path(), SecurityUtil.BUILT_IN_ADMIN_COMMANDS));
+		bh.consume(legacyTypeOrIndex(path(), SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
+		bh.consume(legacyTypeOrIndex(path(), SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX));
+		bh.consume(legacyIndices(path()));
+		bh.consume(legacyTypes(path()));
+		bh.consume(legacyCommand(path(), SecurityUtil.BUILT_IN_ADMIN_COMMANDS));
+		bh.consume(legacyWrite(path()));
+		bh.consume(legacyWrite(path())
+				|| legacyCommand(path(), SecurityUtil.BUILT_IN_ADMIN_COMMANDS));
+
+		// modifiyKibanaRequest
+		bh.consume(legacyTypes(path()));
+		bh.consume(legacyTypes(path()));
+		bh.consume(legacyIndices(path()));
+	}
+
+	@Benchmark
+	public void after(final Blackhole bh) {
+		final RequestPath requestPath = RequestPath.parse(Method.POST, path());
+
+		bh.consume(requestPath.getIndices());
+
+		bh.consume(requestPath.hasAdminCommandAsName());
+		bh.consume(requestPath.hasReadCommandAsName(false));
+		bh.consume(requestPath.hasWriteCommandAsName(false));
+		bh.consume(requestPath.getIndices());
+		bh.consume(requestPath.getTypes());
+		bh.consume(requestPath.getKind(false));
+
+		bh.consume(requestPath.getTypes());
+		bh.consume(requestPath.getTypes());
+		bh.consume(requestPath.getIndices());
+	}
+
+	// RestRequest.path() decodes on every call
+	private String path() {
+		return RestUtils.decodeComponent(rawPath);
+	}
+
+	private static List<String> legacyIndices(final String path) {
+		String[] indices = new String[0];
+		int endIndex = path.indexOf('/', 1);
+
+		if (endIndex == -1) {
+			endIndex = path.length();
+		}
+
+		if (!path.trim().startsWith("/_")) {
+			indices = Strings.splitStringByCommaToArray(path.substring(1,
+					endIndex));
+		}
+
+		return Arrays.asList(indices);
+	}
+
+	private static List<String> legacyTypes(final String path) {
+		String[] types = new String[0];
+		final int endIndex = path.indexOf('/', 1);
+
+		if (endIndex != -1) {
+			final int endType = path.indexOf('/', endIndex + 1);
+
+			if (endType != -1) {
+				types = Strings.splitStringByCommaToArray(path.substring(
+						endIndex + 1, endType));
+			}
+		}
+
+		return Arrays.asList(types);
+	}
+
+	private static boolean legacyWrite(final String path) {
+		return !legacyCommand(path, SecurityUtil.BUILT_IN_READ_COMMANDS_LAX)
+				|| legacyCommand(path, SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX);
+	}
+
+	private static boolean legacyCommand(final String path,
+			final String[] items) {
+		for (final String item : items) {
+			if (path.contains("/" + item) && !path.contains(item + "/")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean legacyTypeOrIndex(final String path,
+			final String[] items) {
+		for (final String item : items) {
+			if (path.contains("/" + item + "/")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+}
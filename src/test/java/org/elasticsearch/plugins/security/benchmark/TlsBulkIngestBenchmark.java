@@ -0,0 +1,198 @@
+package org.elasticsearch.plugins.security.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.elasticsearch.plugins.security.util.SecurityUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk ingest throughput over TLS with the JSSE (nio) and the OpenSSL (apr)
+ * connector of the tomcat transport. Every operation is one _bulk request
+ * of {@link #DOCS_PER_BULK} documents on a kept alive connection.
+ * <p>
+ * The apr case needs the tcnative library on the java.library.path,
+ * without it the transport falls back to JSSE and both cases measure the
+ * same. Run with
+ * <code>java -Djava.library.path=&lt;tcnative&gt; -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main TlsBulkIngestBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TlsBulkIngestBenchmark {
+
+	static final int DOCS_PER_BULK = 500;
+
+	private static final int PORT = 8443;
+
+	@Param({ "nio", "apr" })
+	public String protocol;
+
+	private Node node;
+
+	private SSLSocketFactory socketFactory;
+
+	private URL bulkUrl;
+
+	private byte[] bulkBody;
+
+	@Setup
+	public void setup() throws Exception {
+		final String keystore = SecurityUtil.getAbsoluteFilePathFromClassPath(
+				"localhost_tc.p12").getAbsolutePath();
+
+		node = NodeBuilder.nodeBuilder().local(true)
+				.settings(ImmutableSettings.settingsBuilder()
+						.put("cluster.name", "tls-bulk-benchmark")
+						.put("index.store.type", "memory")
+						.put("gateway.type", "none")
+						.put("path.data", "target/data")
+						.put("path.work", "target/work")
+						.put("path.logs", "target/logs")
+						.put("index.number_of_shards", "1")
+						.put("index.number_of_replicas", "0")
+						.put("http.type", "org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerTransport")
+						.put("http.port", PORT)
+						.put("security.http.tomcat.protocol", protocol)
+						.put("security.ssl.enabled", true)
+						.put("security.ssl.keystorefile", keystore)
+						.put("security.ssl.keystoretype", "PKCS12")
+						.put("security.ssl.keystorepass", "changeit"))
+						.node();
+
+		node.client().admin().cluster().prepareHealth().setWaitForYellowStatus()
+		.get();
+
+		node.client().prepareIndex("securityconfiguration", "actionpathfilter",
+				"actionpathfilter").setSource(load("test_default.json"))
+				.setRefresh(true).get();
+		node.client().prepareIndex("securityconfiguration", "dlspermissions",
+				"default").setSource(load("dls_default_test_allowall.json"))
+				.setRefresh(true).get();
+
+		final KeyStore trustStore = KeyStore.getInstance("PKCS12");
+		final InputStream in = new FileInputStream(keystore);
+
+		try {
+			trustStore.load(in, "changeit".toCharArray());
+		} finally {
+			in.close();
+		}
+
+		final TrustManagerFactory tmf = TrustManagerFactory
+				.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(trustStore);
+
+		final SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, tmf.getTrustManagers(), null);
+		socketFactory = sslContext.getSocketFactory();
+
+		bulkUrl = new URL("https://localhost:" + PORT + "/benchmark/doc/_bulk");
+
+		final StringBuilder bulk = new StringBuilder();
+
+		for (int i = 0; i < DOCS_PER_BULK; i++) {
+			bulk.append("{\"index\":{}}\n");
+			bulk.append("{\"user\":\"user").append(i % 100)
+			.append("\",\"message\":\"benchmark message ").append(i)
+			.append("\",\"count\":").append(i).append("}\n");
+		}
+
+		bulkBody = bulk.toString().getBytes(Charsets.UTF_8);
+
+		if (bulk() != 200) {
+			throw new IllegalStateException("bulk request failed");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (node != null) {
+			node.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DOCS_PER_BULK)
+	public int bulk() throws IOException {
+		final HttpsURLConnection connection = (HttpsURLConnection) bulkUrl
+				.openConnection();
+		connection.setSSLSocketFactory(socketFactory);
+		connection.setHostnameVerifier(new HostnameVerifier() {
+
+			@Override
+			public boolean verify(final String hostname,
+					final SSLSession session) {
+				return "localhost".equals(hostname);
+			}
+		});
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(bulkBody.length);
+
+		final OutputStream out = connection.getOutputStream();
+
+		try {
+			out.write(bulkBody);
+		} finally {
+			out.close();
+		}
+
+		final int status = connection.getResponseCode();
+
+		// reading the response completely keeps the connection alive
+		final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection
+				.getInputStream() : connection.getErrorStream();
+
+		if (in != null) {
+			try {
+				Streams.copy(in, new BytesStreamOutput());
+			} finally {
+				in.close();
+			}
+		}
+
+		return status;
+	}
+
+	private static String load(final String resource) throws IOException {
+		return Streams.copyToStringFromClasspath("/" + resource);
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.elasticsearch.plugins.security.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.plugins.security.util.WildcardMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per comparison cost of the regex based wildcard matching PermEvaluator used
+ * before versus precompiled {@link WildcardMatcher}s.
+ * <p>
+ * Run with
+ * <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main WildcardMatchBenchmark</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WildcardMatchBenchmark {
+
+	// index, type and host values as they appear in typical rule sets
+	static final String[] RULE_VALUES = new String[] { "logstash-*",
+		"kibana-int", "*-prod", "*testindex*", "app*-2014.*", "marketing",
+		"secrettype", "10.1.2.*", "192.168.1.10", "*.example.com" };
+
+	static final String[] REQUEST_VALUES = new String[] {
+		"logstash-2014.12.01", "kibana-int", "customer-prod", "unrelated",
+		"192.168.1.10", "host7.example.com" };
+
+	// RULE_VALUES.length * REQUEST_VALUES.length
+	static final int COMPARISONS = 60;
+
+	private WildcardMatcher[] matchers;
+
+	@Setup
+	public void setup() {
+		if (RULE_VALUES.length * REQUEST_VALUES.length != COMPARISONS) {
+			throw new IllegalStateException("COMPARISONS out of date");
+		}
+
+		matchers = new WildcardMatcher[RULE_VALUES.length];
+
+		for (int i = 0; i < RULE_VALUES.length; i++) {
+			matchers[i] = WildcardMatcher.compile(RULE_VALUES[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COMPARISONS)
+	public int legacyRegex() {
+		int matches = 0;
+
+		for (final String rule : RULE_VALUES) {
+			for (final String request : REQUEST_VALUES) {
+				if (legacyIsWildcardMatch(request, rule)) {
+					matches++;
+				}
+			}
+		}
+
+		return matches;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COMPARISONS)
+	public int compiledMatcher() {
+		int matches = 0;
+
+		for (final WildcardMatcher matcher : matchers) {
+			for (final String request : REQUEST_VALUES) {
+				if (matcher.matches(request)) {
+					matches++;
+				}
+			}
+		}
+
+		return matches;
+	}
+
+	// the implementation PermEvaluator used before WildcardMatcher
+	private static boolean legacyIsWildcardMatch(final String a,
+			final String b) {
+
+		final String escapedA = a.replace(".", "\\.").replace("*", ".*");
+
+		Pattern p = Pattern.compile(escapedA);
+		Matcher m = p.matcher(b);
+		if (m.matches()) {
+			return true;
+		} else {
+			final String escapedB = b.replace(".", "\\.").replace("*", ".*");
+
+			p = Pattern.compile(escapedB);
+			m = p.matcher(a);
+			return m.matches();
+		}
+	}
+
+}
@@ -9,6 +9,7 @@ import java.util.List;
 import org.apache.commons.io.IOUtils;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
 import org.elasticsearch.plugins.security.service.permission.PermEvaluator;
+import org.elasticsearch.plugins.security.service.permission.PermRuleSet;
 import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
 import org.junit.Rule;
 import org.junit.Test;
@@ -64,6 +65,22 @@ public class SecurityPermTests extends AbstractPermTests{
 				InetAddress.getByName("1.2.3.4"), null) == PermLevel.NONE);
 	}
 	@Test
+	public void testRuleSetCompiledOnce() throws Exception {
+
+		final List<String> indices = new ArrayList<String>();
+		indices.add("testindex1");
+
+		final PermEvaluator<?> evaluator = new PermLevelEvaluator(
+				loadFile("test_normal.json"));
+		final PermRuleSet<?> ruleSet = evaluator.getRuleSet();
+
+		assertTrue(evaluator.evaluatePerm(indices, null,
+				InetAddress.getByName("8.8.8.8"), null) == PermLevel.READWRITE);
+		assertSame(ruleSet, evaluator.getRuleSet());
+		assertEquals(PermLevel.ALL, ruleSet.getDefaultPermLevel());
+		assertEquals(3, ruleSet.size());
+	}
+	@Test
 	public void testNormalCasesWithUserRoleTypes() throws Exception {
 
 		final List<String> indices = new ArrayList<String>();
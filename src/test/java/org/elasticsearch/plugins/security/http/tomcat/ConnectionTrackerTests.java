@@ -0,0 +1,41 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import static org.junit.Assert.assertEquals;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+public class ConnectionTrackerTests {
+
+	@Test
+	public void testReuseRatio() {
+		final ConnectionTracker tracker = new ConnectionTracker(100,
+				TimeValue.timeValueMinutes(1));
+
+		assertEquals(0, tracker.getReuseRatio(), 0);
+
+		tracker.onRequest("10.0.0.1", 50000);
+		tracker.onRequest("10.0.0.1", 50000);
+		tracker.onRequest("10.0.0.1", 50000);
+		tracker.onRequest("10.0.0.1", 50001);
+
+		assertEquals(4, tracker.getRequestCount());
+		assertEquals(2, tracker.getOpenedCount());
+		assertEquals(0.5, tracker.getReuseRatio(), 0.0001);
+		// no connector attached
+		assertEquals(-1, tracker.getOpenCount());
+	}
+
+	@Test
+	public void testIdleConnectionsExpire() throws Exception {
+		final ConnectionTracker tracker = new ConnectionTracker(100,
+				TimeValue.timeValueMillis(10));
+
+		tracker.onRequest("10.0.0.1", 50000);
+		Thread.sleep(50);
+		tracker.onRequest("10.0.0.1", 50000);
+
+		assertEquals(2, tracker.getOpenedCount());
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.plugins.security.http.tomcat.HttpRequestStats.Outcome;
+import org.junit.Test;
+
+public class HttpRequestStatsTests {
+
+	@Test
+	public void testCounters() {
+		final HttpRequestStats stats = new HttpRequestStats();
+
+		stats.onResponse(200, Outcome.ALLOWED, millis(3));
+		stats.onResponse(200, Outcome.ALLOWED, millis(7));
+		stats.onResponse(404, Outcome.ALLOWED, millis(1));
+		stats.onResponse(403, Outcome.FORBIDDEN, millis(0));
+		stats.onResponse(500, Outcome.ERROR, millis(20000));
+
+		assertEquals(5, stats.getCount());
+		assertEquals(3, stats.getCount(Outcome.ALLOWED));
+		assertEquals(1, stats.getCount(Outcome.FORBIDDEN));
+		assertEquals(1, stats.getCount(Outcome.ERROR));
+
+		assertEquals("{200=2, 403=1, 404=1, 500=1}", stats.getStatusCounts()
+				.toString());
+
+		final Map<String, Long> histogram = stats.getLatencyHistogram();
+		assertEquals(2L, (long) histogram.get("1"));
+		assertEquals(1L, (long) histogram.get("5"));
+		assertEquals(1L, (long) histogram.get("10"));
+		assertEquals(0L, (long) histogram.get("10000"));
+		assertEquals(1L, (long) histogram.get("inf"));
+		assertEquals(HttpRequestStats.LATENCY_BUCKETS_MILLIS.length + 1,
+				histogram.size());
+	}
+
+	@Test
+	public void testBucketBounds() {
+		assertEquals(0, HttpRequestStats.bucket(0));
+		assertEquals(0, HttpRequestStats.bucket(1));
+		assertEquals(1, HttpRequestStats.bucket(2));
+		assertEquals(HttpRequestStats.LATENCY_BUCKETS_MILLIS.length - 1,
+				HttpRequestStats.bucket(10000));
+		assertEquals(HttpRequestStats.LATENCY_BUCKETS_MILLIS.length,
+				HttpRequestStats.bucket(10001));
+	}
+
+	private static long millis(final long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+}
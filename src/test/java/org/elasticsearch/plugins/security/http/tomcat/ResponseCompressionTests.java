@@ -0,0 +1,119 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.io.Streams;
+import org.junit.Test;
+
+public class ResponseCompressionTests {
+
+	private final ResponseCompression compression = new ResponseCompression(
+			6, 1024, TomcatHttpServerTransport.DEFAULT_COMPRESSION_MIME_TYPES, 2);
+
+	@Test
+	public void testAcceptEncoding() {
+		assertTrue(ResponseCompression.acceptsGzip("gzip"));
+		assertTrue(ResponseCompression.acceptsGzip("deflate, GZIP;q=0.5"));
+		assertTrue(ResponseCompression.acceptsGzip("x-gzip"));
+		assertTrue(ResponseCompression.acceptsGzip("*"));
+		assertFalse(ResponseCompression.acceptsGzip(null));
+		assertFalse(ResponseCompression.acceptsGzip("identity"));
+		assertFalse(ResponseCompression.acceptsGzip("gzip;q=0"));
+		assertFalse(ResponseCompression.acceptsGzip("*;q=1, gzip;q=0"));
+		assertFalse(ResponseCompression.acceptsGzip("*;q=0"));
+	}
+
+	@Test
+	public void testThresholdAndContentType() {
+		assertTrue(compression.shouldCompress("gzip",
+				"application/json; charset=UTF-8", 1024));
+		assertFalse(compression.shouldCompress("gzip", "application/json",
+				1023));
+		assertFalse(compression.shouldCompress("gzip", "application/smile",
+				100000));
+		assertFalse(compression.shouldCompress(null, "application/json",
+				100000));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final StringBuilder sb = new StringBuilder("{\"hits\":[");
+
+		for (int i = 0; i < 1000; i++) {
+			sb.append("{\"_index\":\"index\",\"_id\":\"").append(i)
+			.append("\"},");
+		}
+
+		final byte[] content = sb.append("{}]}").toString()
+				.getBytes(Charsets.UTF_8);
+
+		// more responses than pooled deflaters, every one of them is reused
+		for (int i = 0; i < 5; i++) {
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			final OutputStream out = compression.compress(compressed);
+			out.write(content, 0, 10);
+			out.write(content, 10, content.length - 10);
+			out.close();
+			// closing twice is harmless
+			out.close();
+
+			final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+			Streams.copy(new GZIPInputStream(new ByteArrayInputStream(
+					compressed.toByteArray())), uncompressed);
+			assertArrayEquals(content, uncompressed.toByteArray());
+		}
+
+		assertEquals(5, compression.getCompressedCount());
+		assertEquals(5L * content.length, compression.getBytesIn());
+		assertTrue(compression.getBytesSaved() > 0);
+		assertEquals(compression.getBytesIn() - compression.getBytesOut(),
+				compression.getBytesSaved());
+	}
+
+	@Test
+	public void testFailedWriteReleasesDeflater() throws Exception {
+		// accepts the gzip header, then the client is gone
+		final OutputStream disconnected = new OutputStream() {
+
+			private int written;
+
+			@Override
+			public void write(final int b) throws IOException {
+				if (++written > 10) {
+					throw new IOException("Broken pipe");
+				}
+			}
+		};
+
+		final OutputStream out = compression.compress(disconnected);
+
+		try {
+			out.write(new byte[100000], 0, 100000);
+		} catch (final IOException e) {
+			// depends on the size of the deflater output
+		}
+
+		try {
+			// the trailer can't be written
+			out.close();
+			fail();
+		} catch (final IOException e) {
+			// expected
+		}
+
+		assertEquals(1, compression.getPooledDeflaterCount());
+		assertEquals(0, compression.getCompressedCount());
+	}
+
+}
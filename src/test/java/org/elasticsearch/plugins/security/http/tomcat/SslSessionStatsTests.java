@@ -0,0 +1,43 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import static org.junit.Assert.assertEquals;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+public class SslSessionStatsTests {
+
+	@Test
+	public void testResumptionRatio() {
+		final SslSessionStats stats = new SslSessionStats(100,
+				TimeValue.timeValueMinutes(1));
+
+		assertEquals(0, stats.getResumptionRatio(), 0);
+
+		stats.onHandshake("a");
+		stats.onHandshake("a");
+		stats.onHandshake("a");
+		stats.onHandshake("b");
+		// unknown session
+		stats.onHandshake(null);
+
+		assertEquals(4, stats.getHandshakeCount());
+		assertEquals(2, stats.getFullHandshakeCount());
+		assertEquals(2, stats.getResumedHandshakeCount());
+		assertEquals(0.5, stats.getResumptionRatio(), 0.0001);
+	}
+
+	@Test
+	public void testExpiredSessionsNeedFullHandshake() throws Exception {
+		final SslSessionStats stats = new SslSessionStats(0,
+				TimeValue.timeValueMillis(10));
+
+		stats.onHandshake("a");
+		Thread.sleep(50);
+		stats.onHandshake("a");
+
+		assertEquals(2, stats.getFullHandshakeCount());
+		assertEquals(0, stats.getResumedHandshakeCount());
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.elasticsearch.plugins.security.http.tomcat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+public class TomcatHttpServerRestRequestTests {
+
+	private static final long MAX_CONTENT_LENGTH = 64 * 1024;
+
+	@Test
+	public void testNoBody() throws Exception {
+		assertEquals(0, TomcatHttpServerRestRequest.readContent(
+				request(-1, false, new byte[0]), MAX_CONTENT_LENGTH).length());
+	}
+
+	@Test
+	public void testDeclaredLength() throws Exception {
+		final byte[] body = bytes(1000);
+		assertArrayEquals(body, TomcatHttpServerRestRequest.readContent(
+				request(body.length, false, body), MAX_CONTENT_LENGTH)
+				.toBytes());
+	}
+
+	@Test
+	public void testChunkedGrowsWithData() throws Exception {
+		final byte[] body = bytes(40000);
+		final BytesReference content = TomcatHttpServerRestRequest
+				.readContent(request(-1, true, body), MAX_CONTENT_LENGTH);
+		assertArrayEquals(body, content.toBytes());
+	}
+
+	@Test
+	public void testDeclaredLengthTooLarge() throws Exception {
+		// nothing is allocated for, or read from, a body declared too large
+		try {
+			TomcatHttpServerRestRequest.readContent(
+					request(Integer.MAX_VALUE, false, null), MAX_CONTENT_LENGTH);
+			fail();
+		} catch (final RequestContentTooLargeException e) {
+			assertEquals(RestStatus.REQUEST_ENTITY_TOO_LARGE, e.status());
+		}
+	}
+
+	@Test
+	public void testStreamedLengthTooLarge() throws Exception {
+		try {
+			TomcatHttpServerRestRequest.readContent(
+					request(-1, true, bytes((int) MAX_CONTENT_LENGTH + 1)),
+					MAX_CONTENT_LENGTH);
+			fail();
+		} catch (final RequestContentTooLargeException e) {
+			assertEquals(RestStatus.REQUEST_ENTITY_TOO_LARGE, e.status());
+		}
+	}
+
+	private static byte[] bytes(final int length) {
+		final byte[] bytes = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) i;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @param body
+	 *            null if the stream must not be read
+	 */
+	private static HttpServletRequest request(final int contentLength,
+			final boolean chunked, final byte[] body) {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				TomcatHttpServerRestRequestTests.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method,
+					final Object[] args) throws Throwable {
+
+				if ("getContentLength".equals(method.getName())) {
+					return contentLength;
+				}
+
+				if ("getHeader".equals(method.getName())) {
+					return chunked
+							&& "Transfer-Encoding".equals(args[0]) ? "chunked"
+									: null;
+				}
+
+				if ("getInputStream".equals(method.getName())) {
+					if (body == null) {
+						throw new AssertionError("body must not be read");
+					}
+
+					return inputStream(new ByteArrayInputStream(body));
+				}
+
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private static ServletInputStream inputStream(
+			final ByteArrayInputStream in) {
+		return new ServletInputStream() {
+
+			@Override
+			public int read() {
+				return in.read();
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) {
+				return in.read(b, off, len);
+			}
+		};
+	}
+
+}
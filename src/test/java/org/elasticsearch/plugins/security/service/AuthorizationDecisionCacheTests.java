@@ -0,0 +1,106 @@
+package org.elasticsearch.plugins.security.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.plugins.security.filter.PermLevel;
+import org.elasticsearch.plugins.security.filter.PermLevelEvaluator;
+import org.elasticsearch.plugins.security.service.permission.PermRuleSet;
+import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
+import org.junit.Test;
+
+public class AuthorizationDecisionCacheTests {
+
+	private static final String CONFIG = "{\"rules\":["
+			+ "{\"permission\":\"NONE\"},"
+			+ "{\"roles\":[\"admin\"],\"permission\":\"ALL\"},"
+			+ "{\"users\":[\"kirk\"],\"indices\":[\"logs\",\"metrics\"],\"permission\":\"READWRITE\"},"
+			+ "{\"hosts\":[\"10.0.0.*\"],\"permission\":\"READONLY\"}" + "]}";
+
+	private final InetAddress local = InetAddress.getByAddress("client",
+			new byte[] { 10, 0, 0, 1 });
+
+	private final InetAddress remote = InetAddress.getByAddress("remote",
+			new byte[] { 8, 8, 8, 8 });
+
+	public AuthorizationDecisionCacheTests() throws Exception {
+		super();
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		final PermRuleSet<PermLevel> ruleSet = new PermLevelEvaluator(CONFIG)
+		.getRuleSet();
+		final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(
+				100, TimeValue.timeValueMinutes(1));
+
+		assertEquals(PermLevel.READWRITE, cache.evaluate("c/c", 1, ruleSet,
+				Arrays.asList("logs", "metrics"), null, remote, user("kirk")));
+		// order and duplicates of the indices are irrelevant
+		assertEquals(PermLevel.READWRITE, cache.evaluate("c/c", 1, ruleSet,
+				Arrays.asList("metrics", "logs", "logs"), null, remote,
+				user("kirk")));
+		assertEquals(1, cache.stats().hitCount());
+		assertEquals(1, cache.stats().missCount());
+
+		// another user, another client address, another version
+		assertEquals(PermLevel.NONE, cache.evaluate("c/c", 1, ruleSet,
+				Arrays.asList("logs"), null, remote, user("spock")));
+		assertEquals(PermLevel.READONLY, cache.evaluate("c/c", 1, ruleSet,
+				Arrays.asList("logs"), null, local, user("spock")));
+		assertEquals(PermLevel.READWRITE, cache.evaluate("c/c", 2, ruleSet,
+				Arrays.asList("logs", "metrics"), null, remote, user("kirk")));
+		assertEquals(1, cache.stats().hitCount());
+		assertEquals(4, cache.stats().missCount());
+	}
+
+	@Test
+	public void testRoleMembershipIsPartOfTheKey() throws Exception {
+		final PermRuleSet<PermLevel> ruleSet = new PermLevelEvaluator(CONFIG)
+		.getRuleSet();
+		final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(
+				100, TimeValue.timeValueMinutes(1));
+
+		assertEquals(PermLevel.NONE, cache.evaluate("c/c", 1, ruleSet, null,
+				null, remote, user("spock")));
+		assertEquals(PermLevel.ALL, cache.evaluate("c/c", 1, ruleSet, null,
+				null, remote, user("spock", "admin")));
+		assertEquals(PermLevel.NONE, cache.evaluate("c/c", 1, ruleSet, null,
+				null, remote, user("spock")));
+		assertEquals(1, cache.stats().hitCount());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		final PermRuleSet<PermLevel> ruleSet = new PermLevelEvaluator(CONFIG)
+		.getRuleSet();
+		final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(
+				1, TimeValue.timeValueMinutes(1));
+
+		cache.evaluate("c/c", 1, ruleSet, null, null, remote, user("kirk"));
+		cache.evaluate("c/c", 1, ruleSet, null, null, local, user("kirk"));
+
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.stats().evictionCount());
+	}
+
+	private static UserRoleCallback user(final String name,
+			final String... roles) {
+		return new UserRoleCallback() {
+
+			@Override
+			public String getRemoteuser() {
+				return name;
+			}
+
+			@Override
+			public boolean isRemoteUserInRole(final String role) {
+				return Arrays.asList(roles).contains(role);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.elasticsearch.plugins.security.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+public class DnsCacheTests {
+
+	@Test
+	public void testIpLiteralsAreNotLookedUp() throws Exception {
+		final DnsCache cache = newCache(Executors.defaultThreadFactory());
+
+		try {
+			assertEquals(InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 }),
+					cache.getByName("10.0.0.1"));
+			assertEquals(0, cache.getMissCount());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testLookupsAreCached() throws Exception {
+		final DnsCache cache = newCache(Executors.defaultThreadFactory());
+		final InetAddress loopback = InetAddress.getByAddress(new byte[] {
+				127, 0, 0, 1 });
+
+		try {
+			final String hostName = cache.getHostName(loopback);
+			assertEquals(hostName, cache.getHostName(loopback));
+			assertEquals(1, cache.getMissCount());
+			assertEquals(1, cache.getHitCount());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testSlowLookupFallsBackToIp() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		// a dns server which does not answer until released
+		final DnsCache cache = newCache(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							release.await();
+						} catch (final InterruptedException e) {
+							return;
+						}
+						r.run();
+					}
+				});
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		final InetAddress loopback = InetAddress.getByAddress(new byte[] {
+				127, 0, 0, 1 });
+
+		try {
+			assertEquals("127.0.0.1", cache.getHostName(loopback));
+			assertEquals(1, cache.getTimeoutCount());
+
+			release.countDown();
+
+			// completes in the background
+			for (int i = 0; i < 100 && cache.size() == 0; i++) {
+				Thread.sleep(50);
+			}
+
+			assertEquals(1, cache.size());
+			cache.getHostName(loopback);
+			assertEquals(1, cache.getHitCount());
+		} finally {
+			cache.close();
+		}
+	}
+
+	private static DnsCache newCache(final ThreadFactory threadFactory) {
+		return new DnsCache(100, TimeValue.timeValueMinutes(5),
+				TimeValue.timeValueSeconds(30),
+				TimeValue.timeValueMillis(100), 1, threadFactory);
+	}
+
+}
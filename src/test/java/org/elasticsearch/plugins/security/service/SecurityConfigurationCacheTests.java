@@ -0,0 +1,192 @@
+package org.elasticsearch.plugins.security.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.plugins.security.filter.PermLevel;
+import org.elasticsearch.plugins.security.filter.PermLevelEvaluator;
+import org.elasticsearch.plugins.security.service.SecurityConfigurationCache.CachedConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SecurityConfigurationCacheTests {
+
+	private static final String INDEX = "securityconfiguration";
+
+	private static final String TYPE = "actionpathfilter";
+
+	private static final String ALLOW = "{\"rules\":[{\"permission\":\"ALL\"}]}";
+
+	private static final String DENY = "{\"rules\":[{\"permission\":\"NONE\"}]}";
+
+	private Node node;
+
+	private Client client;
+
+	@Before
+	public void setUp() throws Exception {
+		node = NodeBuilder
+				.nodeBuilder()
+				.local(true)
+				.settings(
+						ImmutableSettings.settingsBuilder()
+						.put("cluster.name", "configuration-cache-tests")
+						.put("http.enabled", false)
+						.put("index.store.type", "memory")
+						.put("gateway.type", "none")
+						.put("path.data", "target/data")
+						.put("index.number_of_shards", 1)
+						.put("index.number_of_replicas", 0)
+						// only the periodic refresh picks up changes
+						.put("security.configuration.push.enabled", false)
+						.put("security.configuration.cache.refresh_interval",
+								"100ms")).node();
+		client = node.client();
+		client.admin().indices().prepareCreate(INDEX).get();
+		client.admin().cluster().prepareHealth(INDEX).setWaitForGreenStatus()
+		.get();
+	}
+
+	@After
+	public void tearDown() {
+		if (node != null) {
+			node.close();
+		}
+	}
+
+	@Test
+	public void testUpdateDeleteRecreate() throws Exception {
+		final SecurityConfigurationCache cache = new SecurityConfigurationCache(
+				client, INDEX);
+
+		final CachedConfiguration missing = cache.get(TYPE, TYPE);
+		assertFalse(missing.exists());
+		assertEquals(-1, missing.getVersion());
+		// missing documents are cached too
+		assertSame(missing, cache.get(TYPE, TYPE));
+		assertFalse(cache.refresh());
+
+		index(ALLOW);
+		assertTrue(cache.refresh());
+		final CachedConfiguration created = cache.get(TYPE, TYPE);
+		assertTrue(created.exists());
+		assertEquals(1, created.getVersion());
+		assertTrue(created.getJson().contains("ALL"));
+
+		// unchanged documents are not reloaded
+		assertFalse(cache.refresh());
+		assertSame(created, cache.get(TYPE, TYPE));
+
+		index(DENY);
+		assertTrue(cache.refresh());
+		final CachedConfiguration updated = cache.get(TYPE, TYPE);
+		assertEquals(2, updated.getVersion());
+		assertTrue(updated.getJson().contains("NONE"));
+
+		client.prepareDelete(INDEX, TYPE, TYPE).setRefresh(true).get();
+		assertTrue(cache.refresh());
+		assertFalse(cache.get(TYPE, TYPE).exists());
+		assertEquals(-1, cache.get(TYPE, TYPE).getVersion());
+		assertFalse(cache.refresh());
+
+		index(ALLOW);
+		assertTrue(cache.refresh());
+		final CachedConfiguration recreated = cache.get(TYPE, TYPE);
+		assertTrue(recreated.exists());
+		assertTrue(recreated.getVersion() > updated.getVersion());
+		assertTrue(recreated.getJson().contains("ALL"));
+	}
+
+	@Test
+	public void testPeriodicRefresh() throws Exception {
+		final SecurityService securityService = ((InternalNode) node)
+				.injector().getInstance(SecurityService.class);
+
+		index(DENY);
+		assertEquals(PermLevel.NONE, evaluate(securityService));
+
+		index(ALLOW);
+		assertEquals(PermLevel.ALL, awaitPermLevel(securityService,
+				PermLevel.ALL));
+
+		client.prepareDelete(INDEX, TYPE, TYPE).setRefresh(true).get();
+		awaitMissing(securityService.getConfigurationCache());
+
+		index(DENY);
+		assertEquals(PermLevel.NONE, awaitPermLevel(securityService,
+				PermLevel.NONE));
+	}
+
+	@Test
+	public void testEvaluatorReusedPerSnapshot() throws Exception {
+		final SecurityService securityService = ((InternalNode) node)
+				.injector().getInstance(SecurityService.class);
+
+		index(ALLOW);
+		final PermLevelEvaluator compiled = securityService
+				.getPermLevelEvaluator(TYPE, TYPE);
+		assertSame(compiled, securityService.getPermLevelEvaluator(TYPE, TYPE));
+
+		// reloaded with equal content, compiled once more and then reused
+		securityService.invalidateConfiguration();
+		final PermLevelEvaluator recompiled = securityService
+				.getPermLevelEvaluator(TYPE, TYPE);
+		assertNotSame(compiled, recompiled);
+		assertSame(recompiled,
+				securityService.getPermLevelEvaluator(TYPE, TYPE));
+		assertEquals(PermLevel.ALL, evaluate(securityService));
+	}
+
+	private void index(final String source) {
+		client.prepareIndex(INDEX, TYPE, TYPE).setSource(source)
+		.setRefresh(true).get();
+	}
+
+	private static PermLevel evaluate(final SecurityService securityService)
+			throws Exception {
+		return securityService.evaluatePermLevel(TYPE, TYPE,
+				Arrays.asList("twitter"), Collections.<String> emptyList(),
+				InetAddress.getLoopbackAddress(), null);
+	}
+
+	private static PermLevel awaitPermLevel(
+			final SecurityService securityService, final PermLevel expected)
+					throws Exception {
+		PermLevel permLevel = null;
+
+		for (int i = 0; i < 100 && permLevel != expected; i++) {
+			Thread.sleep(100);
+
+			try {
+				permLevel = evaluate(securityService);
+			} catch (final Exception e) {
+				// the document is missing until the refresh picked it up
+			}
+		}
+
+		return permLevel;
+	}
+
+	private static void awaitMissing(final SecurityConfigurationCache cache)
+			throws Exception {
+		for (int i = 0; i < 100 && cache.get(TYPE, TYPE).exists(); i++) {
+			Thread.sleep(100);
+		}
+
+		assertFalse(cache.get(TYPE, TYPE).exists());
+	}
+
+}
@@ -0,0 +1,112 @@
+package org.elasticsearch.plugins.security.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+public class TrustedProxiesTests {
+
+	private final TrustedProxies proxies = TrustedProxies
+			.fromSettings(ImmutableSettings.settingsBuilder()
+					.put("security.http.xforwardedfor.header", "X-Forwarded-For")
+					.put("security.http.xforwardedfor.trustedproxies",
+							"123.123.123.123, 10.0.0.0/8, proxy.example.com")
+					.build());
+
+	private final InetAddress proxy = InetAddress.getByAddress(new byte[] {
+			10, 1, 1, 1 });
+
+	public TrustedProxiesTests() throws Exception {
+		super();
+	}
+
+	@Test
+	public void testChainWalkedFromTheRight() throws Exception {
+		assertEquals("3.1.55.2", proxies.getClientAddress("3.1.55.2", proxy));
+		assertEquals("3.1.55.2", proxies.getClientAddress(
+				"3.1.55.2, 123.123.123.123, 10.2.3.4", proxy));
+		assertEquals("3.1.55.2", proxies.getClientAddress(
+				"3.1.55.2,proxy.example.com", proxy));
+		assertEquals("10.1.1.1", proxies.getClientAddress(null, proxy));
+
+		assertUntrusted("3.1.55.2, 123.12.123.123, 10.2.3.4", proxy);
+		assertUntrusted("3.1.55.2",
+				InetAddress.getByAddress(new byte[] { 8, 8, 8, 8 }));
+	}
+
+	@Test
+	public void testForwardedHeader() throws Exception {
+		final TrustedProxies forwarded = new TrustedProxies("Forwarded",
+				new String[] { "10.0.0.0/8", "fd00::/8" }, false);
+
+		assertEquals("192.0.2.60", forwarded.getClientAddress(
+				"for=192.0.2.60;proto=http;by=203.0.113.43", proxy));
+		assertEquals("2001:db8:cafe::17", forwarded.getClientAddress(
+				"For=\"[2001:db8:cafe::17]:4711\", for=\"[fd00::1]\";proto=https, for=10.0.0.2:80",
+				proxy));
+		assertEquals("unknown",
+				forwarded.getClientAddress("for=unknown", proxy));
+
+		try {
+			forwarded.getClientAddress("for=192.0.2.60, proto=http", proxy);
+			fail();
+		} catch (final UnknownHostException e) {
+			// the second element has no for parameter
+		}
+	}
+
+	@Test
+	public void testHeaderInSeveralFields() throws Exception {
+		// every proxy appended a field of its own
+		assertEquals("3.1.55.2", proxies.getClientAddress(TrustedProxies
+				.join(Arrays.asList("3.1.55.2", "123.123.123.123", "10.2.3.4")),
+				proxy));
+		assertEquals("3.1.55.2", proxies.getClientAddress(TrustedProxies
+				.join(Arrays.asList("3.1.55.2, 123.123.123.123", "10.2.3.4")),
+				proxy));
+		assertEquals("3.1.55.2", proxies.getClientAddress(
+				TrustedProxies.join(Arrays.asList("3.1.55.2", "", "10.2.3.4")),
+				proxy));
+		assertEquals("10.1.1.1", proxies.getClientAddress(
+				TrustedProxies.join(Collections.<String> emptyList()), proxy));
+
+		// the first field alone would have hidden the untrusted hop
+		assertUntrusted(TrustedProxies.join(Arrays.asList("3.1.55.2",
+				"8.8.8.8, 10.2.3.4")), proxy);
+
+		final TrustedProxies forwarded = new TrustedProxies("Forwarded",
+				new String[] { "10.0.0.0/8" }, false);
+		assertEquals("192.0.2.60", forwarded.getClientAddress(
+				TrustedProxies.join(Arrays.asList("for=192.0.2.60;proto=http",
+						"for=10.0.0.2")), proxy));
+	}
+
+	@Test(expected = UnknownHostException.class)
+	public void testEnforced() throws Exception {
+		new TrustedProxies("X-Forwarded-For", new String[] { "10.0.0.1" },
+				true).getClientAddress(null, proxy);
+	}
+
+	@Test(expected = UnknownHostException.class)
+	public void testNoTrustedProxies() throws Exception {
+		new TrustedProxies("X-Forwarded-For", new String[0], false)
+		.getClientAddress("3.1.55.2", proxy);
+	}
+
+	private void assertUntrusted(final String value, final InetAddress peer) {
+		try {
+			proxies.getClientAddress(value, peer);
+			fail(value);
+		} catch (final UnknownHostException e) {
+			// expected
+		}
+	}
+
+}
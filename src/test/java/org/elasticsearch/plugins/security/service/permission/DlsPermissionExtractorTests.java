@@ -0,0 +1,108 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+public class DlsPermissionExtractorTests {
+
+	@Test
+	public void testDocument() throws Exception {
+		final DlsPermissionExtractor extractor = extract(load("dls_dummy_content.json"));
+
+		assertTrue(extractor.isFound());
+		assertFalse(extractor.isNoHits());
+
+		final List<DlsPermission> perms = extractor.getPermissions();
+		assertEquals(3, perms.size());
+		assertEquals("*", perms.get(0).getField());
+		assertTrue(perms.get(0).isAllowNone());
+		assertEquals("message", perms.get(1).getField());
+		assertTrue(perms.get(1).isTokenAllowedToRead("guesttoken"));
+		assertTrue(perms.get(1).isTokenAllowedToUpdate("admin"));
+		assertFalse(perms.get(1).isTokenAllowedToDelete("admin"));
+		assertEquals("payload.level_12.*", perms.get(2).getField());
+	}
+
+	@Test
+	public void testSearchResponse() throws Exception {
+		final String hit1 = "{\"_id\":\"1\",\"_source\":{\"a\":{\"dlspermissions\":1},"
+				+ "\"dlspermissions\":{\"f1\":{\"read\":[\"t1\"],\"update\":[],\"delete\":[]}}}}";
+		final String hit2 = "{\"_id\":\"2\",\"_source\":{\"dlspermissions\":null}}";
+		final String hit3 = "{\"_id\":\"3\",\"_source\":{\"dlspermissions\":{\"f2\":{\"read\":[\"*\"]}}}}";
+
+		final DlsPermissionExtractor extractor = extract("{\"took\":1,"
+				+ "\"hits\":{\"total\":3,\"max_score\":1.0,\"hits\":[" + hit1
+				+ "," + hit2 + "," + hit3 + "]}}");
+
+		assertTrue(extractor.isFound());
+		assertFalse(extractor.isNoHits());
+
+		final List<DlsPermission> perms = extractor.getPermissions();
+		assertEquals(2, perms.size());
+		assertEquals("f1", perms.get(0).getField());
+		assertTrue(perms.get(0).isAnyTokenAllowedToRead(Arrays.asList("t1")));
+		assertEquals("f2", perms.get(1).getField());
+		// missing token lists allow nothing
+		assertFalse(perms.get(1).isTokenAllowedToUpdate("t1"));
+		assertTrue(perms.get(1).isTokenAllowedToRead("t1"));
+	}
+
+	@Test
+	public void testGetResponse() throws Exception {
+		final DlsPermissionExtractor extractor = extract("{\"_id\":\"1\",\"found\":true,"
+				+ "\"_source\":" + load("dls_dummy_content.json") + "}");
+
+		assertTrue(extractor.isFound());
+		assertEquals(3, extractor.getPermissions().size());
+	}
+
+	@Test
+	public void testNoHitsAndNotFound() throws Exception {
+		DlsPermissionExtractor extractor = extract("{\"took\":1,"
+				+ "\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}");
+		assertTrue(extractor.isNoHits());
+		assertFalse(extractor.isFound());
+
+		extractor = extract("{\"took\":1,\"hits\":{\"total\":1,\"hits\":["
+				+ "{\"_source\":{\"message\":\"dlspermissions\"}}]}}");
+		assertFalse(extractor.isNoHits());
+		assertFalse(extractor.isFound());
+		assertTrue(extractor.getPermissions().isEmpty());
+	}
+
+	private static DlsPermissionExtractor extract(final String json)
+			throws IOException {
+		final XContentParser parser = XContentFactory.xContent(
+				XContentType.JSON).createParser(json);
+
+		try {
+			return DlsPermissionExtractor.extract(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static String load(final String file) throws IOException {
+		final InputStream in = DlsPermissionExtractorTests.class
+				.getResourceAsStream("/" + file);
+
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+}
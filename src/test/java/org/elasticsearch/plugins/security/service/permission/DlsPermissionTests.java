@@ -0,0 +1,52 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DlsPermissionTests {
+
+	@Test
+	public void testFields() {
+		final List<DlsPermission> perms = Arrays.asList(
+				perm("message", "t1", "t2"), perm("user", "t2"),
+				perm("all", "*"), perm("none"));
+
+		assertEquals(Arrays.asList("message", "all"),
+				DlsPermission.getReadableFields(perms, Arrays.asList("t1")));
+		assertEquals(Arrays.asList("message", "user", "all"),
+				DlsPermission.getReadableFields(perms,
+						Arrays.asList("t3", "t2")));
+		assertEquals(Arrays.asList("all"), DlsPermission.getReadableFields(
+				perms, Collections.<String> emptyList()));
+		// only read tokens were set
+		assertEquals(Collections.emptyList(),
+				DlsPermission.getUpdatableFields(perms, Arrays.asList("t1")));
+	}
+
+	@Test
+	public void testFieldsAreListedOnce() {
+		final List<DlsPermission> perms = Arrays.asList(perm("b", "t2"),
+				perm("a", "t2", "t1"), perm("b", "t1"));
+
+		assertEquals(Arrays.asList("b", "a"), DlsPermission.getReadableFields(
+				perms, Arrays.asList("t2", "t1", "t1")));
+	}
+
+	private static DlsPermission perm(final String field,
+			final String... readTokens) {
+		final DlsPermission perm = new DlsPermission();
+		perm.setField(field);
+
+		for (final String token : readTokens) {
+			perm.addReadToken(token);
+		}
+
+		return perm;
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class InetAddressTreeTests {
+
+	@Test
+	public void testParse() {
+		assertEquals("[10.0.0.1/32]", InetAddressTree.parse("10.0.0.1")
+				.toString());
+		assertEquals("[10.0.0.0/8]", InetAddressTree.parse("10.0.0.0/8")
+				.toString());
+		assertEquals("[10.1.0.0/16]", InetAddressTree.parse("10.1.*")
+				.toString());
+		assertEquals("[10.1.0.0/16]", InetAddressTree.parse("10.1.*.*")
+				.toString());
+		assertEquals("[0:0:0:0:0:0:0:1/128]", InetAddressTree.parse("::1")
+				.toString());
+		assertEquals("[10.0.0.1/32, 10.0.0.2/31, 10.0.0.4/30, 10.0.0.8/32]",
+				InetAddressTree.parse("10.0.0.1-10.0.0.8").toString());
+		assertEquals("[0.0.0.0/0]", InetAddressTree.parse("0.0.0.0-255.255.255.255")
+				.toString());
+
+		assertNull(InetAddressTree.parse("10.0.0.1*"));
+		assertNull(InetAddressTree.parse("10.*.0.1"));
+		assertNull(InetAddressTree.parse("10.0.0.0/33"));
+		assertNull(InetAddressTree.parse("10.0.0.0/x"));
+		assertNull(InetAddressTree.parse("10.0.0.8-10.0.0.1"));
+		assertNull(InetAddressTree.parse("10.0.0.1-::1"));
+		assertNull(InetAddressTree.parse("256.*"));
+		assertNull(InetAddressTree.parse("db-1.example.com"));
+	}
+
+	@Test
+	public void testCollect() throws Exception {
+		final InetAddressTree tree = new InetAddressTree();
+		tree.add("10.0.0.0/8", 0);
+		tree.add("10.1.2.3", 1);
+		tree.add("10.1.2.0-10.1.2.127", 2);
+		tree.add("fd00::/8", 3);
+		tree.add("0.0.0.0/0", 4);
+
+		assertEquals("{0, 1, 2, 4}", collect(tree, "10.1.2.3"));
+		assertEquals("{0, 4}", collect(tree, "10.1.2.200"));
+		assertEquals("{4}", collect(tree, "192.168.0.1"));
+		assertEquals("{3}", collect(tree, "fd12::1"));
+		assertEquals("{}", collect(tree, "fe80::1"));
+	}
+
+	private static String collect(final InetAddressTree tree,
+			final String address) throws Exception {
+		final BitSet matches = new BitSet();
+		tree.collect(InetAddress.getByName(address), matches);
+		return matches.toString();
+	}
+
+}
@@ -0,0 +1,245 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.elasticsearch.plugins.security.service.permission.DecisionTrace.Mismatch;
+import org.junit.Test;
+
+public class PermRuleSetTests {
+
+	private static final String[] INDEX_PATTERNS = new String[] { "logs",
+		"logs-*", "*-prod", "*stat*", "app*-2014.*", "tenant1", "tenant2",
+		"tenant*", "*", "kibana-int" };
+
+	private static final String[] REQUEST_INDICES = new String[] { "logs",
+		"logs-2014", "app-prod", "statistics", "app1-2014.12", "tenant1",
+		"tenant2", "tenant3", "kibana-int", "other", "logs-*", "*" };
+
+	private static final String[] HOST_PATTERNS = new String[] { "10.0.0.1",
+		"10.0.0.*", "10.*", "*.example.com", "client", "*", "10.0.0.0/31",
+		"10.0.0.2-10.1.0.0", "8.8.8.8/32", "10.0.0.1*" };
+
+	private static final String[] USERS = new String[] { "kirk", "spock",
+	"robin" };
+
+	private static final InetAddress[] HOSTS = new InetAddress[4];
+
+	static {
+		try {
+			HOSTS[0] = InetAddress.getByAddress("client", new byte[] { 10, 0,
+					0, 1 });
+			HOSTS[1] = InetAddress.getByAddress("db.example.com", new byte[] {
+					10, 0, 0, 2 });
+			HOSTS[2] = InetAddress.getByAddress("other", new byte[] { 10, 1,
+					2, 3 });
+			HOSTS[3] = InetAddress.getByAddress("external", new byte[] { 8,
+					8, 8, 8 });
+		} catch (final Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testFirstMatchWins() throws Exception {
+		final List<Perm<String>> perms = new ArrayList<Perm<String>>();
+
+		for (int i = 0; i < PermRuleSet.INDEX_THRESHOLD; i++) {
+			perms.add(perm("tenant" + i, null, "tenant" + i));
+		}
+
+		perms.add(perm("tenant*", null, "wildcard"));
+		perms.add(perm("tenant5", null, "shadowed"));
+		perms.add(perm("*-prod", "10.0.0.*", "prod"));
+
+		final PermRuleSet<String> ruleSet = new PermRuleSet<String>(perms,
+				"default");
+
+		assertEquals("tenant5", evaluate(ruleSet, "tenant5", HOSTS[0]));
+		assertEquals("wildcard", evaluate(ruleSet, "tenant99", HOSTS[0]));
+		assertEquals("prod", evaluate(ruleSet, "app-prod", HOSTS[1]));
+		assertEquals("default", evaluate(ruleSet, "app-prod", HOSTS[2]));
+		assertEquals("default", evaluate(ruleSet, "other", HOSTS[0]));
+		// wildcards in the request match any rule they cover
+		assertEquals("tenant0", evaluate(ruleSet, "tenant*", HOSTS[0]));
+	}
+
+	@Test
+	public void testNetworks() throws Exception {
+		final List<Perm<String>> perms = new ArrayList<Perm<String>>();
+		perms.add(perm("logs", "10.0.0.0/31", "cidr"));
+		perms.add(perm("logs", "10.0.0.2-10.1.0.0", "range"));
+		perms.add(perm("logs", "10.1.*", "octets"));
+		perms.add(perm("logs", "::ffff:8.8.8.8", "mapped"));
+
+		final PermRuleSet<String> ruleSet = new PermRuleSet<String>(perms,
+				"default");
+
+		assertEquals("cidr", evaluate(ruleSet, "logs", HOSTS[0]));
+		assertEquals("range", evaluate(ruleSet, "logs", HOSTS[1]));
+		assertEquals("octets", evaluate(ruleSet, "logs", HOSTS[2]));
+		assertEquals("mapped", evaluate(ruleSet, "logs", HOSTS[3]));
+		assertEquals("default", evaluate(ruleSet, "logs",
+				InetAddress.getByAddress(new byte[] { 10, 2, 0, 0 })));
+	}
+
+	@Test
+	public void testDecisionTrace() throws Exception {
+		final List<Perm<String>> perms = new ArrayList<Perm<String>>();
+		perms.add(perm("logs", "8.8.8.8", "external"));
+		final Perm<String> kirk = perm("logs", null, "kirk");
+		kirk.addUser("kirk");
+		perms.add(kirk);
+		perms.add(perm("other", null, "other"));
+		perms.add(perm("logs", "10.0.0.*", "internal"));
+
+		final PermRuleSet<String> ruleSet = new PermRuleSet<String>(perms,
+				"default");
+
+		DecisionTrace trace = new DecisionTrace();
+		assertEquals("internal", ruleSet.evaluate(Arrays.asList("logs"),
+				null, HOSTS[0], new FixedUser("spock"), trace));
+		assertEquals(4, trace.getChecked());
+		assertEquals("internal", trace.getPermLevel());
+		assertFalse(trace.isDefaultApplied());
+
+		final List<DecisionTrace.Step> steps = trace.getSteps();
+		assertEquals(4, steps.size());
+		assertEquals(Mismatch.HOST, steps.get(0).getMismatch());
+		assertEquals(Mismatch.USER, steps.get(1).getMismatch());
+		assertEquals(Mismatch.INDEX, steps.get(2).getMismatch());
+		assertEquals(3, steps.get(3).getRule());
+		assertNull(steps.get(3).getMismatch());
+
+		trace = new DecisionTrace();
+		assertEquals("default", ruleSet.evaluate(Arrays.asList("logs"),
+				null, HOSTS[2], null, trace));
+		assertTrue(trace.isDefaultApplied());
+		assertEquals("default", trace.getPermLevel());
+		assertEquals(Mismatch.HOST, trace.getSteps().get(3).getMismatch());
+		assertTrue(trace.toString().contains("no rule matched, default default"));
+	}
+
+	@Test
+	public void testIndexedEqualsLinear() throws Exception {
+		final Random random = new Random(42);
+
+		for (int round = 0; round < 20; round++) {
+			final List<Perm<String>> perms = new ArrayList<Perm<String>>();
+			final int size = PermRuleSet.INDEX_THRESHOLD + random.nextInt(200);
+
+			for (int i = 0; i < size; i++) {
+				final Perm<String> p = new Perm<String>();
+
+				addRandom(random, p, INDEX_PATTERNS, "indices");
+				addRandom(random, p, HOST_PATTERNS, "hosts");
+				addRandom(random, p, INDEX_PATTERNS, "types");
+				addRandom(random, p, USERS, "users");
+
+				p.setPermLevel("rule" + i);
+				perms.add(p);
+			}
+
+			final PermRuleSet<String> ruleSet = new PermRuleSet<String>(perms,
+					"default");
+
+			for (int i = 0; i < 500; i++) {
+				final List<String> indices = randomValues(random,
+						REQUEST_INDICES);
+				final List<String> types = randomValues(random,
+						REQUEST_INDICES);
+				final InetAddress host = HOSTS[random.nextInt(HOSTS.length)];
+				final UserRoleCallback callback = random.nextBoolean() ? null
+						: new FixedUser(USERS[random.nextInt(USERS.length)]);
+
+				assertEquals(indices + " " + types + " " + host,
+						ruleSet.evaluateLinear(indices, types, host, callback),
+						ruleSet.evaluate(indices, types, host, callback));
+			}
+		}
+	}
+
+	private static String evaluate(final PermRuleSet<String> ruleSet,
+			final String index, final InetAddress host) {
+		final List<String> indices = Arrays.asList(index);
+		final String linear = ruleSet.evaluateLinear(indices, null, host, null);
+		assertEquals(linear, ruleSet.evaluate(indices, null, host, null));
+		return linear;
+	}
+
+	private static Perm<String> perm(final String index, final String host,
+			final String permLevel) {
+		final Perm<String> p = new Perm<String>();
+		p.addIndice(index);
+		if (host != null) {
+			p.addInetAddress(host);
+		}
+		p.setPermLevel(permLevel);
+		return p;
+	}
+
+	private static void addRandom(final Random random, final Perm<String> p,
+			final String[] values, final String field) {
+		// most rules constrain only some of the dimensions
+		final int count = random.nextInt(4) - 1;
+
+		for (int i = 0; i < count; i++) {
+			final String value = values[random.nextInt(values.length)];
+
+			if ("indices".equals(field)) {
+				p.addIndice(value);
+			} else if ("hosts".equals(field)) {
+				p.addInetAddress(value);
+			} else if ("types".equals(field)) {
+				p.addType(value);
+			} else {
+				p.addUser(value);
+			}
+		}
+	}
+
+	private static List<String> randomValues(final Random random,
+			final String[] values) {
+		final int count = random.nextInt(3);
+
+		if (count == 0) {
+			return random.nextBoolean() ? null : new ArrayList<String>();
+		}
+
+		final List<String> result = new ArrayList<String>();
+
+		for (int i = 0; i < count; i++) {
+			result.add(values[random.nextInt(values.length)]);
+		}
+
+		return result;
+	}
+
+	private static class FixedUser implements UserRoleCallback {
+
+		private final String user;
+
+		private FixedUser(final String user) {
+			this.user = user;
+		}
+
+		@Override
+		public String getRemoteuser() {
+			return user;
+		}
+
+		@Override
+		public boolean isRemoteUserInRole(final String role) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.elasticsearch.plugins.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+public class RequestPathTests {
+
+	@Test
+	public void testIndicesTypesAndId() {
+		RequestPath path = RequestPath.parse(Method.GET,
+				"/twitter,logs/tweet,user/1");
+		assertEquals(Arrays.asList("twitter", "logs"), path.getIndices());
+		assertEquals(Arrays.asList("tweet", "user"), path.getTypes());
+		assertEquals("1", path.getId());
+
+		path = RequestPath.parse(Method.GET, "/twitter/_search");
+		assertEquals(Arrays.asList("twitter"), path.getIndices());
+		assertEquals(Collections.emptyList(), path.getTypes());
+		assertEquals("_search", path.getId());
+
+		path = RequestPath.parse(Method.GET, "/twitter");
+		assertEquals(Arrays.asList("twitter"), path.getIndices());
+
+		path = RequestPath.parse(Method.GET, "/_cluster/health");
+		assertEquals(Collections.emptyList(), path.getIndices());
+
+		path = RequestPath.parse(Method.GET, "/");
+		assertEquals(Collections.emptyList(), path.getIndices());
+		assertNull(path.getId());
+
+		path = RequestPath.parse(Method.GET, "twitter");
+		assertNull(path.getIndices());
+		assertNull(path.getTypes());
+	}
+
+	@Test
+	public void testCommandClassification() {
+		RequestPath path = RequestPath.parse(Method.POST, "/twitter/_refresh");
+		assertTrue(path.isAdminRequest());
+		assertFalse(path.isReadRequest(false));
+
+		path = RequestPath.parse(Method.POST, "/twitter/_search");
+		assertFalse(path.isWriteRequest(true));
+		assertTrue(path.isReadRequest(true));
+
+		path = RequestPath.parse(Method.POST, "/twitter/_mapping");
+		assertTrue(path.isWriteRequest(true));
+		assertFalse(path.isWriteRequest(false));
+
+		path = RequestPath.parse(Method.POST, "/twitter/tweet/1/_update");
+		assertTrue(path.isWriteRequest(false));
+
+		// a type named like a command is not a command
+		path = RequestPath.parse(Method.GET, "/twitter/_stats/1");
+		assertFalse(path.isAdminRequest());
+
+		path = RequestPath.parse(Method.DELETE, "/twitter/tweet/1");
+		assertTrue(path.isWriteRequest(false));
+		assertFalse(path.isReadRequest(false));
+	}
+
+	@Test
+	public void testKind() {
+		assertEquals(RequestKind.ADMIN,
+				RequestPath.parse(Method.POST, "/twitter/_refresh").getKind(false));
+		// admin and write
+		final RequestPath template = RequestPath.parse(Method.DELETE,
+				"/_template");
+		assertEquals(RequestKind.ADMIN, template.getKind(false));
+		assertTrue(template.isWriteRequest(false));
+
+		assertEquals(RequestKind.READ,
+				RequestPath.parse(Method.POST, "/twitter/_search").getKind(true));
+		assertEquals(RequestKind.READ,
+				RequestPath.parse(Method.GET, "/twitter/tweet/1").getKind(true));
+		assertEquals(RequestKind.WRITE,
+				RequestPath.parse(Method.POST, "/twitter/_aliases").getKind(true));
+		assertEquals(RequestKind.READ,
+				RequestPath.parse(Method.POST, "/twitter/_aliases").getKind(false));
+	}
+
+	@Test
+	public void testCommandsAreWholeSegments() {
+		// not the _search command
+		assertEquals(RequestKind.WRITE,
+				RequestPath.parse(Method.POST, "/twitter/_searchfoo").getKind(false));
+		// an index ending like a command does not hide the command
+		assertEquals(RequestKind.READ,
+				RequestPath.parse(Method.POST, "/my_search/_search").getKind(false));
+		// a command name which is also used as index name is no command
+		RequestPath path = RequestPath.parse(Method.GET, "/_bulk/tweet/_bulk");
+		assertEquals(RequestKind.READ, path.getKind(false));
+		assertTrue(path.hasWriteCommandAsName(false));
+		assertFalse(path.hasReadCommandAsName(false));
+
+		path = RequestPath.parse(Method.GET, "/twitter/_search/1");
+		assertEquals(RequestKind.READ, path.getKind(false));
+		assertTrue(path.hasReadCommandAsName(false));
+		assertFalse(path.hasAdminCommandAsName());
+	}
+
+	@Test
+	public void testTrailingAndDoubleSlashes() {
+		// the command is the last non-empty segment
+		RequestPath path = RequestPath.parse(Method.POST, "/_shutdown/");
+		assertEquals(RequestKind.ADMIN, path.getKind(false));
+		assertFalse(path.hasAdminCommandAsName());
+
+		path = RequestPath.parse(Method.POST, "/twitter/_search/");
+		assertEquals(RequestKind.READ, path.getKind(true));
+		assertFalse(path.hasReadCommandAsName(true));
+
+		path = RequestPath.parse(Method.POST, "/twitter/_refresh//");
+		assertEquals(RequestKind.ADMIN, path.getKind(false));
+
+		// empty inner segments neither end nor hide the command
+		path = RequestPath.parse(Method.POST, "/twitter//_search");
+		assertEquals(RequestKind.READ, path.getKind(true));
+		assertFalse(path.hasReadCommandAsName(true));
+
+		path = RequestPath.parse(Method.POST, "//_cluster//_shutdown/");
+		assertEquals(RequestKind.ADMIN, path.getKind(false));
+
+		// still an inner segment when followed by a non-empty one
+		path = RequestPath.parse(Method.POST, "/twitter/_bulk//tweet/");
+		assertEquals(RequestKind.WRITE, path.getKind(false));
+		assertTrue(path.hasWriteCommandAsName(false));
+
+		path = RequestPath.parse(Method.POST, "/");
+		assertEquals(RequestKind.WRITE, path.getKind(false));
+		path = RequestPath.parse(Method.GET, "//");
+		assertEquals(RequestKind.READ, path.getKind(false));
+	}
+
+	@Test
+	public void testCommandAsTypeOrIndex() {
+		assertTrue(SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
+				"/twitter/_search/1", SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
+		assertFalse(SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
+				"/twitter/_search", SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
+		assertFalse(SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
+				"/twitter/x_search/1", SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
+	}
+
+}
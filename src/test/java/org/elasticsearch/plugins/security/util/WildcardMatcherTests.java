@@ -0,0 +1,67 @@
+package org.elasticsearch.plugins.security.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WildcardMatcherTests {
+
+	@Test
+	public void testLiteral() {
+		final WildcardMatcher m = WildcardMatcher.compile("testindex1");
+		assertTrue(m.isLiteral());
+		assertTrue(m.matches("testindex1"));
+		assertFalse(m.matches("testindex10"));
+		assertFalse(m.matches(null));
+	}
+
+	@Test
+	public void testMatchAll() {
+		assertTrue(WildcardMatcher.compile("*").isMatchAll());
+		assertTrue(WildcardMatcher.compile("**").matches(""));
+		assertTrue(WildcardMatcher.compile("*").matches("anything"));
+	}
+
+	@Test
+	public void testPrefixSuffixContains() {
+		assertTrue(WildcardMatcher.compile("testindex-*").matches("testindex-1020"));
+		assertFalse(WildcardMatcher.compile("testindex-*").matches("xtestindex-1"));
+		assertTrue(WildcardMatcher.compile("*-prod").matches("logs-prod"));
+		assertFalse(WildcardMatcher.compile("*-prod").matches("logs-prod1"));
+		assertTrue(WildcardMatcher.compile("*testindex*").matches("xtestindexy"));
+		assertTrue(WildcardMatcher.compile("*testindex*").matches("testindex"));
+		assertTrue(WildcardMatcher.compile("8.8.8.*").matches("8.8.8.9"));
+		assertFalse(WildcardMatcher.compile("8.8.8.*").matches("8.8.818"));
+	}
+
+	@Test
+	public void testSegments() {
+		final WildcardMatcher m = WildcardMatcher.compile("app*-2014.*.01");
+		assertTrue(m.matches("app1-2014.12.01"));
+		assertTrue(m.matches("app-2014..01"));
+		assertFalse(m.matches("app1-2014.12.02"));
+		assertFalse(m.matches("xapp1-2014.12.01"));
+
+		assertTrue(WildcardMatcher.compile("a*a").matches("aa"));
+		assertFalse(WildcardMatcher.compile("a*a").matches("a"));
+		assertTrue(WildcardMatcher.compile("*a*b*").matches("xxaxxbxx"));
+		assertFalse(WildcardMatcher.compile("*a*b*").matches("xxbxxaxx"));
+		assertTrue(WildcardMatcher.compile("a*b*b").matches("abbb"));
+	}
+
+	@Test
+	public void testRegexCharactersAreLiterals() {
+		assertTrue(WildcardMatcher.compile("logs+x").matches("logs+x"));
+		assertFalse(WildcardMatcher.compile("logs+x").matches("logssx"));
+		assertFalse(WildcardMatcher.compile("a.c").matches("abc"));
+	}
+
+	@Test
+	public void testSymmetricMatch() {
+		assertTrue(WildcardMatcher.isWildcardMatch("testindex*", "testindex1"));
+		assertTrue(WildcardMatcher.isWildcardMatch("testindex1", "testindex*"));
+		assertFalse(WildcardMatcher.isWildcardMatch("testindex1", "other*"));
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.elasticsearch.plugins.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Test;
+
+public class XContentFieldFilterTests {
+
+	// what TomcatHttpServerRestChannel.getDlsIncludes returns for a search
+	private static final String[] DLS_FIELDS = new String[] { "_shards*",
+		"took", "timed_out", "hits.total", "hits.max_score",
+		"hits.hits._index", "hits.hits._type", "hits.hits._id",
+		"hits.hits._score", "_index", "_type", "_version", "_id", "found",
+		"facets", "hits.hits._source.message", "_source.message",
+		"hits.hits._source.payload.level_12.*",
+	"_source.payload.level_12.*" };
+
+	private static final String SEARCH_RESPONSE = "{\"took\":3,\"timed_out\":false,"
+			+ "\"_shards\":{\"total\":5,\"successful\":5,\"failed\":0},"
+			+ "\"hits\":{\"total\":2,\"max_score\":1.0,\"hits\":["
+			+ "{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"_score\":1.0,"
+			+ "\"_source\":{\"twitteruser\":\"olomo1\",\"message\":\"hello\",\"tags\":[\"a\",\"b\"],"
+			+ "\"payload\":{\"level_11\":{\"x\":1},\"level_12\":{\"a\":[1,2,{\"b\":null}],\"c\":\"d\"}}}},"
+			+ "{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"2\",\"_score\":1.0,"
+			+ "\"_source\":{\"twitteruser\":\"olomo2\",\"payload\":{\"level_11\":{}}}}"
+			+ "]},\"facets\":{\"f\":{\"terms\":[{\"term\":\"x\",\"count\":1}]}},"
+			+ "\"aggregations\":{\"a\":{\"value\":1}}}";
+
+	@Test
+	public void testSearchResponse() throws Exception {
+		assertSameAsMapFilter(SEARCH_RESPONSE, DLS_FIELDS);
+	}
+
+	@Test
+	public void testGetResponse() throws Exception {
+		final String source = load("dls_dummy_content.json");
+		assertSameAsMapFilter("{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\","
+				+ "\"_version\":1,\"found\":true,\"_source\":" + source + "}",
+				DLS_FIELDS);
+	}
+
+	@Test
+	public void testPathObjectsOnlyWrittenIfNotEmpty() throws Exception {
+		// _source of the second hit has no allowed field, the hit is kept
+		// but without _source
+		final String filtered = filter(SEARCH_RESPONSE, DLS_FIELDS);
+		final Map<String, Object> map = XContentHelper.convertToMap(
+				filtered.getBytes("UTF-8"), false).v2();
+
+		final List<?> hits = (List<?>) XContentMapValues.extractValue(
+				"hits.hits", map);
+		final Map<?, ?> secondHit = (Map<?, ?>) hits.get(1);
+
+		assertEquals("2", secondHit.get("_id"));
+		assertFalse(secondHit.containsKey("_source"));
+		assertFalse(((Map<?, ?>) hits.get(0)).containsKey("twitteruser"));
+	}
+
+	@Test
+	public void testArraysAndWildcards() throws Exception {
+		final String doc = "{\"a\":[[1,{\"x\":1}],[{\"y\":2}],[]],\"b\":{\"c\":[{\"d\":1,\"e\":2},{\"e\":3}]},"
+				+ "\"f\":{\"g\":{\"h\":1}},\"i\":null}";
+
+		assertSameAsMapFilter(doc, new String[] { "a.x" });
+		assertSameAsMapFilter(doc, new String[] { "b.c.d" });
+		assertSameAsMapFilter(doc, new String[] { "*.h" });
+		assertSameAsMapFilter(doc, new String[] { "f.*" });
+		assertSameAsMapFilter(doc, new String[] { "f.g", "i" });
+		assertSameAsMapFilter(doc, new String[] { "nothing" });
+		assertSameAsMapFilter(doc, new String[] {});
+	}
+
+	private static void assertSameAsMapFilter(final String json,
+			final String[] includes) throws IOException {
+
+		final Map<String, Object> expected = XContentMapValues.filter(
+				XContentHelper.convertToMap(json.getBytes("UTF-8"), true)
+				.v2(), includes, null);
+
+		final Map<String, Object> actual = XContentHelper.convertToMap(
+				filter(json, includes).getBytes("UTF-8"), false).v2();
+
+		assertEquals(expected, actual);
+	}
+
+	private static String filter(final String json, final String[] includes)
+			throws IOException {
+		final XContentBuilder builder = XContentFactory
+				.contentBuilder(XContentType.JSON);
+		final XContentParser parser = XContentFactory.xContent(
+				XContentType.JSON).createParser(json);
+
+		try {
+			XContentFieldFilter.filter(parser, builder.generator(), includes);
+		} finally {
+			parser.close();
+		}
+
+		return builder.string();
+	}
+
+	private static String load(final String file) throws IOException {
+		final InputStream in = XContentFieldFilterTests.class
+				.getResourceAsStream("/" + file);
+
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+}